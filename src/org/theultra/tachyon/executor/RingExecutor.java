@@ -0,0 +1,319 @@
+package org.theultra.tachyon.executor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitInterruptedException;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A fixed size ExecutorService whose tasks are kept in a ConcurrentQueue instead of a linked queue,
+ * so submitting a task allocates nothing but the task itself.
+ * <br>
+ * A worker takes up to batchSize tasks from the shared queue with one claim and runs them one after another.
+ * With work stealing, the batch is moved into the worker's own queue where idle workers can steal from it,
+ * and tasks submitted by a worker go into its own queue first, so a slow task never holds back the rest of its batch.
+ * Idle workers wait with the WaitStrategy, which is also used by execute() while the shared queue is full.
+ * <br>
+ * shutdownNow() returns the tasks left in the queues and the tasks the workers have taken into their batches but not started yet,
+ * including the tasks of the execute() calls which were in progress, e.g. waiting on a full queue.
+ * @author lofint
+ */
+public class RingExecutor extends AbstractExecutorService {
+	private static final int DEFAULT_CAPACITY = 1024 * 64;
+	private static final int DEFAULT_BATCH_SIZE = 64;
+	private static final int RUNNING = 0;
+	private static final int SHUTDOWN = 1;
+	private static final int STOP = 2;
+
+	private String name = "Unnamed Executor";
+	private final ConcurrentQueue<Runnable> queue;
+	private final WaitStrategy waitStrategy;
+	private final int batchSize;
+	private final Worker[] workers;
+	private final ThreadLocal<Worker> currentWorker; //null without work stealing
+	private final CountDownLatch terminated;
+	private volatile int state = RUNNING;
+	private final AtomicInteger submitting = new AtomicInteger(); //execute() calls which have passed the state check
+	private final BooleanSupplier isIdle = () -> state == RUNNING && getQueuedTasks() == 0;
+
+	/**
+	 * Create an executor of the given number of threads without work stealing
+	 */
+	public RingExecutor(int threads) {
+		this(threads, false);
+	}
+
+	public RingExecutor(int threads, boolean workStealing) {
+		this(threads, DEFAULT_CAPACITY, new BackoffParkWaitStrategy(), DEFAULT_BATCH_SIZE, workStealing, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * @param preferCapacity the prefer capacity of the shared queue, see ConcurrentQueue(int)
+	 * @param waitStrategy used by idle workers and by execute() while the shared queue is full
+	 * @param batchSize the most tasks a worker takes from the shared queue at a time
+	 * @param workStealing give every worker its own queue which the other workers steal from
+	 */
+	public RingExecutor(int threads, int preferCapacity, WaitStrategy waitStrategy, int batchSize, boolean workStealing, ThreadFactory threadFactory) {
+		if(threads <= 0) throw new IllegalArgumentException("threads must be greater than 0");
+		if(batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.waitStrategy = waitStrategy;
+		this.batchSize = batchSize;
+		this.queue = new ConcurrentQueue<Runnable>(preferCapacity, waitStrategy);
+		this.currentWorker = workStealing ? new ThreadLocal<Worker>() : null;
+		this.terminated = new CountDownLatch(threads);
+		this.workers = new Worker[threads];
+		for(int i = 0; i < threads; i ++) {
+			workers[i] = new Worker(workStealing ? new ConcurrentQueue<Runnable>(batchSize, waitStrategy) : null);
+		}
+		for(int i = 0; i < threads; i ++) {
+			Thread t = threadFactory.newThread(workers[i]);
+			if(t == null) throw new NullPointerException("ThreadFactory returned null");
+			workers[i].thread = t;
+			t.start();
+		}
+	}
+
+	/**
+	 * Put the task into the queue of the calling worker or the shared queue, wait while the shared queue is full.
+	 * @throws RejectedExecutionException if the executor has been shut down
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if(task == null) throw new NullPointerException("Task can't be null");
+		submitting.incrementAndGet();
+		try {
+			if(state != RUNNING) throw new RejectedExecutionException(name + " has been shut down");
+			if(currentWorker != null) {
+				Worker w = currentWorker.get();
+				if(w != null && w.local.offer(task)) return;
+			}
+			queue.put(task);
+		} finally {
+			submitting.decrementAndGet();
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		synchronized(this) {
+			if(state == RUNNING) state = SHUTDOWN;
+		}
+		waitStrategy.signal();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		synchronized(this) {
+			state = STOP;
+		}
+		List<Runnable> r = new ArrayList<Runnable>();
+		for(Worker w : workers) {
+			w.thread.interrupt();
+			while(w.claiming) Thread.onSpinWait(); //a worker which has passed the state check is moving tasks into its batch
+			for(int i = 0; i < batchSize; i ++) {
+				Runnable t = w.batch.getAndSet(i, null);
+				if(t != null) r.add(t);
+			}
+		}
+		//execute() increments submitting before it checks the state, wait for the ones which have passed the check
+		while(true) {
+			drainQueues(r); //also makes room for an execute() waiting on a full queue
+			if(submitting.get() == 0) break;
+			Thread.yield();
+		}
+		drainQueues(r);
+		waitStrategy.signal();
+		return r;
+	}
+
+	private void drainQueues(List<Runnable> r) {
+		for(Worker w : workers) {
+			if(w.local != null) w.local.drainTo(r, Integer.MAX_VALUE);
+		}
+		queue.drainTo(r, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return state != RUNNING;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	/**
+	 * @return the number of tasks waiting in the shared queue and the queues of the workers
+	 */
+	public int getQueuedTasks() {
+		int r = queue.size();
+		for(Worker w : workers) {
+			if(w.local != null) r += w.local.size();
+		}
+		return r;
+	}
+
+	public int getPoolSize() {
+		return workers.length;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+		queue.setName(name);
+	}
+
+	/**
+	 * A worker may only stop once no execute() is in progress and every queue it can take from is empty,
+	 * execute() increments submitting before it checks the state, so a task put after this check is never stranded.
+	 */
+	private boolean canExit() {
+		int s = state;
+		if(s == STOP) return true;
+		if(s == RUNNING || submitting.get() != 0 || queue.size() != 0) return false;
+		for(Worker w : workers) {
+			if(w.local != null && w.local.size() != 0) return false;
+		}
+		return true;
+	}
+
+	private final class Worker implements Runnable {
+		final ConcurrentQueue<Runnable> local; //null without work stealing
+		final Runnable[] drained; //the tasks of one drain of the shared queue, only used while claiming
+		final AtomicReferenceArray<Runnable> batch; //the tasks taken but not started, a slot is emptied by the worker or by shutdownNow()
+		final Consumer<Runnable> adder = this::add;
+		volatile boolean claiming; //between the state check and the last task put into the batch
+		int drainedLen;
+		int batchPos;
+		int batchLen;
+		Thread thread;
+
+		Worker(ConcurrentQueue<Runnable> local) {
+			this.local = local;
+			this.drained = new Runnable[batchSize];
+			this.batch = new AtomicReferenceArray<Runnable>(batchSize);
+		}
+
+		@Override
+		public void run() {
+			if(currentWorker != null) currentWorker.set(this);
+			try {
+				int idleCount = 0;
+				while(state != STOP) {
+					Runnable task = next();
+					if(task != null) {
+						idleCount = 0;
+						runTask(task);
+						if(state != STOP) Thread.interrupted(); //don't let a task leave the worker interrupted
+					} else if(canExit()) {
+						break;
+					} else {
+						try {
+							idleCount = waitStrategy.idle(idleCount, isIdle, 0);
+						} catch (WaitInterruptedException e) {
+							if(state != STOP) Thread.interrupted(); //only shutdownNow() stops a worker
+						}
+					}
+				}
+			} finally {
+				terminated.countDown();
+			}
+		}
+
+		private Runnable next() {
+			if(batchPos < batchLen) return take();
+			if(local != null) {
+				Runnable r = local.poll();
+				if(r != null) return r;
+			}
+			if(claim()) return take();
+			return local != null ? steal() : null;
+		}
+
+		/**
+		 * Move up to batchSize tasks from the shared queue into the batch. shutdownNow() sets STOP before it reads claiming,
+		 * and the worker sets claiming before it reads the state, so either the worker sees STOP and claims nothing,
+		 * or shutdownNow() waits until the claimed tasks are in the batch or the own queue, where it takes them back.
+		 * @return false if nothing has been claimed
+		 */
+		private boolean claim() {
+			batchPos = batchLen = drainedLen = 0;
+			claiming = true;
+			try {
+				if(state == STOP) return false;
+				int n = queue.drain(adder, batchSize);
+				if(n == 0) return false;
+				int k = 0;
+				if(local != null && n > 1) {
+					//keep the first task, hand the rest to the own queue where the others can steal them
+					k = local.offerBatch(drained, 1, n - 1);
+				}
+				batch.set(batchLen ++, drained[0]);
+				for(int i = 1 + k; i < n; i ++) {
+					batch.set(batchLen ++, drained[i]);
+				}
+				Arrays.fill(drained, 0, n, null);
+				return true;
+			} finally {
+				claiming = false;
+			}
+		}
+
+		private void add(Runnable r) {
+			drained[drainedLen ++] = r;
+		}
+
+		/**
+		 * @return null if shutdownNow() has taken the rest of the batch
+		 */
+		private Runnable take() {
+			return batch.getAndSet(batchPos ++, null);
+		}
+
+		private Runnable steal() {
+			int n = workers.length;
+			int start = ThreadLocalRandom.current().nextInt(n);
+			for(int i = 0; i < n; i ++) {
+				Worker w = workers[(start + i) % n];
+				if(w == this) continue;
+				Runnable r = w.local.poll();
+				if(r != null) return r;
+			}
+			return null;
+		}
+
+		private void runTask(Runnable task) {
+			try {
+				task.run();
+			} catch (Throwable e) {
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package org.theultra.tachyon.flow;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+
+/**
+ * A Flow.Publisher which hands the objects of an IBlockingQueue to its subscribers.
+ * <br>
+ * Senders go through submit() and offer(), which put into the queue and then schedule the subscriptions with demand.
+ * A subscription drains the queue on the executor in batches of at most batchSize and never more than requested,
+ * there is at most one drain of a subscription running at a time, so no thread is dedicated to the queue.
+ * Senders feel the backpressure of the queue itself: submit() waits while the queue is full the way put() does,
+ * with a queue waiting with a BlockingWaitStrategy the sender is parked instead of spinning.
+ * <br>
+ * Every object is delivered to one subscriber, subscribers compete for the objects like receivers of the queue.
+ * After close(), every subscriber is completed as soon as the queue is empty.
+ * @author lofint
+ * @param <T>
+ */
+public class QueuePublisher<T> implements Flow.Publisher<T> {
+	private static final int DEFAULT_BATCH_SIZE = 64;
+	private final IBlockingQueue<T> queue;
+	private final Executor executor;
+	private final int batchSize;
+	private final CopyOnWriteArrayList<QueueSubscription> subscriptions = new CopyOnWriteArrayList<QueueSubscription>();
+	private volatile boolean closed;
+
+	/**
+	 * Deliver on the common ForkJoinPool in batches of 64
+	 */
+	public QueuePublisher(IBlockingQueue<T> queue) {
+		this(queue, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param executor runs the deliveries, it must not run a task on the calling thread
+	 * @param batchSize the most objects delivered by one drain of the queue
+	 */
+	public QueuePublisher(IBlockingQueue<T> queue, Executor executor, int batchSize) {
+		if(queue == null) throw new NullPointerException("Queue can't be null");
+		if(executor == null) throw new NullPointerException("Executor can't be null");
+		if(batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+		this.queue = queue;
+		this.executor = executor;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if(subscriber == null) throw new NullPointerException("Subscriber can't be null");
+		QueueSubscription s = new QueueSubscription(subscriber);
+		subscriptions.add(s);
+		s.schedule(); //onSubscribe is called by the first drain, so it never runs concurrently with onNext
+	}
+
+	/**
+	 * Put the object into the queue, wait while the queue is full.
+	 * @throws IllegalStateException if the publisher has been closed
+	 */
+	public void submit(T obj) {
+		if(closed) throw new IllegalStateException("The publisher has been closed");
+		queue.put(obj);
+		signal();
+	}
+
+	/**
+	 * @return false if the queue is full, never wait
+	 * @throws IllegalStateException if the publisher has been closed
+	 */
+	public boolean offer(T obj) {
+		if(closed) throw new IllegalStateException("The publisher has been closed");
+		if(!queue.offer(obj)) return false;
+		signal();
+		return true;
+	}
+
+	/**
+	 * No more objects will be submitted, must be called after the last submit() or offer() has returned.
+	 * Subscribers are completed once they have drained the queue.
+	 */
+	public void close() {
+		closed = true;
+		for(QueueSubscription s : subscriptions) {
+			s.schedule();
+		}
+	}
+
+	private void signal() {
+		for(QueueSubscription s : subscriptions) {
+			if(s.requested.get() > 0) s.schedule();
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of subscribers which have neither cancelled nor completed
+	 */
+	public int getNumberOfSubscribers() {
+		return subscriptions.size();
+	}
+
+	public IBlockingQueue<T> getQueue() {
+		return queue;
+	}
+
+	private final class QueueSubscription implements Flow.Subscription, Runnable {
+		final Flow.Subscriber<? super T> subscriber;
+		final Consumer<T> onNext;
+		final AtomicLong requested = new AtomicLong();
+		final AtomicInteger wip = new AtomicInteger(); //scheduled drains, only the one which brings it from 0 runs
+		boolean subscribed; //only touched by the drain
+		volatile boolean cancelled;
+		volatile Throwable error; //an illegal request to report
+
+		QueueSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+			this.onNext = subscriber::onNext;
+		}
+
+		@Override
+		public void request(long n) {
+			if(n <= 0) {
+				error = new IllegalArgumentException("The requested number must be greater than 0, but was " + n);
+			} else {
+				long r, u;
+				do {
+					r = requested.get();
+					u = r + n < 0 ? Long.MAX_VALUE : r + n;
+				} while(!requested.compareAndSet(r, u));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+		}
+
+		void schedule() {
+			if(wip.getAndIncrement() != 0) return;
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				cancel();
+				subscriber.onError(e);
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			if(!subscribed) {
+				subscribed = true;
+				subscriber.onSubscribe(this);
+			}
+			while(true) {
+				if(cancelled) return;
+				Throwable e = error;
+				if(e != null) {
+					cancel();
+					subscriber.onError(e);
+					return;
+				}
+				long r = requested.get();
+				long n = 0;
+				try {
+					while(n < r && !cancelled) {
+						int d = queue.drain(onNext, (int) Math.min(r - n, batchSize));
+						if(d == 0) break;
+						n += d;
+					}
+				} catch (Throwable t) {
+					cancel(); //a subscriber must not throw from onNext
+					throw t;
+				}
+				if(n != 0 && r != Long.MAX_VALUE) requested.addAndGet(-n);
+				if(closed && queue.size() == 0 && !cancelled) {
+					cancel();
+					subscriber.onComplete();
+					return;
+				}
+				missed = wip.addAndGet(-missed);
+				if(missed == 0) return;
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package org.theultra.tachyon.flow;
+
+import java.util.concurrent.Flow;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A Flow.Subscriber which puts what it receives into an IBlockingQueue for a receiver thread to take.
+ * <br>
+ * It never requests more than the queue can hold: prefetch objects at first and then, every time the receiver
+ * has taken prefetch / 2 of them, that many again. So onNext never finds the queue full and the publisher
+ * is slowed down to the speed of the receiver. The queue must be able to hold prefetch objects.
+ * <br>
+ * poll(), take() and drain() must be called by one receiver thread at a time.
+ * @author lofint
+ * @param <T>
+ */
+public class QueueSubscriber<T> implements Flow.Subscriber<T> {
+	private final IBlockingQueue<T> queue;
+	private final WaitStrategy waitStrategy;
+	private final int prefetch;
+	private final int limit;
+	private volatile Flow.Subscription subscription;
+	private volatile boolean done;
+	private volatile Throwable error;
+	private int consumed; //taken since the last request, only used by the receiver
+	private final BooleanSupplier isIdle; //true while take() has nothing to return
+
+	/**
+	 * @param prefetch the most objects requested but not taken yet, the queue must be able to hold them
+	 */
+	public QueueSubscriber(IBlockingQueue<T> queue, int prefetch) {
+		this(queue, prefetch, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param waitStrategy used by take() while the queue is empty
+	 */
+	public QueueSubscriber(IBlockingQueue<T> queue, int prefetch, WaitStrategy waitStrategy) {
+		if(queue == null) throw new NullPointerException("Queue can't be null");
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		if(prefetch <= 0) throw new IllegalArgumentException("prefetch must be greater than 0");
+		this.queue = queue;
+		this.isIdle = () -> !done && queue.size() == 0;
+		this.waitStrategy = waitStrategy;
+		this.prefetch = prefetch;
+		this.limit = Math.max(1, prefetch / 2);
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if(this.subscription != null) {
+			subscription.cancel(); //only one upstream
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(prefetch);
+	}
+
+	@Override
+	public void onNext(T item) {
+		if(!queue.offer(item)) {
+			onError(new IllegalStateException("More objects were sent than requested"));
+			subscription.cancel();
+		} else {
+			waitStrategy.signal();
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		error = throwable;
+		done = true;
+		waitStrategy.signal();
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		waitStrategy.signal();
+	}
+
+	/**
+	 * @return null if the queue is empty, never wait
+	 */
+	public T poll() {
+		T r = queue.poll();
+		if(r != null) taken(1);
+		return r;
+	}
+
+	/**
+	 * Wait with the WaitStrategy until there is an object.
+	 * @return null if the publisher has completed or failed and every object has been taken
+	 */
+	public T take() {
+		T r;
+		int idleCount = 0;
+		while((r = poll()) == null) {
+			if(done && queue.size() == 0) return poll();
+			idleCount = waitStrategy.idle(idleCount, isIdle, 0);
+		}
+		return r;
+	}
+
+	/**
+	 * Hand at most max objects to the consumer, never wait.
+	 * @return the number of objects drained
+	 */
+	public int drain(Consumer<? super T> consumer, int max) {
+		int n = queue.drain(consumer, max);
+		if(n > 0) taken(n);
+		return n;
+	}
+
+	private void taken(int n) {
+		Flow.Subscription s = subscription;
+		if(s == null) return; //not subscribed yet, what has been taken wasn't requested
+		consumed += n;
+		if(consumed >= limit) {
+			int c = consumed;
+			consumed = 0;
+			s.request(c);
+		}
+	}
+
+	/**
+	 * Stop receiving, the objects already in the queue can still be taken.
+	 */
+	public void cancel() {
+		Flow.Subscription s = subscription;
+		if(s != null) s.cancel();
+		done = true;
+	}
+
+	/**
+	 * @return true once the publisher has completed or failed, or this subscriber has cancelled
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the error the publisher has failed with, null if none
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public IBlockingQueue<T> getQueue() {
+		return queue;
+	}
+}
@@ -0,0 +1,294 @@
+package org.theultra.tachyon.map;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
+
+/**
+ * Thread-Safe, a cache of objects which have a long id, bounded by maximumSize, with an optional time to live per entry.
+ * <br>
+ * The entries are kept in a ConcurrentI64HashMap, so a hit is a lock-free get() of the map plus the check of the deadline,
+ * it only records the access by setting the reference bit of the entry, a plain store which is skipped if the bit is set.
+ * The entries are split into segments by the hash of their id, like the stripes of the map, each segment is a CLOCK ring
+ * of its share of maximumSize guarded by a lock of its own, so the writers of different segments never wait for each other.
+ * When the ring of a segment is full, its hand clears the reference bits it passes and evicts the first entry which has expired,
+ * been removed, or not been accessed since the hand passed it last. The eviction is therefore approximate across segments,
+ * a put evicts from the segment of its id even if another segment holds colder entries.
+ * <br>
+ * getOrLoad() calls the loader once per missing id however many threads ask for it at the same time,
+ * the other threads wait for its result. An expired entry is a miss, it is dropped when the hand reaches it or when it is loaded again.
+ * A loader which asks the cache for the id it is loading gets an IllegalStateException instead of waiting for itself.
+ * @author lofint
+ * @param <T>
+ */
+public class ConcurrentI64Cache<T extends I64Obj> {
+	public final static int MAX_SEGMENTS = 64;
+	//a segment gets at least this many slots, unless the whole cache is smaller
+	private final static int MIN_SEGMENT_SIZE = 16;
+
+	private final ConcurrentI64HashMap<Entry<T>> map;
+	private final ConcurrentHashMap<Long, Load<T>> loading = new ConcurrentHashMap<Long, Load<T>>();
+	private final LongFunction<? extends T> loader;
+	private final long ttlNanos; //0 if the entries never expire
+	private final int maximumSize;
+	private final Segment<T>[] segments;
+
+	/**
+	 * Create a cache whose entries never expire and which has no loader
+	 */
+	public ConcurrentI64Cache(int maximumSize) {
+		this(maximumSize, 0, TimeUnit.NANOSECONDS, null);
+	}
+
+	/**
+	 * @param ttl the time to live of the entries put without their own, 0 for never expire
+	 * @param loader used by getOrLoad(long), may be null, it returns null for an id which has no object
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentI64Cache(int maximumSize, long ttl, TimeUnit unit, LongFunction<? extends T> loader) {
+		if(maximumSize <= 0) throw new IllegalArgumentException("maximumSize must be greater than 0");
+		if(ttl < 0) throw new IllegalArgumentException("ttl can't be negative");
+		this.maximumSize = maximumSize;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.loader = loader;
+		this.map = new ConcurrentI64HashMap<Entry<T>>((int) Math.min(ConcurrentI64HashMap.MAX_CAPACITY, maximumSize * 2L));
+		int n = Math.min(MAX_SEGMENTS, Math.min(Runtime.getRuntime().availableProcessors() * 2, maximumSize / MIN_SEGMENT_SIZE));
+		n = Integer.highestOneBit(Math.max(1, n));
+		this.segments = (Segment<T>[]) new Segment<?>[n];
+		for(int i = 0; i < n; i ++) {
+			segments[i] = new Segment<T>(maximumSize / n + (i < maximumSize % n ? 1 : 0));
+		}
+	}
+
+	/**
+	 * @return the object of the id, null if it isn't cached or has expired
+	 */
+	public final T get(long id) {
+		Entry<T> e = map.get(id);
+		if(e == null || e.isExpired()) return null;
+		if(!e.referenced) e.referenced = true;
+		return e.value;
+	}
+
+	/**
+	 * Get the object of the id, or load it with the loader of the cache and cache it.
+	 * @throws IllegalStateException if the cache has no loader
+	 */
+	public final T getOrLoad(long id) {
+		if(loader == null) throw new IllegalStateException("The cache has no loader");
+		return getOrLoad(id, loader);
+	}
+
+	/**
+	 * Get the object of the id, or load it with the given loader and cache it. Only one thread calls a loader for the id
+	 * at a time, the others wait for its result, and get the exception it has thrown if it fails.
+	 * @return null if the loader returns null, which isn't cached
+	 */
+	public final T getOrLoad(long id, LongFunction<? extends T> loader) {
+		T r = get(id);
+		if(r != null) return r;
+		Load<T> f = new Load<T>();
+		Load<T> loadingF = loading.putIfAbsent(id, f);
+		if(loadingF != null) {
+			if(loadingF.owner == Thread.currentThread()) throw new IllegalStateException("The loader of " + id + " has asked for the same id");
+			return join(loadingF);
+		}
+		try {
+			r = get(id); //loaded by another thread since the miss
+			if(r == null) {
+				r = loader.apply(id);
+				if(r != null) {
+					if(r.getId() != id) throw new IllegalArgumentException("The loader returned an object of id " + r.getId() + " for " + id);
+					put(r, ttlNanos);
+				}
+			}
+			f.complete(r);
+			return r;
+		} catch (Throwable e) {
+			f.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(id, f);
+		}
+	}
+
+	private static <T> T join(CompletableFuture<T> f) {
+		try {
+			return f.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Put the obj with the time to live of the cache.
+	 */
+	public final void put(T obj) {
+		put(obj, ttlNanos);
+	}
+
+	/**
+	 * @param ttl the time to live of this entry, 0 for never expire
+	 */
+	public final void put(T obj, long ttl, TimeUnit unit) {
+		if(ttl < 0) throw new IllegalArgumentException("ttl can't be negative");
+		put(obj, unit.toNanos(ttl));
+	}
+
+	private void put(T obj, long ttlNanos) {
+		if(obj == null) throw new NullPointerException("Cache object can't be null");
+		Entry<T> e = new Entry<T>(obj, ttlNanos == 0 ? 0 : System.nanoTime() + ttlNanos);
+		final Segment<T> s = segmentOf(e.id);
+		try{
+			s.lock();
+			Entry<T> old = map.get(e.id);
+			if(old != null) {
+				old.removed = true;
+				e.slot = old.slot; //take the place of the old one in the ring
+			} else {
+				e.slot = nextSlot(s);
+			}
+			s.ring[e.slot] = e;
+			map.put(e);
+		} finally {
+			s.unlock();
+		}
+	}
+
+	/**
+	 * @return a free slot of the ring of the segment, the one of an evicted entry when the ring is full, must be called under its lock
+	 */
+	private int nextSlot(Segment<T> s) {
+		final Entry<T>[] ring = s.ring;
+		if(s.count < ring.length) return s.count ++;
+		while(true) {
+			Entry<T> e = ring[s.hand];
+			int slot = s.hand;
+			s.hand = s.hand + 1 == ring.length ? 0 : s.hand + 1;
+			if(e.removed) return slot;
+			if(e.isExpired()) {
+				e.removed = true;
+				map.remove(e.id);
+				return slot;
+			}
+			if(e.referenced) {
+				e.referenced = false; //a second chance
+			} else {
+				e.removed = true;
+				map.remove(e.id);
+				s.evictionCount ++;
+				return slot;
+			}
+		}
+	}
+
+	private Segment<T> segmentOf(long id) {
+		return segments[ConcurrentI64HashMap.hash(id) & (segments.length - 1)];
+	}
+
+	/**
+	 * @return the removed object, null if there was none
+	 */
+	public final T remove(long id) {
+		final Segment<T> s = segmentOf(id);
+		try{
+			s.lock();
+			Entry<T> e = map.remove(id);
+			if(e == null) return null;
+			e.removed = true; //its slot is reused when the hand reaches it
+			return e.isExpired() ? null : e.value;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of entries, the expired ones which haven't been dropped yet included
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * @return the number of segments, each of which evicts on its own
+	 */
+	public int getSegmentCount() {
+		return segments.length;
+	}
+
+	/**
+	 * @return the number of entries evicted to make room, the expired and removed ones not included
+	 */
+	public long getEvictionCount() {
+		long r = 0;
+		for(Segment<T> s : segments) {
+			try{
+				s.lock();
+				r += s.evictionCount;
+			} finally {
+				s.unlock();
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * A CLOCK ring of a share of maximumSize, the fields are guarded by the lock.
+	 */
+	static final class Segment<T extends I64Obj> extends ReentrantLock{
+		/**
+		 *
+		 */
+		private static final long serialVersionUID = 1L;
+		final Entry<T>[] ring;
+		int count; //the slots of the ring in use
+		int hand;
+		long evictionCount;
+
+		@SuppressWarnings("unchecked")
+		Segment(int size) {
+			this.ring = (Entry<T>[]) new Entry<?>[size];
+		}
+	}
+
+	/**
+	 * The result of a load in progress, and the thread which runs the loader.
+	 */
+	static final class Load<T> extends CompletableFuture<T> {
+		final Thread owner = Thread.currentThread();
+	}
+
+	static final class Entry<T extends I64Obj> implements I64Obj {
+		final long id;
+		final T value;
+		final long deadline; //by System.nanoTime(), 0 for never
+		boolean referenced; //set by the readers without the lock, a lost update only costs the entry its second chance
+		boolean removed; //the rest is guarded by the lock
+		int slot;
+
+		Entry(T value, long deadline) {
+			this.id = value.getId();
+			this.value = value;
+			this.deadline = deadline;
+		}
+
+		boolean isExpired() {
+			return deadline != 0 && System.nanoTime() - deadline >= 0;
+		}
+
+		@Override
+		public long getId() {
+			return id;
+		}
+	}
+}
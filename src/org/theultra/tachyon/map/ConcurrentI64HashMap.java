@@ -1,14 +1,42 @@
 package org.theultra.tachyon.map;
 
+import static org.theultra.tachyon.map.LongHashing.tableSizeFor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Thread-Safe, for objects which have a long id. a low memory(even with a load factor less than 0.2), less GC, high performance HashMap. 
  * <br>
- * Caution! When the load(size) is 1/2 as much or more than the capacity. the performance of map will significantly slow down.
+ * The capacity doubles when the load(size) reaches 1/2 of it, and halves when the load falls under 1/8 of it,
+ * but never below the capacity given to the constructor. The buckets are moved to the new table a few at a time
+ * by the threads which put and remove, so there is no pause for a rehash, and get() never waits for it.
+ * <br>
+ * get() never locks either, each stripe has a version which a remove makes odd while it unlinks a node,
+ * a reader walks the chain and then checks that the version of the stripe hasn't changed. Puts don't change the version,
+ * a new node or obj is published whole by a release store, so readers are only retried when a remove of their stripe has run.
+ * <br>
+ * putIfAbsent(), computeIfAbsent(), computeIfPresent(), compute() and merge() are atomic, each walks the chain once under the stripe lock.
+ * <br>
+ * getAll() and putAll() group the keys by stripe, so a batch reads or locks each stripe once.
+ * <br>
+ * The number of stripes starts from 2 per core, or from the capacity up to MAX_LOCKER if that gives more, within [MIN_LOCKER, maxLockCount],
+ * unless it is given, and the map doubles it up to maxLockCount when more than 1/8 of the acquisitions of a stripe lock have to wait.
+ * <br>
+ * forEach(), values() and spliterator() are weakly consistent and never lock, the bulk forEach(), reduce() and removeIf()
+ * run on the common ForkJoinPool when the map holds at least the given number of objs.
  * <br>
- * Notice: The capacity of this map will never automatic increase. 
- * 
  * The recommended load factor is less than 0.25<br>
  * This map is designed for over 2M objects, 
  * if the number of objects is less than 512k and didn't need the special feature of this map, 
@@ -23,41 +51,52 @@ public class ConcurrentI64HashMap<T extends I64Obj>{
 	public final static int MAX_CAPACITY = 1024 * 1024 * 1024;
 	
 	public final static int MIN_LOCKER = 16;
+	//the most stripes the default gives a map for its capacity, the default for the cores may be more
 	public final static int MAX_LOCKER = 32;
+	//the stripes given to the constructor and the ones raised under contention never exceed it
+	public final static int MAX_ADAPTIVE_LOCKER = 1024;
 	
+	//每个锁每加锁这么多次检查一次争用
+	private final static int SAMPLE_WINDOW = 1024;
+	//a stripe over or under its share of the table sums the size of all stripes only once per this many acquisitions
+	private final static int SIZE_CHECK_INTERVAL = 16;
 	
-	private final I64Obj[] baseArray;
-	private final int capacity;
-	private final int m;
-	private final MapLock<T>[] rLockers;
-	private final int lockM;
+	//每个线程一次迁移的桶数
+	private final static int TRANSFER_STRIDE = 16;
+	private final static VarHandle BUCKET = MethodHandles.arrayElementVarHandle(I64Obj[].class);
+	//get()每走这么多个节点校验一次版本
+	private final static int VALIDATE_STEPS = 64 - 1;
+	private final static I64Obj RETRY = new Retry();
+	
+	private volatile I64Obj[] baseArray;
+	private volatile Resize resize; //null when no resize is in progress
+	private final int minCapacity;
+	private volatile MapLock<T>[] rLockers; //replaced by a larger array when the stripes are contended
+	private final int maxLockCount;
+	private volatile boolean contended; //a stripe has been contended in its last sample window
 	
-	@SuppressWarnings("unchecked")
 	public ConcurrentI64HashMap() {
-		this.capacity = DEFAULT_CAPACITY;
-		
-		baseArray = new I64Obj[this.capacity];
-		this.m = this.capacity - 1;
-		
-		int lockCount = this.capacity / 4096;
-		lockCount = Math.min(MAX_LOCKER, Math.max(MIN_LOCKER, lockCount));
-		
-		lockM = lockCount -1;
-		
-		rLockers = new MapLock[lockCount];
-		//sizes = new int[lockCount];
-		
-		for(int i = 0; i < lockCount; i ++) {
-			rLockers[i] = new MapLock<T>();
-		}
+		this(DEFAULT_CAPACITY);
 	}
 	
 	/**
 	 * 
 	 * @param capacity the prefer capacity by user, the real capacity will be an n power of 2 which just greater than the given capacity.
 	 */
-	@SuppressWarnings("unchecked")
 	public ConcurrentI64HashMap(int capacity) {
+		this(capacity, 0, 0);
+	}
+	
+	/**
+	 * @param capacity the prefer capacity by user, the real capacity will be an n power of 2 which just greater than the given capacity.
+	 * @param lockCount the number of stripes to start with, rounded up to a power of 2, 0 for the default one
+	 * which scales with the number of cores up to maxLockCount, and with the capacity up to MAX_LOCKER
+	 * @param maxLockCount the map doubles its stripes up to it when they are contended, 0 for MAX_ADAPTIVE_LOCKER,
+	 * the same as lockCount to keep the stripes fixed. Neither can be greater than the capacity or MAX_ADAPTIVE_LOCKER.
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentI64HashMap(int capacity, int lockCount, int maxLockCount) {
+		if(lockCount < 0 || maxLockCount < 0) throw new IllegalArgumentException("lockCount can't be negative");
 		if(capacity < MIN_CAPACITY) capacity = MIN_CAPACITY;
 		else {
 			int n = capacity - 1;
@@ -69,18 +108,19 @@ public class ConcurrentI64HashMap<T extends I64Obj>{
 			capacity = (n < 0) ? 1 : (n >= MAX_CAPACITY) ? MAX_CAPACITY : n + 1;
 			
 		}
-		this.capacity = capacity;
-		
-		baseArray = new I64Obj[this.capacity];
-		this.m = this.capacity - 1;
+		this.minCapacity = capacity;
 		
-		int lockCount = this.capacity / 4096;
-		lockCount = Math.min(MAX_LOCKER, Math.max(MIN_LOCKER, lockCount));
+		baseArray = new I64Obj[this.minCapacity];
 		
-		lockM = lockCount -1;
+		//a table must have more buckets than stripes, so the stripe of a bucket is the same in every table
+		this.maxLockCount = tableSizeFor(maxLockCount == 0 ? MAX_ADAPTIVE_LOCKER : maxLockCount, MIN_LOCKER, Math.min(MAX_ADAPTIVE_LOCKER, this.minCapacity));
+		if(lockCount == 0) {
+			//a large table alone needs no more than MAX_LOCKER stripes, the threads which may contend on them do
+			lockCount = Math.max(Math.min(MAX_LOCKER, this.minCapacity / 4096), Runtime.getRuntime().availableProcessors() * 2);
+		}
+		lockCount = tableSizeFor(lockCount, MIN_LOCKER, this.maxLockCount);
 		
-		rLockers = new MapLock[lockCount];
-		//sizes = new int[lockCount];
+		rLockers = (MapLock<T>[]) new MapLock<?>[lockCount];
 		
 		for(int i = 0; i < lockCount; i ++) {
 			rLockers[i] = new MapLock<T>();
@@ -92,193 +132,429 @@ public class ConcurrentI64HashMap<T extends I64Obj>{
 	 * @param obj
 	 * @return if replaced current obj, return true;
 	 */	
-	@SuppressWarnings("unchecked")
 	public final boolean put(T obj) {
 		long key = obj.getId();
-		int p = position(key);
-		int lockIdx = p & lockM;
-
+		final MapLock<T> lock = lockStripe(hash(key));
+		I64Obj[] tab;
+		boolean replaced;
+		
 		try{
-			rLockers[lockIdx].lock();
-			I64Obj cur = baseArray[p];
+			tab = tableOf(key);
+			int p = hash(key) & (tab.length - 1);
+			I64Obj cur = tab[p];
 			
-			I64MapNode<T> last = null;
-			if(cur == null) {   // baseArray == null
-				baseArray[p] = obj;
-				this.rLockers[lockIdx].size++;
-				//size.getAndIncrement();
-				return false;
+			replaced = cur != null && replace(tab, p, cur, key, obj);
+			//baseArray[p] is Null or can't found the obj who has the same key , insert it
+			if(!replaced) insert(tab, p, lock, obj);
+		} finally {
+			lock.unlock();
+		}
+		if(replaced) {
+			if(contended) raiseStripes();
+			return true;
+		}
+		afterPut(tab, lock);
+		return false;
+	}
+	
+	/**
+	 * Put many objs, they are grouped by stripe and each stripe lock is taken once for its group.
+	 * @return the number of objs which have replaced one of the same key
+	 */
+	public final int putAll(T[] objs) {
+		final long[] keys = new long[objs.length];
+		for(int i = 0; i < objs.length; i ++) {
+			if(objs[i] == null) throw new NullPointerException("Map obj can't be null");
+			keys[i] = objs[i].getId();
+		}
+		final MapLock<T>[] locks = rLockers;
+		final int[] starts = new int[locks.length + 1];
+		final int[] order = sortByStripe(keys, locks.length - 1, starts);
+		int replaced = 0;
+		for(int s = 0; s < locks.length; s ++) {
+			final int from = starts[s], to = starts[s + 1];
+			if(from == to) continue;
+			final MapLock<T> lock = lockStripe(s);
+			if(lock != locks[s]) { //the stripes have been raised since the keys were grouped
+				lock.unlock();
+				for(int i = from; i < to; i ++) {
+					if(put(objs[order[i]])) replaced ++;
+				}
+				continue;
 			}
-			
-			do {
-				I64MapNode<T>  cNode = null;
-				if(cur.getClass() == I64MapNode.class) cNode = (I64MapNode<T>)cur;
-				
-				if(cur.getId() == key) {  
-					if(cNode != null) { //cNode id match， 替换obj即可
-						cNode.value = obj;
-						return true;
-					} else {			//cur match
-						if(last == null) { // baseArray[p] match;
-							baseArray[p] = obj;
-							return true;
-						} else {			// last(node) - cur(obj & matched)
-							last.next = obj;
-							return true;
-						}
+			I64Obj[] tab = null;
+			boolean inserted = false;
+			try{
+				for(int i = from; i < to; i ++) {
+					T obj = objs[order[i]];
+					long key = keys[order[i]];
+					tab = tableOf(key);
+					int p = hash(key) & (tab.length - 1);
+					I64Obj cur = tab[p];
+					if(cur != null && replace(tab, p, cur, key, obj)) {
+						replaced ++;
+					} else {
+						insert(tab, p, lock, obj);
+						inserted = true;
 					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			if(inserted) afterPut(tab, lock);
+			else if(contended) raiseStripes();
+		}
+		return replaced;
+	}
+	
+	/**
+	 * Counting sort of the indices of the keys by the stripe of the key.
+	 * @param lockM the number of stripes - 1
+	 * @param starts lockM + 2 zeros, receives the position of the first index of every stripe in the result
+	 * @return the indices of the keys ordered by stripe
+	 */
+	private static int[] sortByStripe(long[] keys, int lockM, int[] starts) {
+		for(long key : keys) {
+			starts[(hash(key) & lockM) + 1] ++;
+		}
+		for(int s = 1; s < starts.length; s ++) {
+			starts[s] += starts[s - 1];
+		}
+		final int[] next = Arrays.copyOf(starts, lockM + 1);
+		final int[] order = new int[keys.length];
+		for(int i = 0; i < keys.length; i ++) {
+			order[next[hash(keys[i]) & lockM] ++] = i;
+		}
+		return order;
+	}
+	
+	/**
+	 * @return the current obj of the same key, null if there was none and obj has been put
+	 */
+	public final T putIfAbsent(T obj) {
+		if(obj == null) throw new NullPointerException("Map obj can't be null");
+		return compute(obj.getId(), cur -> cur != null ? cur : obj, true);
+	}
+	
+	/**
+	 * Put the obj created by the function if there is none of the key, the function is called under the stripe lock
+	 * and must not use the map.
+	 * @param function returns the obj of the key, or null to put nothing
+	 * @return the current obj of the key, null if there is none
+	 */
+	public final T computeIfAbsent(long key, LongFunction<? extends T> function) {
+		if(function == null) throw new NullPointerException("Function can't be null");
+		return compute(key, cur -> cur != null ? cur : function.apply(key), false);
+	}
+	
+	/**
+	 * Replace the obj of the key by the result of the function if there is one, the function is called under the stripe lock
+	 * and must not use the map.
+	 * @param function returns the new obj of the key, or null to remove it
+	 * @return the current obj of the key, null if there is none
+	 */
+	public final T computeIfPresent(long key, Function<? super T, ? extends T> function) {
+		if(function == null) throw new NullPointerException("Function can't be null");
+		return compute(key, cur -> cur != null ? function.apply(cur) : null, false);
+	}
+	
+	/**
+	 * Replace the obj of the key by the result of the function, the function is called under the stripe lock
+	 * and must not use the map.
+	 * @param function gets the current obj of the key or null, returns the new obj of the key, or null to remove it
+	 * @return the current obj of the key, null if there is none
+	 */
+	public final T compute(long key, Function<? super T, ? extends T> function) {
+		if(function == null) throw new NullPointerException("Function can't be null");
+		return compute(key, function, false);
+	}
+	
+	/**
+	 * Put the obj if there is none of its key, otherwise replace the current one by the result of the function,
+	 * the function is called under the stripe lock and must not use the map.
+	 * @param function gets the current obj and the given one, returns the new obj of the key, or null to remove it
+	 * @return the current obj of the key, null if there is none
+	 */
+	public final T merge(T obj, BiFunction<? super T, ? super T, ? extends T> function) {
+		if(obj == null) throw new NullPointerException("Map obj can't be null");
+		if(function == null) throw new NullPointerException("Function can't be null");
+		return compute(obj.getId(), cur -> cur != null ? function.apply(cur, obj) : obj, false);
+	}
+	
+	/**
+	 * Look up, call the function and put or remove its result in one walk of the chain under the stripe lock.
+	 * @return the previous obj of the key if returnPrevious, otherwise the current one
+	 */
+	private T compute(long key, Function<? super T, ? extends T> function, boolean returnPrevious) {
+		final MapLock<T> lock = lockStripe(hash(key));
+		I64Obj[] tab;
+		T old, r;
+		try{
+			tab = tableOf(key);
+			int p = hash(key) & (tab.length - 1);
+			old = lookup(tab[p], key);
+			r = function.apply(old);
+			if(r != old) {
+				if(r == null) {
+					remove(tab, p, key, lock);
 				} else {
-					if(cNode != null) {
-						cur = cNode.next;
-						last = cNode;
-					} else cur = null;
+					if(r.getId() != key) throw new IllegalArgumentException("The function returned an obj of id " + r.getId() + " for " + key);
+					if(old == null) insert(tab, p, lock, r);
+					else replace(tab, p, tab[p], key, r);
 				}
-			} while(cur != null);
-			
+			}
+		} finally {
+			lock.unlock();
+		}
+		if(r != old && r == null) afterRemove(tab, lock);
+		else if(r != old && old == null) afterPut(tab, lock);
+		else if(contended) raiseStripes(); //the size is unchanged
+		return returnPrevious ? old : r;
+	}
+	
+	/**
+	 * @return the obj of the key in the chain from cur, must be called under the stripe lock
+	 */
+	@SuppressWarnings("unchecked")
+	private T lookup(I64Obj cur, long key) {
+		while(cur != null) {
+			if(cur.getClass() == I64MapNode.class) {
+				I64MapNode<T> cNode = (I64MapNode<T>) cur;
+				if(cNode.value.getId() == key) return cNode.value;
+				cur = cNode.next;
+			} else {
+				return cur.getId() == key ? (T) cur : null;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Put obj in front of the chain of tab[p], there must be no obj of the same key, must be called under the stripe lock.
+	 */
+	private void insert(I64Obj[] tab, int p, MapLock<T> lock, T obj) {
+		I64Obj cur = tab[p];
+		setTabAt(tab, p, cur == null ? obj : newNode(lock, obj, cur));
+		lock.size ++;
+		//size.getAndIncrement();
+	}
+	
+	/**
+	 * Replace the obj of the same key in the chain of tab[p], must be called under the stripe lock.
+	 * @return false if there is no obj of the key
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean replace(I64Obj[] tab, int p, I64Obj cur, long key, T obj) {
+		I64MapNode<T> last = null;
+		
+		do {
+			I64MapNode<T>  cNode = null;
+			if(cur.getClass() == I64MapNode.class) cNode = (I64MapNode<T>)cur;
 			
-			//baseArray[p] is not Null and can't found the obj who has the same key , insert a node
-			I64MapNode<T> node = null;
-			if(rLockers[lockIdx].unusedNodeChain != null) {
-				node = rLockers[lockIdx].unusedNodeChain;
-				rLockers[lockIdx].unusedNodeChain = (I64MapNode<T>) node.next;
-				node.value = obj;
-				//node.position = p;
-				node.next = baseArray[p];
+			if(cur.getId() == key) {  
+				if(cNode != null) { //cNode id match， 替换obj即可
+					cNode.value = obj;
+					return true;
+				} else {			//cur match
+					if(last == null) { // baseArray[p] match;
+						setTabAt(tab, p, obj);
+						return true;
+					} else {			// last(node) - cur(obj & matched)
+						last.next = obj;
+						return true;
+					}
+				}
 			} else {
-//				node = new I64MapNode<T>(p, obj, baseArray[p]);
-				node = new I64MapNode<T>(obj, baseArray[p]);
+				if(cNode != null) {
+					cur = cNode.next;
+					last = cNode;
+				} else cur = null;
 			}
-			baseArray[p] = node;
-			this.rLockers[lockIdx].size++;
-			//size.getAndIncrement();
-			return false;
-		} finally {
-			rLockers[lockIdx].unlock();
+		} while(cur != null);
+		return false;
+	}
+	
+	/**
+	 * @return a node of obj in front of next, a recycled one if the stripe has any
+	 */
+	@SuppressWarnings("unchecked")
+	private I64MapNode<T> newNode(MapLock<T> lock, T obj, I64Obj next) {
+		I64MapNode<T> node = null;
+		if(lock.unusedNodeChain != null) {
+			node = lock.unusedNodeChain;
+			lock.unusedNodeChain = (I64MapNode<T>) node.next;
+			node.value = obj;
+			//node.position = p;
+			node.next = next;
+		} else {
+//			node = new I64MapNode<T>(p, obj, next);
+			node = new I64MapNode<T>(obj, next);
 		}
+		return node;
 	}
 	
 	
+	/**
+	 * Never locks and never waits for the writers but a remove of the same stripe: the chain is walked optimistically
+	 * and the walk is validated against the version of the stripe, it is walked again if a remove has run meanwhile,
+	 * since a removed node may be recycled into any chain of the stripe.
+	 */
 	@SuppressWarnings("unchecked")
 	public final T get(long key) {
-		int p = position(key);
+		final int h = hash(key);
+		while(true) {
+			final MapLock<T>[] locks = rLockers;
+			final MapLock<T> lock = locks[h & (locks.length - 1)];
+			final long version = lock.readVersion();
+			if(version == MapLock.RETIRED) continue;
+			I64Obj r = find(h, key, lock, version);
+			if(r != RETRY && lock.validate(version)) return (T) r;
+		}
+	}
+	
+	/**
+	 * Walk the chain of the key without the lock, the result is only valid if the version of the stripe is still the given one.
+	 * @return RETRY if the walk has run into a node recycled by a remove
+	 */
+	private I64Obj find(int h, long key, MapLock<T> lock, long version) {
+		return walk(head(h), key, lock, version);
+	}
+	
+	/**
+	 * @return the head of the bucket of the hash, in the table the bucket has been moved to if it has been
+	 */
+	private I64Obj head(int h) {
+		I64Obj[] tab = baseArray;
 		I64Obj cur;
-		if((cur = baseArray[p]) == null) return null;
-
-		if(cur.getClass() == I64MapNode.class) {
-			I64MapNode<T> cNode = ((I64MapNode<T>) cur);
-			for(int t2 =0; t2 < 2; t2++) {
-				while(true){
-					I64Obj next = cNode.next;
-					I64Obj obj = cNode.value;
-					//if(cNode.position != p || obj == null) {
-					if(obj == null) {
-						break;
-					} else {
-						if(obj.getId() == key) return (T) obj;
-						if(position(obj.getId()) != p) break;
-						if(next.getClass() == I64MapNode.class) {
-							cNode = ((I64MapNode<T>) next);
-						} else {
-							if(key == next.getId()) return (T) next;
-							else return null;
-						}
-					}
+		while((cur = tabAt(tab, h & (tab.length - 1))) != null && cur.getClass() == ForwardingNode.class) {
+			tab = ((ForwardingNode) cur).table;
+		}
+		return cur;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private I64Obj walk(I64Obj cur, long key, MapLock<T> lock, long version) {
+		for(int steps = 1; cur != null; steps ++) {
+			if(cur.getClass() != I64MapNode.class) return cur.getId() == key ? cur : null;
+			I64MapNode<T> cNode = (I64MapNode<T>) cur;
+			T obj = cNode.value;
+			if(obj == null) return RETRY; //recycled
+			if(obj.getId() == key) return obj;
+			cur = cNode.next;
+			//recycled nodes may even form a cycle, check now and then whether the walk is still worth finishing
+			if((steps & VALIDATE_STEPS) == 0 && !lock.validate(version)) return RETRY;
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the objs of many keys, the keys are grouped by stripe and each group is read and validated at once,
+	 * the heads of its buckets are loaded back to back before any chain is walked.
+	 * @param out receives the obj of keys[i] at i, null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public final void getAll(long[] keys, T[] out) {
+		if(out.length < keys.length) throw new IllegalArgumentException("out is shorter than keys");
+		final MapLock<T>[] locks = rLockers;
+		final int[] starts = new int[locks.length + 1];
+		final int[] order = sortByStripe(keys, locks.length - 1, starts);
+		final I64Obj[] heads = new I64Obj[keys.length];
+		for(int s = 0; s < locks.length; s ++) {
+			final MapLock<T> lock = locks[s];
+			final int from = starts[s], to = starts[s + 1];
+			if(from == to) continue;
+			retry:
+			while(true) {
+				final long version = lock.readVersion();
+				if(version == MapLock.RETIRED) { //the stripes have been raised since the keys were grouped
+					getAll(keys, out);
+					return;
 				}
-				
-				cur = baseArray[p];
-				if(cur.getClass() == I64MapNode.class) {
-					cNode = ((I64MapNode<T>) cur);
-				} else {
-					if(key == cur.getId()) return (T)cur;
-					return null;
+				for(int i = from; i < to; i ++) {
+					heads[i] = head(hash(keys[order[i]]));
 				}
-			}
-			
-			//如果连续失败2次，尝试锁定获取
-			//System.out.println("-------------------------------failed 2 times try lock...------------------------------");
-			
-			int lockIdx = p & lockM;
-			try{
-				rLockers[lockIdx].lock();
-				cur = baseArray[p];
-				while(cur != null) {
-					if(cur.getClass() == I64MapNode.class) {
-						if(cur.getId() == key) {
-							return ((I64MapNode<T>) cur).value;
-						} else {
-							cur = ((I64MapNode<T>) cur).next;
-						}
-					} else if(cur.getId() == key) {
-						return (T) cur;
-					} else {
-						return null;
-					}
+				for(int i = from; i < to; i ++) {
+					I64Obj r = walk(heads[i], keys[order[i]], lock, version);
+					if(r == RETRY) continue retry;
+					out[order[i]] = (T) r;
 				}
-				return null;
-			} finally {
-				rLockers[lockIdx].unlock();
+				if(lock.validate(version)) break;
 			}
-		} else {
-			if(key == cur.getId()) return (T)cur;
 		}
-		return null;
 	}
 	
 	@SuppressWarnings("unchecked")
 	public final T remove(long key) {
-		int p = position(key);
-		int lockIdx = p & lockM;
+		final MapLock<T> lock = lockStripe(hash(key));
+		I64Obj[] tab;
 		
-		T r = null;
+		T r;
 		try{
-			rLockers[lockIdx].lock();
-			I64Obj cur = baseArray[p];
-			I64MapNode<T> last = null, last2 = null;
-			while(cur != null) {
-				I64MapNode<T> cNode = null;
-				if(cur.getClass() == I64MapNode.class) cNode = (I64MapNode<T>)cur;
-				
-				if(cur.getId() == key) {
+			tab = tableOf(key);
+			r = remove(tab, hash(key) & (tab.length - 1), key, lock);
+		} finally {
+			lock.unlock();
+		}
+		if(r != null) afterRemove(tab, lock);
+		else if(contended) raiseStripes();
+		return r;
+	}
+	
+	/**
+	 * Remove the obj of the key from the chain of tab[p], must be called under the stripe lock.
+	 */
+	@SuppressWarnings("unchecked")
+	private T remove(I64Obj[] tab, int p, long key, MapLock<T> lock) {
+		T r = null;
+		I64Obj cur = tab[p];
+		I64MapNode<T> last = null, last2 = null;
+		while(cur != null) {
+			I64MapNode<T> cNode = null;
+			if(cur.getClass() == I64MapNode.class) cNode = (I64MapNode<T>)cur;
+			
+			if(cur.getId() == key) {
+				lock.beginWrite();
+				try {
 					if(last == null) { //第一个
 						if(cNode == null) {
-							baseArray[p] = null;
-							this.rLockers[lockIdx].size --;
+							setTabAt(tab, p, null);
+							lock.size --;
 							//size.getAndDecrement();
 							return (T) cur;
 						} else {
-							baseArray[p] = cNode.next;
+							setTabAt(tab, p, cNode.next);
 							r = cNode.value;
-							
+						
 							//cNode.position = -1;
 							cNode.value = null;
-							cNode.next = rLockers[lockIdx].unusedNodeChain;
-							rLockers[lockIdx].unusedNodeChain = cNode;
-							
-							this.rLockers[lockIdx].size --;
+							cNode.next = lock.unusedNodeChain;
+							lock.unusedNodeChain = cNode;
+						
+							lock.size --;
 							//size.getAndDecrement();
 							return r;
 						}
 					} else if(cNode == null) { //最后一个Obj, 需要把last脱壳，移除
 						if(last2 == null) { //last(node, baseArray[p]) - cur(obj & match)
-							baseArray[p] = last.value;
+							setTabAt(tab, p, last.value);
 
 							//last.position = -1;
 							last.value = null;
-							last.next = rLockers[lockIdx].unusedNodeChain;
-							rLockers[lockIdx].unusedNodeChain = last;
-							
-							this.rLockers[lockIdx].size --;
+							last.next = lock.unusedNodeChain;
+							lock.unusedNodeChain = last;
+						
+							lock.size --;
 							//size.getAndDecrement();
 							return (T) cur;
 						} else {  						// last2(node)-last(node)-cur(obj & match)
 							last2.next = last.value; 
-							
+						
 							//last.position = -1;
 							last.value = null;
-							last.next = rLockers[lockIdx].unusedNodeChain;
-							rLockers[lockIdx].unusedNodeChain = last;
-							
-							this.rLockers[lockIdx].size --;
+							last.next = lock.unusedNodeChain;
+							lock.unusedNodeChain = last;
+						
+							lock.size --;
 							//size.getAndDecrement();
 							return (T) cur;
 						}
@@ -287,35 +563,284 @@ public class ConcurrentI64HashMap<T extends I64Obj>{
 						last.next = cNode.next;
 						//cNode.position = -1;
 						cNode.value = null;
-						cNode.next = rLockers[lockIdx].unusedNodeChain;
-						rLockers[lockIdx].unusedNodeChain = cNode;
-						
-						this.rLockers[lockIdx].size --;
+						cNode.next = lock.unusedNodeChain;
+						lock.unusedNodeChain = cNode;
+					
+						lock.size --;
 						//size.getAndDecrement();
 						return r;
 					}
+				} finally {
+					lock.endWrite();
+				}
+			} else {
+				if(cNode != null) { 
+					cur = cNode.next;
+					last2 = last;
+					last = cNode;
+				} else return null; //not match，如果最后比的是obj，那么结束了
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the table which holds the bucket of the key now, must be called under the stripe lock of the key
+	 */
+	private I64Obj[] tableOf(long key) {
+		final int h = hash(key);
+		I64Obj[] tab = baseArray;
+		I64Obj cur;
+		while((cur = tabAt(tab, h & (tab.length - 1))) != null && cur.getClass() == ForwardingNode.class) {
+			tab = ((ForwardingNode) cur).table;
+		}
+		return tab;
+	}
+	
+	/**
+	 * Help a resize in progress, or start one when the stripe of the new obj holds more than 1/2 of its share of tab
+	 * and so does the map, then raise the stripes if they have been contended.
+	 */
+	private void afterPut(I64Obj[] tab, MapLock<T> lock) {
+		Resize r = resize;
+		if(r != null) {
+			transfer(r);
+		} else if(lock.size > (tab.length / rLockers.length) >> 1 && tab.length < MAX_CAPACITY
+				&& checkSize(lock) && size() > tab.length >> 1) {
+			startResize(tab, tab.length << 1);
+		}
+		if(contended) raiseStripes();
+	}
+	
+	/**
+	 * Help a resize in progress, or start one when the stripe of the removed obj holds less than 1/8 of its share of tab
+	 * and so does the map.
+	 */
+	private void afterRemove(I64Obj[] tab, MapLock<T> lock) {
+		Resize r = resize;
+		if(r != null) {
+			transfer(r);
+		} else if(tab.length > minCapacity && lock.size < (tab.length / rLockers.length) >> 3
+				&& checkSize(lock) && size() < tab.length >> 3) {
+			startResize(tab, tab.length >> 1);
+		}
+		if(contended) raiseStripes();
+	}
+	
+	/**
+	 * size() walks all stripes, a stripe which stays over or under its share while the others don't would sum them on every write,
+	 * so it is summed once per SIZE_CHECK_INTERVAL acquisitions of the stripe. The count is read without the lock,
+	 * a stale one only moves the check by an acquisition.
+	 */
+	private static boolean checkSize(MapLock<?> lock) {
+		return (lock.acquisitions & (SIZE_CHECK_INTERVAL - 1)) == 0;
+	}
+	
+	/**
+	 * Lock the stripe of the hash, of a bucket index as well, in the current array of locks.
+	 * A lock which has been retired by raiseStripes() while this thread waited for it is unlocked and the new one is taken.
+	 */
+	private MapLock<T> lockStripe(int h) {
+		while(true) {
+			final MapLock<T>[] locks = rLockers;
+			final MapLock<T> lock = locks[h & (locks.length - 1)];
+			final boolean waited = !lock.tryLock();
+			if(waited) lock.lock();
+			if(lock.version != MapLock.RETIRED) {
+				if(lock.sample(waited) && locks.length < maxLockCount) contended = true;
+				return lock;
+			}
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Double the stripes. All old locks are held meanwhile, each new lock takes over half the size of its old one,
+	 * the sum stays exact. The old locks are retired with an odd version, so the readers which have read them
+	 * fail to validate and the writers which wait for them take the new ones.
+	 */
+	@SuppressWarnings("unchecked")
+	private void raiseStripes() {
+		synchronized(this) {
+			contended = false;
+			final MapLock<T>[] old = rLockers;
+			final int n = old.length;
+			if(n >= maxLockCount) return;
+			for(int i = 0; i < n; i ++) {
+				old[i].lock();
+			}
+			try {
+				for(int i = 0; i < n; i ++) {
+					old[i].beginWrite();
+				}
+				MapLock<T>[] locks = (MapLock<T>[]) new MapLock<?>[n << 1];
+				for(int i = 0; i < n; i ++) {
+					MapLock<T> l = locks[i] = new MapLock<T>(), h = locks[i + n] = new MapLock<T>();
+					l.size = old[i].size - (old[i].size >> 1);
+					h.size = old[i].size >> 1;
+					l.unusedNodeChain = old[i].unusedNodeChain;
+					l.contentions = old[i].contentions;
+				}
+				rLockers = locks;
+				for(int i = 0; i < n; i ++) {
+					old[i].retire();
+				}
+			} finally {
+				for(int i = 0; i < n; i ++) {
+					old[i].unlock();
+				}
+			}
+		}
+	}
+	
+	private void startResize(I64Obj[] tab, int newCapacity) {
+		Resize r;
+		synchronized(this) {
+			if(resize != null || baseArray != tab) return; //another thread has been faster
+			resize = r = new Resize(tab, new I64Obj[newCapacity]);
+		}
+		transfer(r);
+	}
+	
+	/**
+	 * Move the next TRANSFER_STRIDE buckets of the old table, the thread which moves the last one switches to the new table.
+	 */
+	private void transfer(Resize r) {
+		final int n = r.table.length;
+		if(r.transferIndex.get() >= n) return;
+		int from = r.transferIndex.getAndAdd(TRANSFER_STRIDE);
+		if(from >= n) return;
+		int to = Math.min(n, from + TRANSFER_STRIDE);
+		for(int i = from; i < to; i ++) {
+			transferBucket(r, i);
+		}
+		if(r.transferred.addAndGet(to - from) == n) {
+			baseArray = r.next;
+			resize = null;
+		}
+	}
+	
+	/**
+	 * Copy the chain of the old bucket into the new table and then forward the old bucket to it.
+	 * The nodes of the old chain are left as they are for the readers which are still walking it, they are never recycled.
+	 * The old bucket and all the new buckets its objs go to are of the same stripe, since both tables have more buckets than stripes.
+	 */
+	@SuppressWarnings("unchecked")
+	private void transferBucket(Resize r, int i) {
+		final MapLock<T> lock = lockStripe(i);
+		try{
+			final I64Obj[] next = r.next;
+			final int nm = next.length - 1;
+			I64Obj cur = r.table[i];
+			while(cur != null) {
+				T obj;
+				if(cur.getClass() == I64MapNode.class) {
+					obj = ((I64MapNode<T>) cur).value;
+					cur = ((I64MapNode<T>) cur).next;
 				} else {
-					if(cNode != null) { 
-						cur = cNode.next;
-						last2 = last;
-						last = cNode;
-					} else return null; //not match，如果最后比的是obj，那么结束了
+					obj = (T) cur;
+					cur = null;
 				}
+				int q = hash(obj.getId()) & nm;
+				I64Obj head = next[q];
+				setTabAt(next, q, head == null ? obj : newNode(lock, obj, head));
 			}
-			return null;
+			setTabAt(r.table, i, r.forward);
 		} finally {
-			rLockers[lockIdx].unlock();
+			lock.unlock();
 		}
 	}
 	
+	/**
+	 * @return the number of buckets, it changes when the map resizes
+	 */
+	public int capacity() {
+		return baseArray.length;
+	}
+	
 	public int size() {
-		int r = 0;
-		for(int i = 0; i < rLockers.length; i ++) {
-			r += this.rLockers[i].size;
+		final MapLock<T>[] locks = rLockers;
+		long r = 0;
+		for(int i = 0; i < locks.length; i ++) {
+			r += locks[i].size;
+		}
+		return (int) r;
+	}
+	
+	/**
+	 * @return the number of stripes, it grows when they are contended
+	 */
+	public int getLockCount() {
+		return rLockers.length;
+	}
+	
+	/**
+	 * @return the number of times a writer had to wait for a stripe lock so far
+	 */
+	public long getContentionCount() {
+		final MapLock<T>[] locks = rLockers;
+		long r = 0;
+		for(int i = 0; i < locks.length; i ++) {
+			r += locks[i].contentions;
 		}
 		return r;
 	}
 	
+	/**
+	 * Call the action for every obj, weakly consistent like values().
+	 */
+	public void forEach(Consumer<? super T> action) {
+		spliterator().forEachRemaining(action);
+	}
+	
+	/**
+	 * Call the action for every obj, in parallel on the common ForkJoinPool if the map holds at least parallelismThreshold objs.
+	 */
+	public void forEach(long parallelismThreshold, Consumer<? super T> action) {
+		values(parallelismThreshold).forEach(action);
+	}
+	
+	/**
+	 * @param transformer returns null to skip the obj
+	 * @return the result of the reducer over all transformed objs, null if there is none
+	 */
+	public <U> U reduce(long parallelismThreshold, Function<? super T, ? extends U> transformer, BiFunction<? super U, ? super U, ? extends U> reducer) {
+		return values(parallelismThreshold).<U>map(transformer).filter(u -> u != null).reduce((a, b) -> reducer.apply(a, b)).orElse(null);
+	}
+	
+	/**
+	 * Remove every obj the filter accepts, an obj which has been replaced meanwhile is kept.
+	 * @return the number of objs removed
+	 */
+	public long removeIf(long parallelismThreshold, Predicate<? super T> filter) {
+		return values(parallelismThreshold).filter(filter)
+				.filter(obj -> compute(obj.getId(), cur -> cur == obj ? null : cur, true) == obj).count();
+	}
+	
+	/**
+	 * @return a sequential stream of the objs, weakly consistent like values()
+	 */
+	public Stream<T> values() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	/**
+	 * @return a stream of the objs, parallel if the map holds at least parallelismThreshold objs
+	 */
+	public Stream<T> values(long parallelismThreshold) {
+		return StreamSupport.stream(spliterator(), size() >= parallelismThreshold);
+	}
+	
+	/**
+	 * A weakly consistent Spliterator over the buckets of the current table, it splits the range of buckets in halves.
+	 * Every obj which stays in the map during the traversal is seen exactly once, even if the map resizes meanwhile,
+	 * the objs put or removed meanwhile may be seen or not. It never locks and allocates nothing per bucket.
+	 */
+	public Spliterator<T> spliterator() {
+		I64Obj[] tab = baseArray;
+		return new ValueSpliterator(tab, 0, tab.length);
+	}
+	
 //	public void statistic() {
 //		int inBase = 1 , twin=1, triple=1;
 //		for(int i = 0; i < capacity; i ++) {
@@ -334,14 +859,146 @@ public class ConcurrentI64HashMap<T extends I64Obj>{
 	
 	
 	protected final int position(long key) {
+		return hash(key) & (baseArray.length - 1);
+	}
+	
+	static final int hash(long key) {
 		 key = (key >> 32) ^ key;  
 		 //key = (((key >> 32) ^ key) ^ 0xdeadbeef);
-		 return  (int)((key  ^ (key >>> 16))  & this.m);
+		 return  (int)(key  ^ (key >>> 16));
 		// hash = (int)((key >> 32) ^ key) ^ 0xdeadbeef
 	}
+	
+	static final I64Obj tabAt(I64Obj[] tab, int i) {
+		return (I64Obj) BUCKET.getAcquire(tab, i);
+	}
+	
+	static final void setTabAt(I64Obj[] tab, int i, I64Obj v) {
+		BUCKET.setRelease(tab, i, v);
+	}
 
+	/**
+	 * Walks the buckets [index, fence) of the table it has been created on. The group of objs of a bucket is read into
+	 * the buffer first and handed to the action after the read has been validated against the version of the stripe.
+	 * If the bucket has been moved, the group is read from the buckets of the next table it has been moved to,
+	 * filtered on the mask of the original table if the next table is smaller.
+	 */
+	final class ValueSpliterator implements Spliterator<T> {
+		private final I64Obj[] tab;
+		private int index;
+		private final int fence;
+		private I64Obj[] buffer = new I64Obj[8];
+		private int pos;
+		private int len;
+		
+		ValueSpliterator(I64Obj[] tab, int index, int fence) {
+			this.tab = tab;
+			this.index = index;
+			this.fence = fence;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if(action == null) throw new NullPointerException("Action can't be null");
+			while(pos == len) {
+				if(index >= fence) return false;
+				pos = len = 0;
+				collect(tab, tab.length - 1, index ++);
+			}
+			action.accept((T) buffer[pos ++]);
+			return true;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			if(action == null) throw new NullPointerException("Action can't be null");
+			while(true) {
+				while(pos < len) {
+					action.accept((T) buffer[pos ++]);
+				}
+				if(index >= fence) return;
+				pos = len = 0;
+				collect(tab, tab.length - 1, index ++);
+			}
+		}
+		
+		@Override
+		public Spliterator<T> trySplit() {
+			int mid = (index + fence) >>> 1;
+			if(mid <= index) return null;
+			Spliterator<T> r = new ValueSpliterator(tab, index, mid);
+			index = mid;
+			return r;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return (long) size() * (fence - index) / tab.length;
+		}
+		
+		@Override
+		public int characteristics() {
+			return Spliterator.CONCURRENT | Spliterator.NONNULL | Spliterator.DISTINCT;
+		}
+		
+		/**
+		 * Read the objs whose hash &amp; mask == want from t into the buffer.
+		 */
+		private void collect(I64Obj[] t, int mask, int want) {
+			final int n = t.length;
+			if(n > mask) { //the group is split over the buckets want, want + mask + 1, ...
+				for(int j = want; j < n; j += mask + 1) {
+					collectBucket(t, j, n - 1, j);
+				}
+			} else {
+				collectBucket(t, want & (n - 1), mask, want);
+			}
+		}
+		
+		@SuppressWarnings("unchecked")
+		private void collectBucket(I64Obj[] t, int j, int mask, int want) {
+			final int from = len;
+			while(true) {
+				final MapLock<T>[] locks = rLockers;
+				final MapLock<T> lock = locks[j & (locks.length - 1)]; //a table has more buckets than stripes, so it is the stripe of its objs
+				final long version = lock.readVersion();
+				if(version == MapLock.RETIRED) continue;
+				I64Obj cur = tabAt(t, j);
+				if(cur != null && cur.getClass() == ForwardingNode.class) {
+					collect(((ForwardingNode) cur).table, mask, want);
+					return;
+				}
+				boolean valid = true;
+				for(int steps = 1; cur != null; steps ++) {
+					T obj;
+					if(cur.getClass() == I64MapNode.class) {
+						obj = ((I64MapNode<T>) cur).value;
+						cur = ((I64MapNode<T>) cur).next;
+					} else {
+						obj = (T) cur;
+						cur = null;
+					}
+					if(obj == null || (steps & VALIDATE_STEPS) == 0 && !lock.validate(version)) { //recycled, or a walk which is no longer worth finishing
+						valid = false;
+						break;
+					}
+					if((hash(obj.getId()) & mask) == want) add(obj);
+				}
+				if(valid && lock.validate(version)) return;
+				len = from;
+			}
+		}
+		
+		private void add(I64Obj obj) {
+			if(len == buffer.length) buffer = Arrays.copyOf(buffer, len << 1);
+			buffer[len ++] = obj;
+		}
+	}
+	
 	static final class I64MapNode<T extends I64Obj> implements I64Obj{
-		T value;
+		volatile T value;
 		volatile I64Obj next;
 
 		I64MapNode(int position, T obj, I64Obj next){
@@ -360,13 +1017,150 @@ public class ConcurrentI64HashMap<T extends I64Obj>{
 		}
 	}
 	
-	static final class MapLock<T extends I64Obj> extends ReentrantLock{
+	/**
+	 * Put in place of a bucket which has been moved to the next table.
+	 */
+	static final class ForwardingNode implements I64Obj{
+		final I64Obj[] table;
+		
+		ForwardingNode(I64Obj[] table){
+			this.table = table;
+		}
+		
+		/**
+		 * A forwarding node has no id, the walks tell it by its class and never compare it by id.
+		 */
+		@Override
+		public long getId() {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Returned by a walk which has to be retried, it is compared by identity only.
+	 */
+	private static final class Retry implements I64Obj{
+		@Override
+		public long getId() {
+			return 0;
+		}
+	}
+	
+	static final class Resize {
+		final I64Obj[] table;
+		final I64Obj[] next;
+		final ForwardingNode forward;
+		final AtomicInteger transferIndex = new AtomicInteger(); //the next bucket to claim
+		final AtomicInteger transferred = new AtomicInteger();
+		
+		Resize(I64Obj[] table, I64Obj[] next) {
+			this.table = table;
+			this.next = next;
+			this.forward = new ForwardingNode(next);
+		}
+	}
+	
+	/**
+	 * The lock of a stripe and the fields guarded by it, padded by class hierarchy, the JVM lays out the fields of a super class
+	 * before the fields of its sub class, so the fields of two stripes, which the writers of both change all the time,
+	 * never share a cache line.
+	 */
+	static final class MapLock<T extends I64Obj> extends MapLockFields<T>{
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 1L;
+		//the version of a lock which has been replaced by raiseStripes()
+		static final long RETIRED = -1;
+		private static final VarHandle VERSION;
+		static {
+			try {
+				VERSION = MethodHandles.lookup().findVarHandle(MapLockFields.class, "version", long.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+		
+		long p10, p11, p12, p13, p14, p15, p16, p17;
+		
+		/**
+		 * Called under the lock before a node is unlinked, the readers see the odd version before any change of the chain.
+		 */
+		void beginWrite() {
+			VERSION.setOpaque(this, version + 1);
+			VarHandle.storeStoreFence();
+		}
+		
+		/**
+		 * The readers see the changes of the chain once they see the even version.
+		 */
+		void endWrite() {
+			VERSION.setRelease(this, version + 1);
+		}
+		
+		/**
+		 * Called under the lock after the new locks have been published, the readers which see RETIRED see the new locks.
+		 */
+		void retire() {
+			VERSION.setRelease(this, RETIRED);
+		}
+		
+		/**
+		 * @return the even version to validate a read against, or RETIRED, spin while a remove is running
+		 */
+		long readVersion() {
+			long v;
+			for(int spins = 0; ((v = (long) VERSION.getAcquire(this)) & 1) != 0 && v != RETIRED; spins ++) {
+				if(spins < 64) Thread.onSpinWait();
+				else Thread.yield();
+			}
+			return v;
+		}
+		
+		/**
+		 * @return true if no remove has run since the version has been read, so the reads in between are consistent
+		 */
+		boolean validate(long version) {
+			VarHandle.loadLoadFence();
+			return (long) VERSION.getOpaque(this) == version;
+		}
+		
+		/**
+		 * Count an acquisition under the lock.
+		 * @param waited whether the lock has been held by another thread
+		 * @return true at the end of a sample window in which more than 1/8 of the acquisitions have waited
+		 */
+		boolean sample(boolean waited) {
+			if(waited) {
+				contentions ++;
+				windowContentions ++;
+			}
+			if((++ acquisitions & (SAMPLE_WINDOW - 1)) != 0) return false;
+			boolean r = windowContentions > SAMPLE_WINDOW >> 3;
+			windowContentions = 0;
+			return r;
+		}
+	}
+	
+	abstract static class MapLockPad0 extends ReentrantLock{
+		/**
+		 * 
+		 */
+		private static final long serialVersionUID = 1L;
+		long p00, p01, p02, p03, p04, p05, p06, p07;
+	}
+	
+	abstract static class MapLockFields<T extends I64Obj> extends MapLockPad0{
 		/**
 		 * 
 		 */
 		private static final long serialVersionUID = 1L;
 		long size = 0;
 		I64MapNode<T> unusedNodeChain = null;
+		long version = 0; //odd while a remove is unlinking a node of the stripe
+		long acquisitions = 0;
+		long contentions = 0; //the acquisitions which have waited for another thread
+		int windowContentions = 0;
 	}
 	
 }
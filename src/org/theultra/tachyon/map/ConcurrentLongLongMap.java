@@ -0,0 +1,312 @@
+package org.theultra.tachyon.map;
+
+import static org.theultra.tachyon.map.LongHashing.hash;
+import static org.theultra.tachyon.map.LongHashing.tableSizeFor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-Safe, a HashMap of long keys to long values kept in long[] only, with no object per entry at all,
+ * e.g. positions per instrument id or counters per account.
+ * <br>
+ * It is laid out like ConcurrentLongObjectMap: segments locked by their writers, each an open-addressing table of a long[] of keys
+ * and a parallel long[] of values, and get() never locks. A missing key reads as the noEntryValue given to the constructor,
+ * which therefore can't be put as a value, a removed entry keeps its key with the noEntryValue.
+ * <br>
+ * addAndGet() and compareAndSet() are atomic, they take the lock of the segment of the key like put().
+ * @author lofint
+ */
+public class ConcurrentLongLongMap {
+	//必须是2的幂
+	public final static int MIN_CAPACITY = 1024;
+	public final static int DEFAULT_CAPACITY = 1024 * 8;
+	public final static int MAX_CAPACITY = 1024 * 1024 * 1024;
+
+	public final static int MIN_SEGMENTS = 16;
+	public final static int MAX_SEGMENTS = 256;
+
+	private final static VarHandle LONG = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final Segment[] segments;
+	private final int segmentShift;
+	private final long noEntryValue;
+
+	/**
+	 * Create a map whose noEntryValue is Long.MIN_VALUE
+	 */
+	public ConcurrentLongLongMap() {
+		this(DEFAULT_CAPACITY, Long.MIN_VALUE);
+	}
+
+	/**
+	 * @param capacity the prefer capacity by user, the real capacity will be an n power of 2 which just greater than the given capacity.
+	 * The map holds up to 1/2 of its capacity before it grows.
+	 * @param noEntryValue returned for a missing key, it can't be put as a value
+	 */
+	public ConcurrentLongLongMap(int capacity, long noEntryValue) {
+		this.noEntryValue = noEntryValue;
+		capacity = tableSizeFor(capacity, MIN_CAPACITY, MAX_CAPACITY);
+		int n = tableSizeFor(Runtime.getRuntime().availableProcessors() * 4, MIN_SEGMENTS, MAX_SEGMENTS);
+		segments = new Segment[n];
+		for(int i = 0; i < n; i ++) {
+			segments[i] = new Segment(Math.max(16, capacity / n), noEntryValue);
+		}
+		segmentShift = 64 - Integer.numberOfTrailingZeros(n);
+	}
+
+	/**
+	 * @return the value of the key, the noEntryValue if there is none
+	 */
+	public final long get(long key) {
+		long h = hash(key);
+		Segment s = segments[(int) (h >>> segmentShift)];
+		if(key == 0) return s.zeroValue;
+		Table t = s.table;
+		int i = (int) h & t.m;
+		while(true) {
+			long k = (long) LONG.getAcquire(t.keys, i);
+			if(k == key) return (long) LONG.getAcquire(t.values, i);
+			if(k == 0) return noEntryValue;
+			i = (i + 1) & t.m;
+		}
+	}
+
+	public final boolean containsKey(long key) {
+		return get(key) != noEntryValue;
+	}
+
+	/**
+	 * @return the previous value of the key, the noEntryValue if there was none
+	 */
+	public final long put(long key, long value) {
+		checkValue(value);
+		Segment s = segmentOf(key);
+		try{
+			s.lock();
+			long old = s.get(key);
+			s.set(key, value);
+			return old;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	/**
+	 * @return the current value of the key, the noEntryValue if there was none and the given value has been put
+	 */
+	public final long putIfAbsent(long key, long value) {
+		checkValue(value);
+		Segment s = segmentOf(key);
+		try{
+			s.lock();
+			long old = s.get(key);
+			if(old == noEntryValue) s.set(key, value);
+			return old;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	/**
+	 * Add delta to the value of the key, a missing key counts as 0.
+	 * @return the new value
+	 */
+	public final long addAndGet(long key, long delta) {
+		Segment s = segmentOf(key);
+		try{
+			s.lock();
+			long old = s.get(key);
+			long r = (old == noEntryValue ? 0 : old) + delta;
+			checkValue(r);
+			s.set(key, r);
+			return r;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	/**
+	 * Set the value of the key to update if it is expect now, expect may be the noEntryValue for a missing key.
+	 * @return false if the value of the key is not expect
+	 */
+	public final boolean compareAndSet(long key, long expect, long update) {
+		checkValue(update);
+		Segment s = segmentOf(key);
+		try{
+			s.lock();
+			if(s.get(key) != expect) return false;
+			s.set(key, update);
+			return true;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	/**
+	 * @return the removed value, the noEntryValue if there was none
+	 */
+	public final long remove(long key) {
+		Segment s = segmentOf(key);
+		try{
+			s.lock();
+			return s.remove(key);
+		} finally {
+			s.unlock();
+		}
+	}
+
+	public int size() {
+		int r = 0;
+		for(int i = 0; i < segments.length; i ++) {
+			r += segments[i].size;
+		}
+		return r;
+	}
+
+	/**
+	 * @return the number of slots of all segments
+	 */
+	public long capacity() {
+		long r = 0;
+		for(int i = 0; i < segments.length; i ++) {
+			r += segments[i].table.m + 1;
+		}
+		return r;
+	}
+
+	public long getNoEntryValue() {
+		return noEntryValue;
+	}
+
+	private Segment segmentOf(long key) {
+		return segments[(int) (hash(key) >>> segmentShift)];
+	}
+
+	private void checkValue(long value) {
+		if(value == noEntryValue) throw new IllegalArgumentException("The noEntryValue " + noEntryValue + " can't be put into the map");
+	}
+
+	static final class Table {
+		final long[] keys;
+		final long[] values;
+		final int m;
+
+		Table(int capacity) {
+			this.keys = new long[capacity];
+			this.values = new long[capacity];
+			this.m = capacity - 1;
+		}
+
+		/**
+		 * @return the slot of the key, or the free slot where it would be put
+		 */
+		int find(long h, long key) {
+			int i = (int) h & m;
+			long k;
+			while((k = keys[i]) != key && k != 0) {
+				i = (i + 1) & m;
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * The methods must be called under the lock.
+	 */
+	static final class Segment extends ReentrantLock{
+		/**
+		 *
+		 */
+		private static final long serialVersionUID = 1L;
+		final int minCapacity;
+		final long noEntryValue;
+		volatile Table table;
+		volatile long zeroValue; //the value of the key 0, which marks a free slot in the table
+		int size = 0; //the entries, the key 0 included
+		int used = 0; //the slots which have a key, the removed ones included
+
+		Segment(int capacity, long noEntryValue) {
+			this.minCapacity = capacity;
+			this.noEntryValue = noEntryValue;
+			this.zeroValue = noEntryValue;
+			this.table = new Table(capacity);
+		}
+
+		long get(long key) {
+			if(key == 0) return zeroValue;
+			Table t = table;
+			int i = t.find(hash(key), key);
+			return t.keys[i] == key ? t.values[i] : noEntryValue;
+		}
+
+		/**
+		 * @param value never the noEntryValue
+		 */
+		void set(long key, long value) {
+			if(key == 0) {
+				if(zeroValue == noEntryValue) size ++;
+				zeroValue = value;
+				return;
+			}
+			long h = hash(key);
+			Table t = table;
+			int i = t.find(h, key);
+			if(t.keys[i] == key) {
+				if(t.values[i] == noEntryValue) size ++;
+				LONG.setRelease(t.values, i, value);
+				return;
+			}
+			if(used + 1 > (t.m + 1) >> 1) {
+				t = rehash();
+				i = t.find(h, key);
+			}
+			LONG.setRelease(t.values, i, value);
+			LONG.setRelease(t.keys, i, key); //the value is visible once the key is
+			used ++;
+			size ++;
+		}
+
+		long remove(long key) {
+			long old;
+			if(key == 0) {
+				old = zeroValue;
+				zeroValue = noEntryValue;
+			} else {
+				Table t = table;
+				int i = t.find(hash(key), key);
+				if(t.keys[i] != key) return noEntryValue;
+				old = t.values[i];
+				LONG.setRelease(t.values, i, noEntryValue); //the key stays, so the probes of the others don't stop here
+			}
+			if(old != noEntryValue) {
+				size --;
+				if(size < (table.m + 1) >> 4 && table.m + 1 > minCapacity) rehash();
+			}
+			return old;
+		}
+
+		/**
+		 * Copy the entries into a table of 4 times as many slots as entries, which drops the removed keys.
+		 * @return the new table
+		 */
+		Table rehash() {
+			Table old = table;
+			int live = size - (zeroValue != noEntryValue ? 1 : 0);
+			Table t = new Table(tableSizeFor((long) live * 4, minCapacity, MAX_CAPACITY));
+			for(int i = 0; i <= old.m; i ++) {
+				long v = old.values[i];
+				long key = old.keys[i];
+				if(key != 0 && v != noEntryValue) {
+					int j = t.find(hash(key), key);
+					t.keys[j] = key;
+					t.values[j] = v;
+				}
+			}
+			used = live;
+			table = t; //published with the entries
+			return t;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package org.theultra.tachyon.map;
+
+import static org.theultra.tachyon.map.LongHashing.hash;
+import static org.theultra.tachyon.map.LongHashing.tableSizeFor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-Safe, a HashMap of long keys to any objects, with no node object per entry.
+ * <br>
+ * The keys are kept in a long[] and the values in a parallel Object[], the collisions are resolved by linear probing,
+ * so a lookup compares keys in one or two cache lines and reads one value, it never dereferences a value to find its key.
+ * <br>
+ * The map is split into segments by the high bits of the hash of the key, each segment is an open-addressing table of its own
+ * and is locked by the writers of its keys only. get() never locks: a new entry is published by writing its value
+ * before its key, a removed entry keeps its key with a null value, and a table is never changed again once it has been
+ * replaced by a rehash. A segment rehashes when its keys, removed ones included, take 1/2 of its slots,
+ * or when its entries fall under 1/16 of them.
+ * <br>
+ * null values are not permitted.
+ * @author lofint
+ * @param <V>
+ */
+public class ConcurrentLongObjectMap<V> {
+	//必须是2的幂
+	public final static int MIN_CAPACITY = 1024;
+	public final static int DEFAULT_CAPACITY = 1024 * 8;
+	public final static int MAX_CAPACITY = 1024 * 1024 * 1024;
+
+	public final static int MIN_SEGMENTS = 16;
+	public final static int MAX_SEGMENTS = 256;
+
+	private final static VarHandle KEY = MethodHandles.arrayElementVarHandle(long[].class);
+	private final static VarHandle VALUE = MethodHandles.arrayElementVarHandle(Object[].class);
+
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	public ConcurrentLongObjectMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the prefer capacity by user, the real capacity will be an n power of 2 which just greater than the given capacity.
+	 * The map holds up to 1/2 of its capacity before it grows.
+	 */
+	public ConcurrentLongObjectMap(int capacity) {
+		capacity = tableSizeFor(capacity, MIN_CAPACITY, MAX_CAPACITY);
+		int n = tableSizeFor(Runtime.getRuntime().availableProcessors() * 4, MIN_SEGMENTS, MAX_SEGMENTS);
+		segments = new Segment[n];
+		for(int i = 0; i < n; i ++) {
+			segments[i] = new Segment(Math.max(16, capacity / n));
+		}
+		segmentShift = 64 - Integer.numberOfTrailingZeros(n);
+	}
+
+	@SuppressWarnings("unchecked")
+	public final V get(long key) {
+		long h = hash(key);
+		Segment s = segments[(int) (h >>> segmentShift)];
+		if(key == 0) return (V) s.zeroValue;
+		Table t = s.table;
+		int i = (int) h & t.m;
+		while(true) {
+			long k = (long) KEY.getAcquire(t.keys, i);
+			if(k == key) return (V) VALUE.getAcquire(t.values, i);
+			if(k == 0) return null;
+			i = (i + 1) & t.m;
+		}
+	}
+
+	public final boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * @return the previous value of the key, null if there was none
+	 */
+	public final V put(long key, V value) {
+		return put(key, value, false);
+	}
+
+	/**
+	 * @return the current value of the key, null if there was none and the given value has been put
+	 */
+	public final V putIfAbsent(long key, V value) {
+		return put(key, value, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V put(long key, V value, boolean onlyIfAbsent) {
+		if(value == null) throw new NullPointerException("Map value can't be null");
+		long h = hash(key);
+		Segment s = segments[(int) (h >>> segmentShift)];
+		try{
+			s.lock();
+			if(key == 0) {
+				Object old = s.zeroValue;
+				if(old == null) s.size ++;
+				if(old == null || !onlyIfAbsent) s.zeroValue = value;
+				return (V) old;
+			}
+			Table t = s.table;
+			int i = t.find(h, key);
+			if(t.keys[i] == key) {
+				Object old = t.values[i];
+				if(old == null) s.size ++;
+				if(old == null || !onlyIfAbsent) VALUE.setRelease(t.values, i, value);
+				return (V) old;
+			}
+			if(s.used + 1 > (t.m + 1) >> 1) {
+				t = s.rehash();
+				i = t.find(h, key);
+			}
+			VALUE.setRelease(t.values, i, value);
+			KEY.setRelease(t.keys, i, key); //the value is visible once the key is
+			s.used ++;
+			s.size ++;
+			return null;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	/**
+	 * @return the removed value, null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public final V remove(long key) {
+		long h = hash(key);
+		Segment s = segments[(int) (h >>> segmentShift)];
+		try{
+			s.lock();
+			Object old;
+			if(key == 0) {
+				old = s.zeroValue;
+				s.zeroValue = null;
+			} else {
+				Table t = s.table;
+				int i = t.find(h, key);
+				if(t.keys[i] != key) return null;
+				old = t.values[i];
+				VALUE.setRelease(t.values, i, null); //the key stays, so the probes of the others don't stop here
+			}
+			if(old != null) {
+				s.size --;
+				if(s.size < (s.table.m + 1) >> 4 && s.table.m + 1 > s.minCapacity) s.rehash();
+			}
+			return (V) old;
+		} finally {
+			s.unlock();
+		}
+	}
+
+	public int size() {
+		int r = 0;
+		for(int i = 0; i < segments.length; i ++) {
+			r += segments[i].size;
+		}
+		return r;
+	}
+
+	/**
+	 * @return the number of slots of all segments
+	 */
+	public long capacity() {
+		long r = 0;
+		for(int i = 0; i < segments.length; i ++) {
+			r += segments[i].table.m + 1;
+		}
+		return r;
+	}
+
+	static final class Table {
+		final long[] keys;
+		final Object[] values;
+		final int m;
+
+		Table(int capacity) {
+			this.keys = new long[capacity];
+			this.values = new Object[capacity];
+			this.m = capacity - 1;
+		}
+
+		/**
+		 * @return the slot of the key, or the free slot where it would be put
+		 */
+		int find(long h, long key) {
+			int i = (int) h & m;
+			long k;
+			while((k = keys[i]) != key && k != 0) {
+				i = (i + 1) & m;
+			}
+			return i;
+		}
+	}
+
+	static final class Segment extends ReentrantLock{
+		/**
+		 *
+		 */
+		private static final long serialVersionUID = 1L;
+		final int minCapacity;
+		volatile Table table;
+		volatile Object zeroValue; //the value of the key 0, which marks a free slot in the table
+		int size = 0; //the entries, the key 0 included
+		int used = 0; //the slots which have a key, the removed ones included
+
+		Segment(int capacity) {
+			this.minCapacity = capacity;
+			this.table = new Table(capacity);
+		}
+
+		/**
+		 * Copy the entries into a table of 4 times as many slots as entries, which drops the removed keys, must be called under the lock.
+		 * @return the new table
+		 */
+		Table rehash() {
+			Table old = table;
+			int live = size - (zeroValue != null ? 1 : 0);
+			Table t = new Table(tableSizeFor((long) live * 4, minCapacity, MAX_CAPACITY));
+			for(int i = 0; i <= old.m; i ++) {
+				Object v = old.values[i];
+				if(v != null) {
+					long key = old.keys[i];
+					int j = t.find(hash(key), key);
+					t.keys[j] = key;
+					t.values[j] = v;
+				}
+			}
+			used = live;
+			table = t; //published with the entries
+			return t;
+		}
+	}
+}
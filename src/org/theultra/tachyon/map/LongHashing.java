@@ -0,0 +1,39 @@
+package org.theultra.tachyon.map;
+
+/**
+ * The hash of the long keys and the table sizes shared by the maps of this package.
+ * @author lofint
+ */
+final class LongHashing {
+	private LongHashing() {
+	}
+
+	/**
+	 * MurmurHash3 finalizer, every bit of the key changes about half of the bits of the hash,
+	 * so both the high bits and the low bits can be used as an index.
+	 */
+	static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/**
+	 * @return the power of 2 just not less than prefer, within [min, max]
+	 */
+	static int tableSizeFor(int prefer, int min, int max) {
+		if(prefer <= min) return min;
+		int n = -1 >>> Integer.numberOfLeadingZeros(prefer - 1);
+		return (n < 0 || n >= max) ? max : n + 1;
+	}
+
+	/**
+	 * tableSizeFor(int, int, int) of a size computed in long, e.g. a multiple of the live entries which may not fit an int.
+	 */
+	static int tableSizeFor(long prefer, int min, int max) {
+		return prefer >= max ? max : tableSizeFor((int) prefer, min, max);
+	}
+}
@@ -3,8 +3,13 @@ package org.theultra.tachyon.perftest;
 import java.util.concurrent.CountDownLatch;
 
 import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.ILongQueue;
 import org.theultra.tachyon.queue.SimpleBlockingQueue;
+import org.theultra.tachyon.queue.SimpleLongQueue;
+import org.theultra.tachyon.queue.SimpleUnboundedQueue;
+import org.theultra.tachyon.queue.concurrent.ConcurrentLongQueue;
 import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+import org.theultra.tachyon.queue.concurrent.StripedQueue;
 
 
 @SuppressWarnings("unused")
@@ -16,18 +21,52 @@ public class QueuePerf {
 	static int QUEUE_SIZE= 1024 * 1024;
 	
 	static IBlockingQueue<Object> queue;
+	static ILongQueue longQueue; //used instead of queue by the queues of longs
 	
+	/**
+	 * @param args [queue [producers consumers]], queue is concurrent (default), striped, concurrentlong, or simple, unbounded
+	 * or simplelong, which are single-producer/single-consumer queues
+	 */
 	public static void main(String[] args) throws InterruptedException {
+		String kind = args.length > 0 ? args[0] : "concurrent";
+		if(args.length > 2) {
+			NUM_PRODUCER = Integer.parseInt(args[1]);
+			NUM_CONSUMER = Integer.parseInt(args[2]);
+		}
 		
-		queue = new ConcurrentQueue<Object>(QUEUE_SIZE);
-		//queue = new SimpleBlockingQueue<Object>(QUEUE_SIZE);
+		switch(kind) {
+		case "concurrent":
+			queue = new ConcurrentQueue<Object>(QUEUE_SIZE);
+			break;
+		case "simple":
+			queue = new SimpleBlockingQueue<Object>(QUEUE_SIZE);
+			NUM_PRODUCER = NUM_CONSUMER = 1;
+			break;
+		case "unbounded":
+			queue = new SimpleUnboundedQueue<Object>();
+			NUM_PRODUCER = NUM_CONSUMER = 1;
+			break;
+		case "striped":
+			queue = new StripedQueue<Object>(QUEUE_SIZE, NUM_PRODUCER);
+			break;
+		case "concurrentlong":
+			longQueue = new ConcurrentLongQueue(QUEUE_SIZE);
+			break;
+		case "simplelong":
+			longQueue = new SimpleLongQueue(QUEUE_SIZE);
+			NUM_PRODUCER = NUM_CONSUMER = 1;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown queue " + kind);
+		}
+		System.out.println("Queue " + kind + ", " + NUM_PRODUCER + " producer(s), " + NUM_CONSUMER + " consumer(s)");
 		
 		benchmark();
 	}
 
 	private static void benchmark() throws InterruptedException {
 		final Object object = new Object();
-		int iter = ((int)(ITERATIONS / NUM_PRODUCER / NUM_CONSUMER)) * NUM_PRODUCER * NUM_CONSUMER;
+		int iter = (ITERATIONS / NUM_PRODUCER / NUM_CONSUMER) * NUM_PRODUCER * NUM_CONSUMER;
 
 		final CountDownLatch latch = new CountDownLatch(NUM_CONSUMER);
 		
@@ -41,8 +80,14 @@ public class QueuePerf {
 					this.setName("Producer " + s);
 					int times = iter / NUM_PRODUCER ;
 					long t0 = System.nanoTime();
-					for(int t = 0; t < times; t ++) {
-						queue.put(object);
+					if(longQueue != null) {
+						for(int t = 0; t < times; t ++) {
+							longQueue.put(t);
+						}
+					} else {
+						for(int t = 0; t < times; t ++) {
+							queue.put(object);
+						}
 					}
 					long tt = System.nanoTime() - t0;;
 					System.out.println("Producer " + s + " has completed. Cost Per Put " + (tt/times) + "ns. ");
@@ -57,8 +102,14 @@ public class QueuePerf {
 					this.setName("Consumer " + s);
 					int times = iter / NUM_CONSUMER ;
 					long t0 = System.nanoTime();
-					for(int t = 0; t < times; t ++) {
-						queue.take();
+					if(longQueue != null) {
+						for(int t = 0; t < times; t ++) {
+							longQueue.takeLong();
+						}
+					} else {
+						for(int t = 0; t < times; t ++) {
+							queue.take();
+						}
 					}
 					long tt = System.nanoTime() - t0;
 					latch.countDown();
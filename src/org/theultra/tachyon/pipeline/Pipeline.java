@@ -0,0 +1,370 @@
+package org.theultra.tachyon.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.SimpleBlockingQueue;
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A chain of stages, each run by its own threads and connected to the next one by a queue.
+ * <pre>
+ * Pipeline&lt;byte[]&gt; p = Pipeline.&lt;byte[]&gt;builder("orders")
+ *     .stage("decode", Order::decode)
+ *     .stage("validate", 2, validator::check)   //two threads, returns null to drop
+ *     .fuse("enrich", enricher::enrich)          //runs on the validate threads, no queue hop
+ *     .sink("publish", publisher::publish);
+ * p.submit(bytes);
+ * </pre>
+ * The queue in front of a stage is a SimpleBlockingQueue when one thread puts into it and one thread takes from it,
+ * otherwise a ConcurrentQueue. The objects given to submit() are put by any thread, unless the builder
+ * is told there is a single submitter. Every stage thread drains its queue in batches of batchSize.
+ * <br>
+ * A stage returning null drops the object. An exception or Error thrown by a stage is handed to the UncaughtExceptionHandler
+ * of its thread, the object is dropped and the thread goes on with the next one. Java cannot pin threads to cores,
+ * a stage can be given its own ThreadFactory to create threads which pin themselves.
+ * @author lofint
+ * @param <I> the type of the submitted objects
+ */
+public class Pipeline<I> {
+	private static final int DEFAULT_CAPACITY = 1024 * 8;
+	private static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final String name;
+	private final List<Stage> stages;
+	private final List<Segment> segments;
+	private final WaitStrategy waitStrategy;
+	private final int batchSize;
+	private final AtomicInteger submitting = new AtomicInteger(); //submit() calls which have passed the closed check
+	private volatile boolean closed;
+
+	Pipeline(Builder<I, ?> b) {
+		this.name = b.name;
+		this.waitStrategy = b.waitStrategy;
+		this.batchSize = b.batchSize;
+		this.stages = Collections.unmodifiableList(new ArrayList<Stage>(b.stages));
+		List<Segment> l = new ArrayList<Segment>();
+		int producers = b.singleSubmitter ? 1 : 0; //0 for any number of threads
+		for(int i = 0; i < b.stages.size(); ) {
+			int from = i;
+			for(i ++; i < b.stages.size() && b.stages.get(i).fused; i ++);
+			Stage head = b.stages.get(from);
+			IBlockingQueue<Object> q = producers == 1 && head.parallelism == 1
+					? new SimpleBlockingQueue<Object>(b.capacity, waitStrategy)
+					: new ConcurrentQueue<Object>(b.capacity, waitStrategy);
+			head.queue = q;
+			l.add(new Segment(b.stages.subList(from, i).toArray(new Stage[i - from]), q, l.isEmpty() ? null : l.get(l.size() - 1)));
+			producers = head.parallelism;
+		}
+		this.segments = l;
+		for(int i = 0; i + 1 < l.size(); i ++) {
+			l.get(i).next = l.get(i + 1);
+		}
+		for(Segment s : segments) {
+			s.start();
+		}
+	}
+
+	public static <I> Builder<I, I> builder(String name) {
+		return new Builder<I, I>(name);
+	}
+
+	/**
+	 * Put the object into the queue of the first stage, wait while it is full.
+	 * @throws IllegalStateException if the pipeline has been shut down
+	 */
+	public void submit(I obj) {
+		if(obj == null) throw new NullPointerException("Pipeline object can't be null");
+		submitting.incrementAndGet();
+		try {
+			if(closed) throw new IllegalStateException(name + " has been shut down");
+			segments.get(0).queue.put(obj);
+		} finally {
+			submitting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Stop accepting objects, every stage stops after the objects submitted before have passed through it.
+	 */
+	public void shutdown() {
+		closed = true;
+		waitStrategy.signal();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return segments.get(segments.size() - 1).terminated.await(timeout, unit);
+	}
+
+	public boolean isTerminated() {
+		return segments.get(segments.size() - 1).terminated.getCount() == 0;
+	}
+
+	/**
+	 * @return the stages in pipeline order
+	 */
+	public List<Stage> getStages() {
+		return stages;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * A stage and the threads which run it, along with the stages fused into it.
+	 */
+	private final class Segment {
+		final Stage[] stages;
+		final IBlockingQueue<Object> queue;
+		final Segment previous;
+		final CountDownLatch terminated;
+		Segment next;
+
+		Segment(Stage[] stages, IBlockingQueue<Object> queue, Segment previous) {
+			this.stages = stages;
+			this.queue = queue;
+			this.previous = previous;
+			this.terminated = new CountDownLatch(stages[0].parallelism);
+		}
+
+		void start() {
+			Stage s = stages[0];
+			for(int i = 0; i < s.parallelism; i ++) {
+				Thread t = s.threadFactory != null ? s.threadFactory.newThread(this::run)
+						: new Thread(this::run, name + "-" + s.name + "-" + i);
+				if(t == null) throw new NullPointerException("ThreadFactory returned null");
+				t.start();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		void handle(Object obj) {
+			try {
+				for(Stage s : stages) {
+					obj = ((Function<Object, Object>) s.function).apply(obj);
+					s.processed.increment();
+					if(obj == null) return;
+				}
+				if(next != null) next.queue.put(obj);
+			} catch (Throwable e) { //an Error must not end the thread either, upstream would block on the full queue
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			}
+		}
+
+		/**
+		 * Upstream is done when no object can be put into the queue any more.
+		 */
+		boolean isUpstreamDone() {
+			if(previous == null) return closed && submitting.get() == 0;
+			return previous.terminated.getCount() == 0;
+		}
+
+		void run() {
+			final Consumer<Object> handler = this::handle;
+			final BooleanSupplier isIdle = () -> queue.size() == 0 && !isUpstreamDone();
+			try {
+				int idleCount = 0;
+				while(true) {
+					if(queue.drain(handler, batchSize) > 0) {
+						idleCount = 0;
+					} else if(isUpstreamDone() && queue.size() == 0) {
+						break;
+					} else {
+						idleCount = waitStrategy.idle(idleCount, isIdle, 0);
+					}
+				}
+			} finally {
+				terminated.countDown();
+				waitStrategy.signal();
+			}
+		}
+	}
+
+	/**
+	 * One step of a pipeline and its statistics.
+	 */
+	public static final class Stage {
+		final String name;
+		final int parallelism;
+		final ThreadFactory threadFactory;
+		final Function<?, ?> function;
+		final boolean fused;
+		final LongAdder processed = new LongAdder();
+		IBlockingQueue<Object> queue; //null if fused
+
+		Stage(String name, int parallelism, ThreadFactory threadFactory, Function<?, ?> function, boolean fused) {
+			this.name = name;
+			this.parallelism = parallelism;
+			this.threadFactory = threadFactory;
+			this.function = function;
+			this.fused = fused;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the number of threads of this stage, the ones of the stage it is fused into if it is fused
+		 */
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		public boolean isFused() {
+			return fused;
+		}
+
+		/**
+		 * @return the number of objects this stage has handled so far
+		 */
+		public long getProcessed() {
+			return processed.sum();
+		}
+
+		/**
+		 * @return the number of objects waiting in front of this stage, 0 if it is fused
+		 */
+		public int getQueueDepth() {
+			IBlockingQueue<Object> q = queue;
+			return q == null ? 0 : q.size();
+		}
+
+		@Override
+		public String toString() {
+			return name + ": processed=" + getProcessed() + ", queueDepth=" + getQueueDepth();
+		}
+	}
+
+	/**
+	 * @param <I> the type of the submitted objects
+	 * @param <O> the output type of the last stage added
+	 */
+	public static final class Builder<I, O> {
+		final String name;
+		final List<Stage> stages = new ArrayList<Stage>();
+		WaitStrategy waitStrategy = new BackoffParkWaitStrategy();
+		int capacity = DEFAULT_CAPACITY;
+		int batchSize = DEFAULT_BATCH_SIZE;
+		boolean singleSubmitter;
+
+		Builder(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @param preferCapacity the prefer capacity of every queue between the stages
+		 */
+		public Builder<I, O> capacity(int preferCapacity) {
+			this.capacity = preferCapacity;
+			return this;
+		}
+
+		/**
+		 * @param batchSize the most objects a stage thread takes from its queue at a time
+		 */
+		public Builder<I, O> batchSize(int batchSize) {
+			if(batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		/**
+		 * @param waitStrategy shared by all queues, used by idle stage threads and while a queue is full
+		 */
+		public Builder<I, O> waitStrategy(WaitStrategy waitStrategy) {
+			if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+			this.waitStrategy = waitStrategy;
+			return this;
+		}
+
+		/**
+		 * Only one thread calls submit(), so the queue of the first stage may be single-producer.
+		 */
+		public Builder<I, O> singleSubmitter() {
+			this.singleSubmitter = true;
+			return this;
+		}
+
+		public <R> Builder<I, R> stage(String name, Function<? super O, ? extends R> function) {
+			return stage(name, 1, null, function);
+		}
+
+		public <R> Builder<I, R> stage(String name, int parallelism, Function<? super O, ? extends R> function) {
+			return stage(name, parallelism, null, function);
+		}
+
+		/**
+		 * Add a stage run by its own threads behind a queue.
+		 * @param threadFactory creates the threads of this stage, e.g. to pin them to cores, null for plain threads
+		 * @param function returns null to drop the object
+		 */
+		@SuppressWarnings("unchecked")
+		public <R> Builder<I, R> stage(String name, int parallelism, ThreadFactory threadFactory, Function<? super O, ? extends R> function) {
+			if(parallelism <= 0) throw new IllegalArgumentException("parallelism must be greater than 0");
+			if(function == null) throw new NullPointerException("Stage function can't be null");
+			stages.add(new Stage(name, parallelism, threadFactory, function, false));
+			return (Builder<I, R>) this;
+		}
+
+		/**
+		 * Add a stage run by the threads of the previous one, the object is handed over without a queue.
+		 * @param function returns null to drop the object
+		 */
+		@SuppressWarnings("unchecked")
+		public <R> Builder<I, R> fuse(String name, Function<? super O, ? extends R> function) {
+			if(stages.isEmpty()) throw new IllegalStateException("The first stage can't be fused");
+			if(function == null) throw new NullPointerException("Stage function can't be null");
+			stages.add(new Stage(name, stages.get(stages.size() - 1).parallelism, null, function, true));
+			return (Builder<I, R>) this;
+		}
+
+		/**
+		 * Add the last stage and start the pipeline.
+		 */
+		public Pipeline<I> sink(String name, Consumer<? super O> consumer) {
+			return sink(name, 1, null, consumer);
+		}
+
+		public Pipeline<I> sink(String name, int parallelism, Consumer<? super O> consumer) {
+			return sink(name, parallelism, null, consumer);
+		}
+
+		public Pipeline<I> sink(String name, int parallelism, ThreadFactory threadFactory, Consumer<? super O> consumer) {
+			if(consumer == null) throw new NullPointerException("Sink can't be null");
+			stage(name, parallelism, threadFactory, o -> { consumer.accept(o); return null; });
+			return build();
+		}
+
+		/**
+		 * Add the last stage on the threads of the previous one and start the pipeline.
+		 */
+		public Pipeline<I> fuseSink(String name, Consumer<? super O> consumer) {
+			if(consumer == null) throw new NullPointerException("Sink can't be null");
+			fuse(name, o -> { consumer.accept(o); return null; });
+			return build();
+		}
+
+		/**
+		 * Start the pipeline, the output of the last stage is dropped.
+		 */
+		public Pipeline<I> build() {
+			if(stages.isEmpty()) throw new IllegalStateException("A pipeline needs at least one stage");
+			return new Pipeline<I>(this);
+		}
+	}
+}
@@ -1,9 +1,60 @@
 package org.theultra.tachyon.queue;
 
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.wait.WaitInterruptedException;
+
 public interface IBlockingQueue<T> {
+	/**
+	 * Put the object, wait with the WaitStrategy of the queue while it is full.
+	 * @throws WaitInterruptedException if the thread is interrupted while the WaitStrategy parks it
+	 */
 	void put(T t);
+
+	/**
+	 * Take an object, wait with the WaitStrategy of the queue while it is empty.
+	 * @throws WaitInterruptedException if the thread is interrupted while the WaitStrategy parks it
+	 */
 	T take();
-	
+
+	/**
+	 * @return false if the queue is full, never wait
+	 */
+	boolean offer(T t);
+
+	/**
+	 * @return null if the queue is empty, never wait
+	 */
+	T poll();
+
+	/**
+	 * @return The size of objects in this queue
+	 */
+	int size();
+
+	/**
+	 * Remove at most max objects from the queue and hand them to the consumer in queue order, never wait.
+	 * If the consumer throws, the object it was handed has been removed, the objects not handed yet stay in the queue
+	 * and the exception is passed on.
+	 * @return the number of objects drained, 0 if the queue is empty
+	 */
+	int drain(Consumer<? super T> consumer, int max);
+
+	/**
+	 * Remove at most max objects from the queue and add them to the given collection, never wait.
+	 * @return the number of objects drained, 0 if the queue is empty
+	 */
+	default int drainTo(Collection<? super T> c, int max) {
+		return drain(c::add, max);
+	}
+
+	/**
+	 * Put items[from, from + len) into the queue as far as there is room, never wait.
+	 * @return the number of objects put, they are always a prefix of the given range
+	 */
+	int offerBatch(T[] items, int from, int len);
+
 	public static int getPow2Value(int prefer, final int min, final int max) {
 		if(prefer < min) prefer = min;
 		else {
@@ -0,0 +1,64 @@
+package org.theultra.tachyon.queue;
+
+import java.util.function.IntConsumer;
+
+import org.theultra.tachyon.queue.wait.WaitInterruptedException;
+
+/**
+ * A queue of primitive ints, nothing is boxed and nothing is allocated in steady state.
+ * <br>
+ * Since there is no null for an int, every queue has a nullValue which is returned by pollInt() when the queue is empty,
+ * and which can't be put into the queue.
+ * @author lofint
+ */
+public interface IIntQueue {
+	/**
+	 * Put the value, wait with the WaitStrategy of the queue while it is full.
+	 * @throws WaitInterruptedException if the thread is interrupted while the WaitStrategy parks it
+	 */
+	void put(int value);
+
+	/**
+	 * Take a value, wait with the WaitStrategy of the queue while it is empty.
+	 * @throws WaitInterruptedException if the thread is interrupted while the WaitStrategy parks it
+	 */
+	int takeInt();
+
+	/**
+	 * Take a value, wait with the WaitStrategy of the queue while it is empty, but not longer than nanoTimeout.
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 * @return the head value of the queue, or getNullValue() if the queue is still empty after nanoTimeout
+	 * @throws WaitInterruptedException if the thread is interrupted while the WaitStrategy parks it
+	 */
+	int pollInt(long nanoTimeout);
+
+	/**
+	 * @return false if the queue is full
+	 */
+	boolean offer(int value);
+
+	/**
+	 * @return the head value of the queue, or getNullValue() if the queue is empty
+	 */
+	int pollInt();
+
+	/**
+	 * Remove at most max values from the queue and hand them to the consumer in queue order, never wait.
+	 * If the consumer throws, the value it was handed has been removed, the values not handed yet stay in the queue
+	 * and the exception is passed on.
+	 * @return the number of values drained, 0 if the queue is empty
+	 */
+	int drain(IntConsumer consumer, int max);
+
+	/**
+	 * Put values[from, from + len) into the queue as far as there is room, never wait.
+	 * @return the number of values put, they are always a prefix of the given range
+	 */
+	int offerBatch(int[] values, int from, int len);
+
+	int getNullValue();
+
+	int size();
+
+	int capacity();
+}
@@ -0,0 +1,193 @@
+package org.theultra.tachyon.queue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one named queue: occupancy high-water mark, CAS retries, failed offers/polls and waits with a wait-time histogram.
+ * <br>
+ * Metrics are off by default, a queue only records into its QueueMetrics after enableMetrics() has been called,
+ * a disabled queue pays one null check per operation. The counters are LongAdders, so threads don't contend on them,
+ * and the occupancy is only sampled once every OCCUPANCY_SAMPLE operations.
+ * <br>
+ * All queues with the same name share one QueueMetrics, a queue must be given a name with setName() before enableMetrics().
+ * The metrics stay registered until remove() is called with their name.
+ * @author lofint
+ */
+public final class QueueMetrics {
+	/**
+	 * The occupancy is sampled when (index &amp; OCCUPANCY_SAMPLE_MASK) == 0
+	 */
+	public static final int OCCUPANCY_SAMPLE_MASK = 64 - 1;
+	/**
+	 * Bucket i of the wait-time histogram counts waits of [2^i, 2^(i+1)) ns, the last bucket counts all longer waits.
+	 */
+	public static final int WAIT_BUCKETS = 40;
+	/**
+	 * The name of a queue which has not been given one, can't be registered.
+	 */
+	public static final String UNNAMED = "Unnamed Queue";
+
+	private static final ConcurrentHashMap<String, QueueMetrics> REGISTRY = new ConcurrentHashMap<String, QueueMetrics>();
+
+	private final String name;
+	private final AtomicLong highWaterMark = new AtomicLong();
+	private final LongAdder casRetries = new LongAdder();
+	private final LongAdder failedOffers = new LongAdder();
+	private final LongAdder failedPolls = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder parks = new LongAdder();
+	private final LongAdder[] waitHistogram = new LongAdder[WAIT_BUCKETS];
+
+	private QueueMetrics(String name) {
+		this.name = name;
+		for(int i = 0; i < WAIT_BUCKETS; i ++) {
+			waitHistogram[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @return the metrics of the given queue name, created on the first call
+	 * @throws IllegalArgumentException if the name is UNNAMED, unrelated queues would share the metrics
+	 */
+	public static QueueMetrics of(String name) {
+		if(name == null) throw new NullPointerException("Queue name can't be null");
+		if(UNNAMED.equals(name)) throw new IllegalArgumentException("Give the queue a name before enabling its metrics");
+		return REGISTRY.computeIfAbsent(name, QueueMetrics::new);
+	}
+
+	/**
+	 * Unregister the metrics of the given queue name. The queues which have enabled them keep recording into them
+	 * until disableMetrics() is called, a later enableMetrics() registers new ones.
+	 * @return the removed metrics, or null if no queue of this name has enabled metrics
+	 */
+	public static QueueMetrics remove(String name) {
+		return REGISTRY.remove(name);
+	}
+
+	/**
+	 * @return the metrics of the given queue name, or null if no queue of this name has enabled metrics
+	 */
+	public static QueueMetrics get(String name) {
+		return REGISTRY.get(name);
+	}
+
+	/**
+	 * @return the metrics of all queues which have enabled metrics
+	 */
+	public static Collection<QueueMetrics> all() {
+		return Collections.unmodifiableCollection(REGISTRY.values());
+	}
+
+	public void recordOccupancy(long size) {
+		if(size > highWaterMark.get()) highWaterMark.accumulateAndGet(size, Math::max);
+	}
+
+	public void recordCasRetry() {
+		casRetries.increment();
+	}
+
+	public void recordFailedOffer() {
+		failedOffers.increment();
+	}
+
+	public void recordFailedPoll() {
+		failedPolls.increment();
+	}
+
+	/**
+	 * Record one blocked put/take/offer/poll.
+	 * @param parks how many times the thread has idled or parked
+	 * @param nanos how long the operation has waited in total
+	 */
+	public void recordWait(int parks, long nanos) {
+		this.waits.increment();
+		this.parks.add(parks);
+		int b = nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+		waitHistogram[Math.min(b, WAIT_BUCKETS - 1)].increment();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getHighWaterMark() {
+		return highWaterMark.get();
+	}
+
+	public long getCasRetries() {
+		return casRetries.sum();
+	}
+
+	public long getFailedOffers() {
+		return failedOffers.sum();
+	}
+
+	public long getFailedPolls() {
+		return failedPolls.sum();
+	}
+
+	/**
+	 * @return the number of operations which have waited
+	 */
+	public long getWaits() {
+		return waits.sum();
+	}
+
+	/**
+	 * @return the number of times a waiting operation has idled or parked
+	 */
+	public long getParks() {
+		return parks.sum();
+	}
+
+	/**
+	 * @return a copy of the wait-time histogram, see WAIT_BUCKETS
+	 */
+	public long[] getWaitHistogram() {
+		long[] r = new long[WAIT_BUCKETS];
+		for(int i = 0; i < WAIT_BUCKETS; i ++) {
+			r[i] = waitHistogram[i].sum();
+		}
+		return r;
+	}
+
+	/**
+	 * Set all counters to 0.
+	 */
+	public void reset() {
+		highWaterMark.set(0);
+		casRetries.reset();
+		failedOffers.reset();
+		failedPolls.reset();
+		waits.reset();
+		parks.reset();
+		for(int i = 0; i < WAIT_BUCKETS; i ++) {
+			waitHistogram[i].reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(name).append(": highWaterMark=").append(getHighWaterMark())
+			.append(", casRetries=").append(getCasRetries())
+			.append(", failedOffers=").append(getFailedOffers())
+			.append(", failedPolls=").append(getFailedPolls())
+			.append(", waits=").append(getWaits())
+			.append(", parks=").append(getParks())
+			.append(", waitNs={");
+		long[] h = getWaitHistogram();
+		boolean first = true;
+		for(int i = 0; i < h.length; i ++) {
+			if(h[i] == 0) continue;
+			if(!first) sb.append(", ");
+			sb.append(1L << i).append("+:").append(h[i]);
+			first = false;
+		}
+		return sb.append('}').toString();
+	}
+}
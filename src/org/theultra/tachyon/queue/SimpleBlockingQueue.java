@@ -1,38 +1,41 @@
 package org.theultra.tachyon.queue;
 
-import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
 
 /**
- * A non-thread-safe Queue.
+ * A single-producer/single-consumer Queue. It is safe when there is only one sender thread and one receiver thread.
+ * <br>
+ * head is published by the sender with a release store and tail by the receiver, the opposite index is read with an acquire load.
+ * Each side keeps a local cache of the opposite index and only reloads it when the cache says full/empty,
+ * so in the common case neither side touches the other's cache line.
+ * put() and take() wait with the WaitStrategy given to the constructor, a BlockingWaitStrategy parks them until the queue is signalled
+ * as not full / not empty by the opposite side.
  * @author lofint
  * @param <T> 
  */
-public class SimpleBlockingQueue<T> implements IBlockingQueue<T> {
-	private static final int MIN_PACKTIME_NS = 8 << 4; 
-	private static final int MAX_PACKTIME_NS = 8 << 16;
+public class SimpleBlockingQueue<T> extends SimpleQueueIndices implements IBlockingQueue<T> {
 	//private static final long MAX_COUNTER = 0x7000000000000000l;
 	private static final int MIN_CAPACITY = 1024 * 8;
 	private static final int DEFAULT_CAPALITY = 1024 * 128;
 	private static final int MAX_CAPACITY = 1024 * 1024 * 4;
-	private String name = "Unnamed Queue";
-	@sun.misc.Contended("g0")
+	private String name = QueueMetrics.UNNAMED;
 	final Object[] array;
-	@sun.misc.Contended("g0")
 	final int capacity;
-	@sun.misc.Contended("g0")
 	final int m;
-	@sun.misc.Contended("g1")
-	long tail = 0; //not fetch(empty)
-	@sun.misc.Contended("g2")
-	long head = 0; //empty
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isEmpty = () -> size() == 0;
+	private final BooleanSupplier isFull = () -> size() >= capacity();
+	private volatile QueueMetrics metrics; //null when disabled
 	
 	/**
 	 * Create a NoneBlockArrayQueue with default capacity 1024 * 128
 	 */
 	public SimpleBlockingQueue() {
-		this.capacity = DEFAULT_CAPALITY;
-		array = new Object[this.capacity];
-		this.m = this.capacity - 1;
+		this(DEFAULT_CAPALITY);
 	}
 	
 	/**
@@ -40,83 +43,186 @@ public class SimpleBlockingQueue<T> implements IBlockingQueue<T> {
 	 * @param preferCapacity 
 	 */
 	public SimpleBlockingQueue(int preferCapacity) {
+		this(preferCapacity, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * Create a Queue with the capacity is a power of 2 and just greater than given prefer one, put() and take() wait with the given strategy
+	 */
+	public SimpleBlockingQueue(int preferCapacity, WaitStrategy waitStrategy) {
 		this.capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
-		array = new Object[this.capacity];
+		this.array = new Object[this.capacity];
 		this.m = this.capacity - 1;				
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.waitStrategy = waitStrategy;
 	}
 	
 	public void put(T obj) {
-		int packTime = MIN_PACKTIME_NS;
-		while(!offer(obj)) {
-			LockSupport.parkNanos(packTime);
-			if(packTime < MAX_PACKTIME_NS) packTime <<= 1;
-		}
+		offer(obj, 0);
 	}
 	
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
 	public boolean offer(T obj, final long nanoTimeout) {
-		long w = 0;
-		int packTime = MIN_PACKTIME_NS;
-		while(!offer(obj)) {
-			LockSupport.parkNanos(packTime);
-			if(nanoTimeout > 0) {
-				w += packTime;
-				if(w > nanoTimeout) return false;
+		if(offer(obj)) return true; //records the one failed offer of this call
+		final QueueMetrics metrics = this.metrics;
+		final long t0 = metrics != null || nanoTimeout > 0 ? System.nanoTime() : 0;
+		int idleCount = 0, parks = 0;
+		try {
+			while(!tryOffer(obj)) {
+				long remaining = 0;
+				if(nanoTimeout > 0 && (remaining = t0 + nanoTimeout - System.nanoTime()) <= 0) return false;
+				idleCount = waitStrategy.idleFull(idleCount, isFull, remaining);
+				parks ++;
 			}
-			if(packTime < MAX_PACKTIME_NS) packTime <<= 1;
+			return true;
+		} finally {
+			if(metrics != null) metrics.recordWait(parks, System.nanoTime() - t0);
 		}
-		return true;
 	}
 	
 	public boolean offer(T obj) {
+		if(tryOffer(obj)) return true;
+		QueueMetrics metrics = this.metrics;
+		if(metrics != null) metrics.recordFailedOffer();
+		return false;
+	}
+
+	/**
+	 * offer() without recording a failure, the waiting loops record one per call
+	 */
+	private boolean tryOffer(T obj) {
+		final QueueMetrics metrics = this.metrics;
 		if(obj == null) throw new NullPointerException("Queue object can't be null");
-		int p = (int) (head & this.m);
-		if(array[p] != null) return false;
-		head ++;
-		array[p] = obj;
+		final long head = this.head;
+		if(head - tailCache >= this.capacity) {
+			tailCache = (long) TAIL.getAcquire(this);
+			if(head - tailCache >= this.capacity) return false;
+		}
+		array[(int) (head & this.m)] = obj;
+		HEAD.setRelease(this, head + 1);
+		waitStrategy.signalNotEmpty();
+		if(metrics != null && (head & QueueMetrics.OCCUPANCY_SAMPLE_MASK) == 0) metrics.recordOccupancy(size());
 		return true;
 	}
 	
-	@SuppressWarnings("unchecked")
-	public T take(){
-		Object r;
-		int packTime = MIN_PACKTIME_NS;
-		while((r=poll()) == null) {
-			LockSupport.parkNanos(packTime);
-			if(packTime < MAX_PACKTIME_NS) packTime <<= 1;
+	/**
+	 * Fill as many free slots as possible with items[from, from + len) and publish them with one release store of head.
+	 */
+	public int offerBatch(T[] items, int from, int len) {
+		final QueueMetrics metrics = this.metrics;
+		final long head = this.head;
+		if(head + len - tailCache > this.capacity) {
+			tailCache = (long) TAIL.getAcquire(this);
 		}
-		return (T)r;
+		int n = (int) Math.min(len, this.capacity - (head - tailCache));
+		if(n <= 0) {
+			if(metrics != null && len > 0) metrics.recordFailedOffer();
+			return 0;
+		}
+		for(int i = 0; i < n; i ++) {
+			T obj = items[from + i];
+			if(obj == null) throw new NullPointerException("Queue object can't be null");
+			array[(int) ((head + i) & this.m)] = obj;
+		}
+		HEAD.setRelease(this, head + n);
+		waitStrategy.signalNotEmpty();
+		if(metrics != null) metrics.recordOccupancy(size());
+		return n;
 	}
 	
-	@SuppressWarnings("unchecked")
+	public T take(){
+		return poll(0);
+	}
+
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
 	public T poll(final long nanoTimeout){
-		Object r;
-		long w = 0;
-		int packTime = MIN_PACKTIME_NS;
-		while((r=poll()) == null) {
-			LockSupport.parkNanos(packTime);
-			if(nanoTimeout > 0) {
-				w += packTime;
-				if(w > nanoTimeout) return null;
+		T r;
+		if((r=poll()) != null) return r; //records the one failed poll of this call
+		final QueueMetrics metrics = this.metrics;
+		final long t0 = metrics != null || nanoTimeout > 0 ? System.nanoTime() : 0;
+		int idleCount = 0, parks = 0;
+		try {
+			while((r=tryPoll()) == null) {
+				long remaining = 0;
+				if(nanoTimeout > 0 && (remaining = t0 + nanoTimeout - System.nanoTime()) <= 0) return null;
+				idleCount = waitStrategy.idle(idleCount, isEmpty, remaining);
+				parks ++;
 			}
-			if(packTime < MAX_PACKTIME_NS) packTime <<= 1;
+			return r;
+		} finally {
+			if(metrics != null) metrics.recordWait(parks, System.nanoTime() - t0);
 		}
-		return (T)r;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public T poll(){
-		Object r;
+		T r = tryPoll();
+		if(r == null) {
+			QueueMetrics metrics = this.metrics;
+			if(metrics != null) metrics.recordFailedPoll();
+		}
+		return r;
+	}
+
+	/**
+	 * poll() without recording a failure, the waiting loops record one per call
+	 */
+	@SuppressWarnings("unchecked")
+	private T tryPoll(){
+		final long tail = this.tail;
+		if(tail >= headCache) {
+			headCache = (long) HEAD.getAcquire(this);
+			if(tail >= headCache) return null;
+		}
 		int p = (int) (tail & this.m);
-		if((r=array[p]) == null)  return null;
+		Object r = array[p];
 		array[p] = null;
-		tail++;
+		TAIL.setRelease(this, tail + 1);
+		waitStrategy.signalNotFull();
 		return (T)r;
 	}
+
+	/**
+	 * Hand as many objects as available (at most max) to the consumer and free their slots with one release store of tail.
+	 * If the consumer throws, the object it was handed has been taken and the rest stay in the queue, then the exception is passed on.
+	 */
+	@SuppressWarnings("unchecked")
+	public int drain(Consumer<? super T> consumer, int max) {
+		final QueueMetrics metrics = this.metrics;
+		final long tail = this.tail;
+		if(tail + max > headCache) {
+			headCache = (long) HEAD.getAcquire(this);
+		}
+		int n = (int) Math.min(max, headCache - tail);
+		if(n <= 0) {
+			if(metrics != null && max > 0) metrics.recordFailedPoll();
+			return 0;
+		}
+		long t = tail;
+		try {
+			while(t < tail + n) {
+				int p = (int) (t & this.m);
+				Object r = array[p];
+				array[p] = null;
+				t ++;
+				consumer.accept((T) r);
+			}
+		} finally {
+			TAIL.setRelease(this, t);
+			waitStrategy.signalNotFull();
+		}
+		return n;
+	}
 	
 	/**
 	 * @return The size of objects in this queue
 	 */
 	public int size(){
+		long tail = (long) TAIL.getVolatile(this);
+		long head = (long) HEAD.getVolatile(this);
 		if (head > tail) {
 			return (int) (head - tail);
 		} else {
@@ -135,4 +241,27 @@ public class SimpleBlockingQueue<T> implements IBlockingQueue<T> {
 	public void setName(String name) {
 		this.name = name;
 	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Start to record into the QueueMetrics of the name of this queue.
+	 * @throws IllegalArgumentException if the queue has not been given a name
+	 */
+	public QueueMetrics enableMetrics() {
+		return metrics = QueueMetrics.of(name);
+	}
+
+	public void disableMetrics() {
+		metrics = null;
+	}
+
+	/**
+	 * @return null if metrics are disabled
+	 */
+	public QueueMetrics getMetrics() {
+		return metrics;
+	}
 }
@@ -0,0 +1,168 @@
+package org.theultra.tachyon.queue;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A single-producer/single-consumer queue of primitive ints backed by an int[], the same design as SimpleBlockingQueue.
+ * It is safe when there is only one sender thread and one receiver thread.
+ * @author lofint
+ */
+public class SimpleIntQueue extends SimpleQueueIndices implements IIntQueue {
+	private static final int MIN_CAPACITY = 1024 * 8;
+	private static final int DEFAULT_CAPACITY = 1024 * 128;
+	private static final int MAX_CAPACITY = 1024 * 1024 * 4;
+	private String name = "Unnamed Queue";
+	final int[] array;
+	final int capacity;
+	final int m;
+	final int nullValue;
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isEmpty = () -> size() == 0;
+	private final BooleanSupplier isFull = () -> size() >= capacity();
+
+	/**
+	 * Create a queue with default capacity 1024 * 128 and Integer.MIN_VALUE as nullValue
+	 */
+	public SimpleIntQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a queue with the capacity is a power of 2 and just greater than given prefer one and Integer.MIN_VALUE as nullValue
+	 */
+	public SimpleIntQueue(int preferCapacity) {
+		this(preferCapacity, Integer.MIN_VALUE, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param nullValue returned by pollInt() when the queue is empty, can't be put into the queue
+	 */
+	public SimpleIntQueue(int preferCapacity, int nullValue, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
+		this.array = new int[this.capacity];
+		this.m = this.capacity - 1;
+		this.nullValue = nullValue;
+		this.waitStrategy = waitStrategy;
+	}
+
+	public void put(int value) {
+		int idleCount = 0;
+		while(!offer(value)) {
+			idleCount = waitStrategy.idleFull(idleCount, isFull, 0);
+		}
+	}
+
+	public boolean offer(int value) {
+		if(value == nullValue) throw new IllegalArgumentException("Can't put the nullValue " + nullValue + " into this queue");
+		final long head = this.head;
+		if(head - tailCache >= this.capacity) {
+			tailCache = (long) TAIL.getAcquire(this);
+			if(head - tailCache >= this.capacity) return false;
+		}
+		array[(int) (head & this.m)] = value;
+		HEAD.setRelease(this, head + 1);
+		waitStrategy.signalNotEmpty();
+		return true;
+	}
+
+	public int offerBatch(int[] values, int from, int len) {
+		final long head = this.head;
+		if(head + len - tailCache > this.capacity) {
+			tailCache = (long) TAIL.getAcquire(this);
+		}
+		int n = (int) Math.min(len, this.capacity - (head - tailCache));
+		if(n <= 0) return 0;
+		for(int i = 0; i < n; i ++) {
+			int value = values[from + i];
+			if(value == nullValue) throw new IllegalArgumentException("Can't put the nullValue " + nullValue + " into this queue");
+			array[(int) ((head + i) & this.m)] = value;
+		}
+		HEAD.setRelease(this, head + n);
+		waitStrategy.signalNotEmpty();
+		return n;
+	}
+
+	public int takeInt() {
+		return pollInt(0);
+	}
+
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
+	public int pollInt(final long nanoTimeout) {
+		int r;
+		if((r=pollInt()) != nullValue) return r;
+		final long t0 = nanoTimeout > 0 ? System.nanoTime() : 0;
+		int idleCount = 0;
+		while((r=pollInt()) == nullValue) {
+			long remaining = 0;
+			if(nanoTimeout > 0 && (remaining = t0 + nanoTimeout - System.nanoTime()) <= 0) return nullValue;
+			idleCount = waitStrategy.idle(idleCount, isEmpty, remaining);
+		}
+		return r;
+	}
+
+	public int pollInt() {
+		final long tail = this.tail;
+		if(tail >= headCache) {
+			headCache = (long) HEAD.getAcquire(this);
+			if(tail >= headCache) return nullValue;
+		}
+		int r = array[(int) (tail & this.m)];
+		TAIL.setRelease(this, tail + 1);
+		waitStrategy.signalNotFull();
+		return r;
+	}
+
+	public int drain(IntConsumer consumer, int max) {
+		final long tail = this.tail;
+		if(tail + max > headCache) {
+			headCache = (long) HEAD.getAcquire(this);
+		}
+		int n = (int) Math.min(max, headCache - tail);
+		if(n <= 0) return 0;
+		long t = tail;
+		try {
+			while(t < tail + n) {
+				int r = array[(int) (t & this.m)];
+				t ++;
+				consumer.accept(r);
+			}
+		} finally {
+			TAIL.setRelease(this, t);
+			waitStrategy.signalNotFull();
+		}
+		return n;
+	}
+
+	public int getNullValue() {
+		return nullValue;
+	}
+
+	public int size() {
+		long tail = (long) TAIL.getVolatile(this);
+		long head = (long) HEAD.getVolatile(this);
+		if (head > tail) {
+			return (int) (head - tail);
+		} else {
+			return 0;
+		}
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+}
@@ -0,0 +1,168 @@
+package org.theultra.tachyon.queue;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A single-producer/single-consumer queue of primitive longs backed by a long[], the same design as SimpleBlockingQueue.
+ * It is safe when there is only one sender thread and one receiver thread.
+ * @author lofint
+ */
+public class SimpleLongQueue extends SimpleQueueIndices implements ILongQueue {
+	private static final int MIN_CAPACITY = 1024 * 8;
+	private static final int DEFAULT_CAPACITY = 1024 * 128;
+	private static final int MAX_CAPACITY = 1024 * 1024 * 4;
+	private String name = "Unnamed Queue";
+	final long[] array;
+	final int capacity;
+	final int m;
+	final long nullValue;
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isEmpty = () -> size() == 0;
+	private final BooleanSupplier isFull = () -> size() >= capacity();
+
+	/**
+	 * Create a queue with default capacity 1024 * 128 and Long.MIN_VALUE as nullValue
+	 */
+	public SimpleLongQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a queue with the capacity is a power of 2 and just greater than given prefer one and Long.MIN_VALUE as nullValue
+	 */
+	public SimpleLongQueue(int preferCapacity) {
+		this(preferCapacity, Long.MIN_VALUE, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param nullValue returned by pollLong() when the queue is empty, can't be put into the queue
+	 */
+	public SimpleLongQueue(int preferCapacity, long nullValue, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
+		this.array = new long[this.capacity];
+		this.m = this.capacity - 1;
+		this.nullValue = nullValue;
+		this.waitStrategy = waitStrategy;
+	}
+
+	public void put(long value) {
+		int idleCount = 0;
+		while(!offer(value)) {
+			idleCount = waitStrategy.idleFull(idleCount, isFull, 0);
+		}
+	}
+
+	public boolean offer(long value) {
+		if(value == nullValue) throw new IllegalArgumentException("Can't put the nullValue " + nullValue + " into this queue");
+		final long head = this.head;
+		if(head - tailCache >= this.capacity) {
+			tailCache = (long) TAIL.getAcquire(this);
+			if(head - tailCache >= this.capacity) return false;
+		}
+		array[(int) (head & this.m)] = value;
+		HEAD.setRelease(this, head + 1);
+		waitStrategy.signalNotEmpty();
+		return true;
+	}
+
+	public int offerBatch(long[] values, int from, int len) {
+		final long head = this.head;
+		if(head + len - tailCache > this.capacity) {
+			tailCache = (long) TAIL.getAcquire(this);
+		}
+		int n = (int) Math.min(len, this.capacity - (head - tailCache));
+		if(n <= 0) return 0;
+		for(int i = 0; i < n; i ++) {
+			long value = values[from + i];
+			if(value == nullValue) throw new IllegalArgumentException("Can't put the nullValue " + nullValue + " into this queue");
+			array[(int) ((head + i) & this.m)] = value;
+		}
+		HEAD.setRelease(this, head + n);
+		waitStrategy.signalNotEmpty();
+		return n;
+	}
+
+	public long takeLong() {
+		return pollLong(0);
+	}
+
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
+	public long pollLong(final long nanoTimeout) {
+		long r;
+		if((r=pollLong()) != nullValue) return r;
+		final long t0 = nanoTimeout > 0 ? System.nanoTime() : 0;
+		int idleCount = 0;
+		while((r=pollLong()) == nullValue) {
+			long remaining = 0;
+			if(nanoTimeout > 0 && (remaining = t0 + nanoTimeout - System.nanoTime()) <= 0) return nullValue;
+			idleCount = waitStrategy.idle(idleCount, isEmpty, remaining);
+		}
+		return r;
+	}
+
+	public long pollLong() {
+		final long tail = this.tail;
+		if(tail >= headCache) {
+			headCache = (long) HEAD.getAcquire(this);
+			if(tail >= headCache) return nullValue;
+		}
+		long r = array[(int) (tail & this.m)];
+		TAIL.setRelease(this, tail + 1);
+		waitStrategy.signalNotFull();
+		return r;
+	}
+
+	public int drain(LongConsumer consumer, int max) {
+		final long tail = this.tail;
+		if(tail + max > headCache) {
+			headCache = (long) HEAD.getAcquire(this);
+		}
+		int n = (int) Math.min(max, headCache - tail);
+		if(n <= 0) return 0;
+		long t = tail;
+		try {
+			while(t < tail + n) {
+				long r = array[(int) (t & this.m)];
+				t ++;
+				consumer.accept(r);
+			}
+		} finally {
+			TAIL.setRelease(this, t);
+			waitStrategy.signalNotFull();
+		}
+		return n;
+	}
+
+	public long getNullValue() {
+		return nullValue;
+	}
+
+	public int size() {
+		long tail = (long) TAIL.getVolatile(this);
+		long head = (long) HEAD.getVolatile(this);
+		if (head > tail) {
+			return (int) (head - tail);
+		} else {
+			return 0;
+		}
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+}
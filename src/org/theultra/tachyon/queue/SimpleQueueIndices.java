@@ -0,0 +1,45 @@
+package org.theultra.tachyon.queue;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * The head and tail of a single-producer/single-consumer queue, each with the sender's/receiver's cached copy of the opposite index.
+ * <br>
+ * Padding is done by class hierarchy, the JVM lays out the fields of a super class before the fields of its sub class,
+ * so the sender fields, the receiver fields and the fields of the queue itself sit on separate cache lines.
+ * @author lofint
+ */
+abstract class SimpleQueueIndices extends SimpleQueueConsumerFields {
+	static final VarHandle HEAD;
+	static final VarHandle TAIL;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			HEAD = lookup.findVarHandle(SimpleQueueProducerFields.class, "head", long.class);
+			TAIL = lookup.findVarHandle(SimpleQueueConsumerFields.class, "tail", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+abstract class SimpleQueuePad0 {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SimpleQueueProducerFields extends SimpleQueuePad0 {
+	long head = 0; //empty, written by the sender only
+	long tailCache = 0; //the last tail seen by the sender
+}
+
+abstract class SimpleQueuePad1 extends SimpleQueueProducerFields {
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class SimpleQueueConsumerFields extends SimpleQueuePad1 {
+	long tail = 0; //not fetch(empty), written by the receiver only
+	long headCache = 0; //the last head seen by the receiver
+}
@@ -0,0 +1,241 @@
+package org.theultra.tachyon.queue;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * An unbounded single-producer/single-consumer Queue. It is safe when there is only one sender thread and one receiver thread.
+ * <br>
+ * Objects are kept in fixed size array chunks linked one after another, the sender appends a chunk when the current one is full
+ * and the receiver hands a chunk it has emptied back to the sender for reuse, so the memory follows the real number of objects
+ * in the queue instead of a worst-case capacity, and the steady state allocates nothing.
+ * <br>
+ * A slot is published by the sender with a release store and the receiver takes an object as soon as it sees the slot not null,
+ * so the two sides never read each other's index. put() never waits, take() waits with the WaitStrategy given to the constructor.
+ * @author lofint
+ * @param <T>
+ */
+public class SimpleUnboundedQueue<T> extends SimpleQueueIndices implements IBlockingQueue<T> {
+	private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Object[].class);
+	private static final int MIN_CHUNK_SIZE = 16;
+	private static final int DEFAULT_CHUNK_SIZE = 1024;
+	private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+	private String name = "Unnamed Queue";
+	final int chunkSize;
+	final int m;
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isEmpty = () -> size() == 0;
+	private final AtomicReference<Chunk> spare = new AtomicReference<Chunk>(); //an emptied chunk handed back by the receiver
+	private Chunk producerChunk; //only used by the sender, changes once per chunk
+	private Chunk consumerChunk; //only used by the receiver, changes once per chunk
+
+	/**
+	 * Create a queue with chunks of 1024 slots
+	 */
+	public SimpleUnboundedQueue() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Create a queue with the chunk size is a power of 2 and just greater than given prefer one, MIN_CHUNK_SIZE = 16, MAX_CHUNK_SIZE = 1024 * 1024
+	 */
+	public SimpleUnboundedQueue(int preferChunkSize) {
+		this(preferChunkSize, new BackoffParkWaitStrategy());
+	}
+
+	public SimpleUnboundedQueue(int preferChunkSize, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.waitStrategy = waitStrategy;
+		this.chunkSize = IBlockingQueue.getPow2Value(preferChunkSize, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+		this.m = this.chunkSize - 1;
+		this.producerChunk = this.consumerChunk = new Chunk(this.chunkSize);
+	}
+
+	/**
+	 * Put the object into the queue, never wait.
+	 */
+	public void put(T obj) {
+		offer(obj);
+	}
+
+	/**
+	 * @return always true
+	 */
+	public boolean offer(T obj) {
+		if(obj == null) throw new NullPointerException("Queue object can't be null");
+		final long head = this.head;
+		SLOT.setRelease(chunkFor(head).slots, (int) (head & this.m), obj);
+		HEAD.setRelease(this, head + 1);
+		waitStrategy.signalNotEmpty();
+		return true;
+	}
+
+	/**
+	 * @return always len, 0 if len is not greater than 0
+	 */
+	public int offerBatch(T[] items, int from, int len) {
+		if(len <= 0) return 0;
+		long head = this.head;
+		for(int i = from; i < from + len; i ++) {
+			if(items[i] == null) throw new NullPointerException("Queue object can't be null");
+		}
+		for(int i = from; i < from + len; i ++) {
+			SLOT.setRelease(chunkFor(head).slots, (int) (head & this.m), items[i]);
+			head ++;
+		}
+		HEAD.setRelease(this, head);
+		waitStrategy.signalNotEmpty();
+		return len;
+	}
+
+	/**
+	 * @return the chunk of the given head, appends a chunk when the current one is full
+	 */
+	private Chunk chunkFor(long head) {
+		Chunk c = producerChunk;
+		if(head != 0 && (head & this.m) == 0) {
+			Chunk n = spare.getAndSet(null);
+			if(n == null) n = new Chunk(this.chunkSize);
+			c.setNext(n);
+			producerChunk = c = n;
+		}
+		return c;
+	}
+
+	public T take(){
+		T r;
+		int idleCount = 0;
+		while((r=poll()) == null) {
+			idleCount = waitStrategy.idle(idleCount, isEmpty, 0);
+		}
+		return r;
+	}
+
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
+	public T poll(final long nanoTimeout){
+		if(nanoTimeout <= 0) return take();
+		T r;
+		final long deadline = System.nanoTime() + nanoTimeout;
+		int idleCount = 0;
+		while((r=poll()) == null) {
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0) return null; //0 would be no limit for the WaitStrategy
+			idleCount = waitStrategy.idle(idleCount, isEmpty, remaining);
+		}
+		return r;
+	}
+
+	public T poll(){
+		final long tail = this.tail;
+		T r = takeSlot(tail);
+		if(r == null) return null;
+		TAIL.setRelease(this, tail + 1);
+		waitStrategy.signalNotFull();
+		return r;
+	}
+
+	public int drain(Consumer<? super T> consumer, int max) {
+		final long tail = this.tail;
+		long t = tail;
+		try {
+			T r;
+			while(t < tail + max && (r = takeSlot(t)) != null) {
+				t ++;
+				consumer.accept(r);
+			}
+		} finally {
+			if(t != tail) {
+				TAIL.setRelease(this, t);
+				waitStrategy.signalNotFull();
+			}
+		}
+		return (int) (t - tail);
+	}
+
+	/**
+	 * Take the object of the given tail out of its slot, moves to the next chunk when the current one is used up.
+	 * @return null if the slot has not been published yet
+	 */
+	@SuppressWarnings("unchecked")
+	private T takeSlot(long tail) {
+		Chunk c = consumerChunk;
+		if(tail - c.index == this.chunkSize) {
+			Chunk n = c.getNext();
+			if(n == null) return null;
+			n.index = tail;
+			consumerChunk = n;
+			c.setNext(null);
+			spare.lazySet(c); //the sender has left c for good once it linked n
+			c = n;
+		}
+		int p = (int) (tail & this.m);
+		Object r = SLOT.getAcquire(c.slots, p);
+		if(r == null) return null;
+		c.slots[p] = null;
+		return (T) r;
+	}
+
+	/**
+	 * @return The size of objects in this queue
+	 */
+	public int size(){
+		long tail = (long) TAIL.getVolatile(this);
+		long head = (long) HEAD.getVolatile(this);
+		if (head > tail) {
+			return (int) Math.min(Integer.MAX_VALUE, head - tail);
+		} else {
+			return 0;
+		}
+	}
+
+	public int chunkSize() {
+		return this.chunkSize;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	static final class Chunk {
+		private static final VarHandle NEXT;
+		static {
+			try {
+				NEXT = MethodHandles.lookup().findVarHandle(Chunk.class, "next", Chunk.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		final Object[] slots;
+		Chunk next;
+		long index; //the tail of slots[0], only used by the receiver
+
+		Chunk(int size) {
+			this.slots = new Object[size];
+		}
+
+		Chunk getNext() {
+			return (Chunk) NEXT.getAcquire(this);
+		}
+
+		void setNext(Chunk next) {
+			NEXT.setRelease(this, next);
+		}
+	}
+}
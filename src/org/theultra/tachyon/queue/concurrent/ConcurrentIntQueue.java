@@ -0,0 +1,266 @@
+package org.theultra.tachyon.queue.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.IIntQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A thread-safe, lock-free, bounded queue of primitive ints for multiple sender threads and multiple receiver threads.
+ * The values are kept in an int[], the slots are handed over by per-slot sequence numbers the same way as ConcurrentQueue.
+ * @author lofint
+ */
+public class ConcurrentIntQueue extends ConcurrentQueueIndices implements IIntQueue {
+	private static final int MIN_CAPACITY = 1024 * 8;
+	private static final int DEFAULT_CAPACITY = 1024 * 128;
+	private static final int MAX_CAPACITY = 1024 * 1024 * 4;
+	private String name = "Unnamed Queue";
+	private final int[] array;
+	private final AtomicLongArray sequences;
+	private final ConcurrentLinkedQueue<Integer> returned = new ConcurrentLinkedQueue<Integer>(); //put back by a drain whose consumer has thrown
+	private final AtomicInteger returnedCount = new AtomicInteger();
+	private final int nullValue;
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isEmpty = () -> size() == 0;
+	private final BooleanSupplier isFull = () -> head() - tail() >= capacity(); //the values put back by a drain hold no slot
+	final int capacity;
+	final int m;
+
+	/**
+	 * Create a queue with default capacity 1024 * 128 and Integer.MIN_VALUE as nullValue
+	 */
+	public ConcurrentIntQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a queue with the capacity is a power of 2 and just greater than given prefer one and Integer.MIN_VALUE as nullValue
+	 */
+	public ConcurrentIntQueue(int preferCapacity) {
+		this(preferCapacity, Integer.MIN_VALUE, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param nullValue returned by pollInt() when the queue is empty, can't be put into the queue
+	 */
+	public ConcurrentIntQueue(int preferCapacity, int nullValue, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.waitStrategy = waitStrategy;
+		this.nullValue = nullValue;
+		this.capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
+		array = new int[this.capacity];
+		sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.lazySet(i, i);
+		}
+		this.m = this.capacity - 1;
+	}
+
+	public boolean offer(int value) {
+		if(value == nullValue) throw new IllegalArgumentException("Can't put the nullValue " + nullValue + " into this queue");
+		long head = head();
+		while(true) {
+			int p = (int) (head & this.m);
+			long seq = sequences.get(p);
+			if(seq == head) {
+				if(casHead(head, head + 1)) {
+					array[p] = value;
+					sequences.lazySet(p, head + 1);
+					waitStrategy.signalNotEmpty();
+					return true;
+				}
+				head = head();
+			} else if(seq < head) {
+				return false;
+			} else {
+				head = head();
+			}
+		}
+	}
+
+	public int offerBatch(int[] values, int from, int len) {
+		if(len <= 0) return 0;
+		long head = head();
+		while(true) {
+			int n = 0;
+			long seq = head;
+			while(n < len) {
+				seq = sequences.get((int) ((head + n) & this.m));
+				if(seq != head + n) break;
+				n ++;
+			}
+			if(n == 0) {
+				if(seq < head) return 0;
+				head = head();
+				continue;
+			}
+			for(int i = from; i < from + n; i ++) {
+				if(values[i] == nullValue) throw new IllegalArgumentException("Can't put the nullValue " + nullValue + " into this queue");
+			}
+			if(casHead(head, head + n)) {
+				for(int i = 0; i < n; i ++) {
+					int p = (int) ((head + i) & this.m);
+					array[p] = values[from + i];
+					sequences.lazySet(p, head + i + 1);
+				}
+				waitStrategy.signalNotEmpty();
+				return n;
+			}
+			head = head();
+		}
+	}
+
+	public void put(int value) {
+		int idleCount = 0;
+		while(!offer(value)) {
+			idleCount = waitStrategy.idleFull(idleCount, isFull, 0);
+		}
+	}
+
+	public int pollInt() {
+		if(returnedCount.get() != 0) {
+			Integer r = pollReturned();
+			if(r != null) return r;
+		}
+		long tail = tail();
+		while(true) {
+			int p = (int) (tail & this.m);
+			long seq = sequences.get(p);
+			if(seq == tail + 1) {
+				if(casTail(tail, tail + 1)) {
+					int r = release(tail);
+					waitStrategy.signalNotFull();
+					return r;
+				}
+				tail = tail();
+			} else if(seq < tail + 1) {
+				return nullValue;
+			} else {
+				tail = tail();
+			}
+		}
+	}
+
+	/**
+	 * Claim a whole range of filled slots with one CAS on tail and hand them to the consumer.
+	 * If the consumer throws, the value it was handed has been taken, the rest of the claimed values are put back
+	 * to be handed out by the next pollInt() or drain() before the values in the ring, and the exception is passed on.
+	 */
+	public int drain(IntConsumer consumer, int max) {
+		if(max <= 0) return 0;
+		int d = 0;
+		if(returnedCount.get() != 0) {
+			Integer r;
+			while(d < max && (r = pollReturned()) != null) {
+				d ++;
+				consumer.accept(r);
+			}
+		}
+		if(d == max) return d;
+		return d + drainRing(consumer, max - d);
+	}
+
+	private Integer pollReturned() {
+		Integer r = returned.poll();
+		if(r != null) returnedCount.decrementAndGet();
+		return r;
+	}
+
+	private int drainRing(IntConsumer consumer, int max) {
+		long tail = tail();
+		while(true) {
+			int n = 0;
+			long seq = tail + 1;
+			while(n < max) {
+				seq = sequences.get((int) ((tail + n) & this.m));
+				if(seq != tail + n + 1) break;
+				n ++;
+			}
+			if(n == 0) {
+				if(seq < tail + 1) return 0;
+				tail = tail();
+				continue;
+			}
+			if(casTail(tail, tail + n)) {
+				try {
+					for(int i = 0; i < n; i ++) {
+						int r = release(tail + i);
+						try {
+							consumer.accept(r);
+						} catch (RuntimeException | Error e) {
+							for(int j = i + 1; j < n; j ++) {
+								returned.add(release(tail + j));
+								returnedCount.incrementAndGet();
+							}
+							throw e;
+						}
+					}
+				} finally {
+					waitStrategy.signalNotFull();
+				}
+				return n;
+			}
+			tail = tail();
+		}
+	}
+
+	private int release(long tail) {
+		int p = (int) (tail & this.m);
+		int r = array[p];
+		sequences.lazySet(p, tail + this.capacity);
+		return r;
+	}
+
+	public int takeInt() {
+		return pollInt(0);
+	}
+
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
+	public int pollInt(final long nanoTimeout) {
+		int r;
+		if((r=pollInt()) != nullValue) return r;
+		final long t0 = nanoTimeout > 0 ? System.nanoTime() : 0;
+		int idleCount = 0;
+		while((r=pollInt()) == nullValue) {
+			long remaining = 0;
+			if(nanoTimeout > 0 && (remaining = t0 + nanoTimeout - System.nanoTime()) <= 0) return nullValue;
+			idleCount = waitStrategy.idle(idleCount, isEmpty, remaining);
+		}
+		return r;
+	}
+
+	public int getNullValue() {
+		return nullValue;
+	}
+
+	public int size() {
+		long tail = tail();
+		long head = head();
+		int returned = returnedCount.get();
+		if (head > tail) {
+			return (int) (head - tail) + returned;
+		} else {
+			return returned;
+		}
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+}
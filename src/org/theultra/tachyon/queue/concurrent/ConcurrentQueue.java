@@ -1,185 +1,340 @@
 package org.theultra.tachyon.queue.concurrent;
 
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReferenceArray;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.QueueMetrics;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
 
 /**
- * It is NOT a thread-safe None Block Queue. It is safe when there is only one sender thread and one receiver thread.
- * When the queue is full the put() method will return false instantly, and when it is empty, the get() method will return null instantly.
+ * A thread-safe, lock-free, bounded Queue for multiple sender threads and multiple receiver threads.
+ * <br>
+ * Every slot carries a sequence number. A sender may only fill the slot when its sequence equals the claimed head,
+ * and a receiver may only empty it when its sequence equals the claimed tail + 1, so a slot is never written twice
+ * or read twice and the order of the objects is the order in which head was claimed.
+ * <br>
+ * When the queue is full the offer() method will return false instantly, and when it is empty, the poll() method will return null instantly.
+ * put() and take() wait with the WaitStrategy given to the constructor, a BlockingWaitStrategy parks them until the queue is signalled
+ * as not full / not empty by the opposite side.
+ * <br>
+ * The objects put back by a drain whose consumer has thrown hold no slot of the ring but count against the capacity,
+ * the offers are refused while they and the ring together hold capacity objects.
  * @author lofint
  * @param <T> 
  */
-public class ConcurrentQueue<T> implements IBlockingQueue<T>{
-	private static final int MIN_WAITTIME_NS = 16384; 
-	private static final int MAX_WAITTIME_NS = MIN_WAITTIME_NS << 4;
-	
-	private static final int INTERNAL_SPIN_COUNT = 1; //must greater than 0;
+public class ConcurrentQueue<T> extends ConcurrentQueueIndices implements IBlockingQueue<T>{
 	private static final int MIN_CAPACITY = 1024 * 8;
 	private static final int DEFAULT_CAPACITY = 1024 * 128;
 	private static final int MAX_CAPACITY = 1024 * 1024 * 4;
-	private String name = "Unnamed Queue";
-	private final byte[] falseOffer;
-	private final byte[] falsePoll;
-	private final AtomicReferenceArray<T> array;
+	private String name = QueueMetrics.UNNAMED;
+	private final Object[] array;
+	private final AtomicLongArray sequences;
+	private final ConcurrentLinkedQueue<Object> returned = new ConcurrentLinkedQueue<Object>(); //put back by a drain whose consumer has thrown
+	private final AtomicInteger returnedCount = new AtomicInteger();
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isEmpty = () -> size() == 0;
+	private final BooleanSupplier isFull = () -> size() >= capacity(); //the objects put back by a drain count against the capacity
+	private volatile QueueMetrics metrics; //null when disabled
 	final int capacity;
 	final int m;
-	final AtomicLong tail;  
-	final AtomicLong head;  
-	
-	final AtomicLong[] als = new AtomicLong[11];
 	
 	/**
 	 * Create a NoneBlockArrayQueue with default capacity 1024 * 128
 	 */
 	public ConcurrentQueue() {
-		this.capacity = DEFAULT_CAPACITY;
-		array = new AtomicReferenceArray<T>(this.capacity);
-		falseOffer = new byte[this.capacity];
-		falsePoll = new byte[this.capacity];
-		this.m = this.capacity - 1;
-		
-		for (int i = 0; i < als.length; i++) {
-			als[i] = new AtomicLong(0);
-		}
-		head = als[3];
-		tail = als[7];
+		this(DEFAULT_CAPACITY);
 	}
 	
 	/**
 	 * Create a NoneBlockArrayQueue with the capacity is a power and just greater than given prefer one, MIN_CAPACITY = 1024 * 8, MAX_CAPACITY = 1024 * 1024 * 4 
 	 */	
 	public ConcurrentQueue(int preferCapacity) {
+		this(preferCapacity, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * Create a NoneBlockArrayQueue with the capacity is a power and just greater than given prefer one, put() and take() wait with the given strategy
+	 */
+	public ConcurrentQueue(int preferCapacity, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.waitStrategy = waitStrategy;
 		this.capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
-		array = new AtomicReferenceArray<T>(this.capacity);
-		falseOffer = new byte[this.capacity];
-		falsePoll = new byte[this.capacity];
-		this.m = this.capacity - 1;	
-		
-		for (int i = 0; i < als.length; i++) {
-			als[i] = new AtomicLong(0);
+		array = new Object[this.capacity];
+		sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.lazySet(i, i);
 		}
-		head = als[3];
-		tail = als[7];
+		this.m = this.capacity - 1;	
 	}
 	
 	public boolean offer(T obj) {
+		if(tryOffer(obj)) return true;
+		QueueMetrics metrics = this.metrics;
+		if(metrics != null) metrics.recordFailedOffer();
+		return false;
+	}
+
+	/**
+	 * offer() without recording a failure, the waiting loops record one per call
+	 */
+	private boolean tryOffer(T obj) {
+		final QueueMetrics metrics = this.metrics;
 		if(obj == null) throw new NullPointerException("Can't put null object into this queue");
+		if(returnedCount.get() != 0 && size() >= this.capacity) return false;
+		long head = head();
 		while(true) {
-			long head = this.head.get();
-			int p =(int) (head & this.m);
-			if(falsePoll[p] > 0) {
-				synchronized(falsePoll) {
-					if(falsePoll[p] > 0) {
-						if(this.head.compareAndSet(head, head + 1)){
-							falsePoll[p] --;
-						}
-					}
+			int p = (int) (head & this.m);
+			long seq = sequences.get(p);
+			if(seq == head) {
+				if(casHead(head, head + 1)) {
+					array[p] = obj;
+					sequences.lazySet(p, head + 1);
+					waitStrategy.signalNotEmpty();
+					if(metrics != null && (head & QueueMetrics.OCCUPANCY_SAMPLE_MASK) == 0) metrics.recordOccupancy(size());
+					return true;
 				}
-				break;
+				if(metrics != null) metrics.recordCasRetry();
+				head = head();
+			} else if(seq < head) {
+				return false; //the slot has not been consumed for a whole lap, full
+			} else {
+				if(metrics != null) metrics.recordCasRetry();
+				head = head(); //another sender has claimed this slot
+			}
+		}
+	}
+
+	/**
+	 * Claim a whole range of free slots with one CAS on head and fill them with items[from, from + len).
+	 */
+	public int offerBatch(T[] items, int from, int len) {
+		final QueueMetrics metrics = this.metrics;
+		if(len <= 0) return 0;
+		if(returnedCount.get() != 0 && (len = Math.min(len, this.capacity - size())) <= 0) {
+			if(metrics != null) metrics.recordFailedOffer();
+			return 0;
+		}
+		long head = head();
+		while(true) {
+			int n = 0;
+			long seq = head;
+			while(n < len) {
+				seq = sequences.get((int) ((head + n) & this.m));
+				if(seq != head + n) break;
+				n ++;
 			}
-			if(array.get(p) != null) return false;
-			if(this.head.compareAndSet(head, head + 1)) {
-				for(int i = 0; i < INTERNAL_SPIN_COUNT; i ++) {
-					if(!array.compareAndSet(p, null, obj)) {
-						wait(2 << i);
-					} else return true; 
+			if(n == 0) {
+				if(seq < head) {
+					if(metrics != null) metrics.recordFailedOffer();
+					return 0;
 				}
-				synchronized(falseOffer) {
-					falseOffer[p] ++;
-					if(falseOffer[p] > 1) System.out.println("add failed " + "P " + p + " c " + falseOffer[p]);
+				if(metrics != null) metrics.recordCasRetry();
+				head = head();
+				continue;
+			}
+			for(int i = from; i < from + n; i ++) {
+				if(items[i] == null) throw new NullPointerException("Can't put null object into this queue");
+			}
+			if(casHead(head, head + n)) {
+				for(int i = 0; i < n; i ++) {
+					int p = (int) ((head + i) & this.m);
+					array[p] = items[from + i];
+					sequences.lazySet(p, head + i + 1);
 				}
+				waitStrategy.signalNotEmpty();
+				if(metrics != null) metrics.recordOccupancy(size());
+				return n;
 			}
-			return false;
+			if(metrics != null) metrics.recordCasRetry();
+			head = head();
 		}
-		return false;
 	}
 	
 	
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
 	public boolean offer(T obj, long nanoTimeout){
-		long w = 0;
-		int waitTime = MIN_WAITTIME_NS;
-		while(!offer(obj)) {
-			w += waitTime;
-			if(nanoTimeout > 0 && w > nanoTimeout) return false;
-			wait(waitTime);
-			if(waitTime < MAX_WAITTIME_NS) waitTime <<= 1;
+		if(offer(obj)) return true; //records the one failed offer of this call
+		final QueueMetrics metrics = this.metrics;
+		final long t0 = metrics != null || nanoTimeout > 0 ? System.nanoTime() : 0;
+		int idleCount = 0, parks = 0;
+		try {
+			while(!tryOffer(obj)) {
+				long remaining = 0;
+				if(nanoTimeout > 0 && (remaining = t0 + nanoTimeout - System.nanoTime()) <= 0) return false;
+				idleCount = waitStrategy.idleFull(idleCount, isFull, remaining);
+				parks ++;
+			}
+			return true;
+		} finally {
+			if(metrics != null) metrics.recordWait(parks, System.nanoTime() - t0);
 		}
-		return true;
 	}
 	
 	public void put(T obj){
-		int waitTime = MIN_WAITTIME_NS;
-		while(!offer(obj)) {
-			wait(waitTime);
-			if(waitTime < MAX_WAITTIME_NS) waitTime <<= 1;
+		offer(obj, 0);
+	}
+
+	public T poll(){
+		T r = tryPoll();
+		if(r == null) {
+			QueueMetrics metrics = this.metrics;
+			if(metrics != null) metrics.recordFailedPoll();
+		}
+		return r;
+	}
+
+	/**
+	 * poll() without recording a failure, the waiting loops record one per call
+	 */
+	@SuppressWarnings("unchecked")
+	private T tryPoll(){
+		final QueueMetrics metrics = this.metrics;
+		if(returnedCount.get() != 0) {
+			Object r = pollReturned();
+			if(r != null) return (T) r;
+		}
+		long tail = tail();
+		while(true) {
+			int p = (int) (tail & this.m);
+			long seq = sequences.get(p);
+			if(seq == tail + 1) {
+				if(casTail(tail, tail + 1)) {
+					Object r = release(tail);
+					waitStrategy.signalNotFull();
+					return (T) r;
+				}
+				if(metrics != null) metrics.recordCasRetry();
+				tail = tail();
+			} else if(seq < tail + 1) {
+				return null; //the slot has not been filled yet, empty
+			} else {
+				if(metrics != null) metrics.recordCasRetry();
+				tail = tail(); //another receiver has claimed this slot
+			}
 		}
 	} 
 	
-	public T poll(){
+	/**
+	 * Claim a whole range of filled slots with one CAS on tail and hand them to the consumer.
+	 * If the consumer throws, the object it was handed has been taken and the rest of the claimed objects are put back,
+	 * the next poll() or drain() hands them out before the objects in the ring, then the exception is passed on.
+	 */
+	@SuppressWarnings("unchecked")
+	public int drain(Consumer<? super T> consumer, int max) {
+		final QueueMetrics metrics = this.metrics;
+		if(max <= 0) return 0;
+		int d = 0;
+		if(returnedCount.get() != 0) {
+			Object r;
+			while(d < max && (r = pollReturned()) != null) {
+				d ++;
+				consumer.accept((T) r);
+			}
+		}
+		if(d == max) return d;
+		int n = drainRing(consumer, max - d);
+		if(n + d == 0 && metrics != null) metrics.recordFailedPoll();
+		return n + d;
+	}
+
+	private Object pollReturned() {
+		Object r = returned.poll();
+		if(r != null) returnedCount.decrementAndGet();
+		return r;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int drainRing(Consumer<? super T> consumer, int max) {
+		final QueueMetrics metrics = this.metrics;
+		long tail = tail();
 		while(true) {
-			T r;
-			long tail = this.tail.get();
-			int p = (int) (tail & this.m);
-			if(falseOffer[p] > 0) {
-				synchronized(falseOffer) {
-					if(this.tail.compareAndSet(tail, tail + 1)) {
-						falseOffer[p]--;
+			int n = 0;
+			long seq = tail + 1;
+			while(n < max) {
+				seq = sequences.get((int) ((tail + n) & this.m));
+				if(seq != tail + n + 1) break;
+				n ++;
+			}
+			if(n == 0) {
+				if(seq < tail + 1) return 0;
+				if(metrics != null) metrics.recordCasRetry();
+				tail = tail();
+				continue;
+			}
+			if(casTail(tail, tail + n)) {
+				try {
+					for(int i = 0; i < n; i ++) {
+						Object r = release(tail + i);
+						try {
+							consumer.accept((T) r);
+						} catch (RuntimeException | Error e) {
+							for(int j = i + 1; j < n; j ++) {
+								returned.add(release(tail + j));
+								returnedCount.incrementAndGet();
+							}
+							throw e;
+						}
 					} 
-					break;
+				} finally {
+					waitStrategy.signalNotFull();
 				}
+				return n;
 			}
-			r = array.get(p);
-			if(r == null) return null;
-			if(this.tail.compareAndSet(tail, tail + 1)) {
-				for(int i = 0; i < INTERNAL_SPIN_COUNT; i ++) {
-					if((r = array.getAndSet(p, null)) == null){
-						wait(2 << i);
-					} else return r;
-				}
-				synchronized(falsePoll) {
-					falsePoll[p] ++;
-					if(falsePoll[p] > 1) System.out.println("poll failed " + "P " + p + " c " + falsePoll[p]);
-				}
-			} 
-			return null;
+			if(metrics != null) metrics.recordCasRetry();
+			tail = tail();
 		}
-		return null;
 	}
 	
+	private Object release(long tail) {
+		int p = (int) (tail & this.m);
+		Object r = array[p];
+		array[p] = null;
+		sequences.lazySet(p, tail + this.capacity);
+		return r;
+	}
+
+	/**
+	 * @param nanoTimeout wait forever if it is not greater than 0
+	 */
 	public T poll(long nanoTimeout){
 		T r;
-		long w = 0;
-		int waitTime = MIN_WAITTIME_NS;
-		while((r=poll()) == null) {
-			w += waitTime;
-			if(nanoTimeout > 0 && w > nanoTimeout) return null;
-			wait(waitTime);
-			if(waitTime < MAX_WAITTIME_NS) waitTime <<= 1;
+		if((r=poll()) != null) return r; //records the one failed poll of this call
+		final QueueMetrics metrics = this.metrics;
+		final long t0 = metrics != null || nanoTimeout > 0 ? System.nanoTime() : 0;
+		int idleCount = 0, parks = 0;
+		try {
+			while((r=tryPoll()) == null) {
+				long remaining = 0;
+				if(nanoTimeout > 0 && (remaining = t0 + nanoTimeout - System.nanoTime()) <= 0) return null;
+				idleCount = waitStrategy.idle(idleCount, isEmpty, remaining);
+				parks ++;
+			}
+			return r;
+		} finally {
+			if(metrics != null) metrics.recordWait(parks, System.nanoTime() - t0);
 		}
-		return r;
 	}
 	
 	
 	public T take(){
-		T r;
-		int waitTime = MIN_WAITTIME_NS;
-		while((r=poll()) == null) {
-			wait(waitTime);
-			if(waitTime < MAX_WAITTIME_NS) waitTime <<= 1;
-		}
-		return r;
+		return poll(0);
 	}
 	
 	public int size(){
-		long tail = this.tail.get();
-		long head = this.head.get();
+		long tail = tail();
+		long head = head();
+		int returned = returnedCount.get();
 		if (head > tail) {
-			return (int) (head - tail);
+			return (int) (head - tail) + returned;
 		} else {
-			return 0;
+			return returned;
 		}
 	}
 	
@@ -195,13 +350,26 @@ public class ConcurrentQueue<T> implements IBlockingQueue<T>{
 		this.name = name;
 	}
 	
-	private Object locker = new Object();
-	private void wait(int nanos) {
-		if(nanos > (MIN_WAITTIME_NS << 2)) {
-			LockSupport.parkNanos(locker, nanos);
-		} else {
-			long t0 = System.nanoTime();
-			while(System.nanoTime() - t0 < nanos);
-		}
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Start to record into the QueueMetrics of the name of this queue.
+	 * @throws IllegalArgumentException if the queue has not been given a name
+	 */
+	public QueueMetrics enableMetrics() {
+		return metrics = QueueMetrics.of(name);
+	}
+
+	public void disableMetrics() {
+		metrics = null;
+	}
+
+	/**
+	 * @return null if metrics are disabled
+	 */
+	public QueueMetrics getMetrics() {
+		return metrics;
 	}
 }
@@ -0,0 +1,59 @@
+package org.theultra.tachyon.queue.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * The head claimed by the senders and the tail claimed by the receivers of a multi-producer/multi-consumer queue.
+ * <br>
+ * Padding is done by class hierarchy, the JVM lays out the fields of a super class before the fields of its sub class,
+ * so head, tail and the fields of the queue itself sit on separate cache lines.
+ * @author lofint
+ */
+abstract class ConcurrentQueueIndices extends ConcurrentQueueTail {
+	static final VarHandle HEAD;
+	static final VarHandle TAIL;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			HEAD = lookup.findVarHandle(ConcurrentQueueHead.class, "head", long.class);
+			TAIL = lookup.findVarHandle(ConcurrentQueueTail.class, "tail", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	long p20, p21, p22, p23, p24, p25, p26, p27;
+
+	final long head() {
+		return (long) HEAD.getVolatile(this);
+	}
+
+	final boolean casHead(long expect, long update) {
+		return HEAD.compareAndSet(this, expect, update);
+	}
+
+	final long tail() {
+		return (long) TAIL.getVolatile(this);
+	}
+
+	final boolean casTail(long expect, long update) {
+		return TAIL.compareAndSet(this, expect, update);
+	}
+}
+
+abstract class ConcurrentQueuePad0 {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class ConcurrentQueueHead extends ConcurrentQueuePad0 {
+	long head = 0; //the next slot to fill, claimed by the senders
+}
+
+abstract class ConcurrentQueuePad1 extends ConcurrentQueueHead {
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class ConcurrentQueueTail extends ConcurrentQueuePad1 {
+	long tail = 0; //the next slot to empty, claimed by the receivers
+}
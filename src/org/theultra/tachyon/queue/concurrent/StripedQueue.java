@@ -0,0 +1,239 @@
+package org.theultra.tachyon.queue.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.SimpleBlockingQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A thread-safe Queue for many sender threads, each sender thread puts into its own single-producer/single-consumer lane.
+ * <br>
+ * A lane is created the first time a thread puts into the queue, or explicitly by register(). The senders never touch
+ * a shared index, so there is no contention between them at all. The receivers visit the lanes round-robin,
+ * one receiver drains a lane at a time and the others skip it.
+ * <br>
+ * Objects of one sender are taken in the order they were put, there is no order between objects of different senders.
+ * The lane of a thread which has died is dropped as soon as it is empty.
+ * <br>
+ * The capacity given to the constructor is shared out among the expected number of lanes, every lane is a SimpleBlockingQueue
+ * of capacity / lanes rounded up to a power of 2, and no less than its minimum of 1024 * 8, so a queue with more senders
+ * than expected holds more than the given capacity.
+ * @author lofint
+ * @param <T>
+ */
+public class StripedQueue<T> implements IBlockingQueue<T> {
+	private static final int DEFAULT_CAPACITY = 1024 * 128;
+	private static final int DEFAULT_LANES = 16;
+	private static final int MIN_LANE_CAPACITY = 1024 * 8; //the capacity limits of SimpleBlockingQueue
+	private static final int MAX_LANE_CAPACITY = 1024 * 1024 * 4;
+	private String name = "Unnamed Queue";
+	private final int laneCapacity;
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isEmpty = () -> size() == 0;
+	private final ThreadLocal<Lane<T>> threadLane = new ThreadLocal<Lane<T>>();
+	@SuppressWarnings("unchecked")
+	private volatile Lane<T>[] lanes = (Lane<T>[]) new Lane<?>[0];
+	private int cursor; //racy round-robin start of the receivers
+
+	/**
+	 * Create a queue of capacity 1024 * 128 for 16 senders, lanes of capacity 1024 * 8
+	 */
+	public StripedQueue() {
+		this(DEFAULT_CAPACITY, DEFAULT_LANES);
+	}
+
+	/**
+	 * @param preferCapacity the capacity of the whole queue when there are expectedLanes senders
+	 */
+	public StripedQueue(int preferCapacity, int expectedLanes) {
+		this(preferCapacity, expectedLanes, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param preferCapacity the capacity of the whole queue when there are expectedLanes senders
+	 * @param waitStrategy shared by all lanes, used by put() when the lane of the sender is full and by take() when all lanes are empty
+	 */
+	public StripedQueue(int preferCapacity, int expectedLanes, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		if(expectedLanes <= 0) throw new IllegalArgumentException("expectedLanes must be greater than 0");
+		this.waitStrategy = waitStrategy;
+		this.laneCapacity = IBlockingQueue.getPow2Value(preferCapacity / expectedLanes, MIN_LANE_CAPACITY, MAX_LANE_CAPACITY);
+	}
+
+	/**
+	 * Create a lane for a sender which is not bound to one thread. The lane must be used by one thread at a time
+	 * and should be closed when the sender is done with it.
+	 */
+	public Lane<T> register() {
+		return addLane(null);
+	}
+
+	private Lane<T> lane() {
+		Lane<T> l = threadLane.get();
+		if(l == null) {
+			l = addLane(Thread.currentThread());
+			threadLane.set(l);
+		}
+		return l;
+	}
+
+	private synchronized Lane<T> addLane(Thread owner) {
+		Lane<T> l = new Lane<T>(new SimpleBlockingQueue<T>(laneCapacity, waitStrategy), owner);
+		Lane<T>[] ls = Arrays.copyOf(lanes, lanes.length + 1);
+		ls[ls.length - 1] = l;
+		lanes = ls;
+		return l;
+	}
+
+	private synchronized void removeLane(Lane<T> l) {
+		Lane<T>[] ls = lanes;
+		for(int i = 0; i < ls.length; i ++) {
+			if(ls[i] == l) {
+				Lane<T>[] n = Arrays.copyOf(ls, ls.length - 1);
+				System.arraycopy(ls, i + 1, n, i, ls.length - i - 1);
+				lanes = n;
+				return;
+			}
+		}
+	}
+
+	public void put(T obj) {
+		lane().queue.put(obj);
+	}
+
+	public boolean offer(T obj) {
+		return lane().queue.offer(obj);
+	}
+
+	public int offerBatch(T[] items, int from, int len) {
+		return lane().queue.offerBatch(items, from, len);
+	}
+
+	public T take() {
+		T r;
+		int idleCount = 0;
+		while((r=poll()) == null) {
+			idleCount = waitStrategy.idle(idleCount, isEmpty, 0);
+		}
+		return r;
+	}
+
+	public T poll() {
+		Lane<T>[] ls = lanes;
+		int start = cursor;
+		for(int i = 0; i < ls.length; i ++) {
+			Lane<T> l = ls[(start + i) % ls.length];
+			if(!l.consuming.compareAndSet(false, true)) continue;
+			T r;
+			try {
+				r = l.queue.poll();
+			} finally {
+				l.consuming.set(false);
+			}
+			if(r != null) {
+				cursor = (start + i + 1) % ls.length;
+				return r;
+			}
+			if(l.isDead()) removeLane(l);
+		}
+		return null;
+	}
+
+	/**
+	 * Drain the lanes round-robin, each lane is drained as far as possible before the next one.
+	 */
+	public int drain(Consumer<? super T> consumer, int max) {
+		Lane<T>[] ls = lanes;
+		int start = cursor;
+		int n = 0;
+		for(int i = 0; i < ls.length && n < max; i ++) {
+			Lane<T> l = ls[(start + i) % ls.length];
+			if(!l.consuming.compareAndSet(false, true)) continue;
+			int d;
+			try {
+				d = l.queue.drain(consumer, max - n);
+			} finally {
+				l.consuming.set(false);
+			}
+			n += d;
+			if(d == 0 && l.isDead()) removeLane(l);
+		}
+		if(ls.length > 0) cursor = (start + 1) % ls.length;
+		return n;
+	}
+
+	public int size() {
+		Lane<T>[] ls = lanes;
+		int r = 0;
+		for(int i = 0; i < ls.length; i ++) {
+			r += ls[i].queue.size();
+		}
+		return r;
+	}
+
+	/**
+	 * @return the number of lanes now
+	 */
+	public int lanes() {
+		return lanes.length;
+	}
+
+	/**
+	 * @return the capacity of every lane
+	 */
+	public int laneCapacity() {
+		return laneCapacity;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * The lane of one sender.
+	 * @param <T>
+	 */
+	public static final class Lane<T> {
+		final SimpleBlockingQueue<T> queue;
+		final Thread owner;
+		final AtomicBoolean consuming = new AtomicBoolean();
+		volatile boolean closed;
+
+		Lane(SimpleBlockingQueue<T> queue, Thread owner) {
+			this.queue = queue;
+			this.owner = owner;
+		}
+
+		public void put(T obj) {
+			queue.put(obj);
+		}
+
+		public boolean offer(T obj) {
+			return queue.offer(obj);
+		}
+
+		public int offerBatch(T[] items, int from, int len) {
+			return queue.offerBatch(items, from, len);
+		}
+
+		/**
+		 * No more objects will be put into this lane, it is dropped from the queue as soon as it is empty.
+		 */
+		public void close() {
+			closed = true;
+		}
+
+		boolean isDead() {
+			return (closed || owner != null && !owner.isAlive()) && queue.size() == 0;
+		}
+	}
+}
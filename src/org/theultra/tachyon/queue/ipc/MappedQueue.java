@@ -0,0 +1,268 @@
+package org.theultra.tachyon.queue.ipc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A single-producer/single-consumer queue of byte messages in a memory-mapped file, for two processes on one host.
+ * <br>
+ * It is the ring of SimpleBlockingQueue laid out in the file: head and tail are byte positions which only grow,
+ * each on its own pair of cache lines and written with a release store, and each side keeps a cached copy of the other
+ * side's index in its own process. A message is an int length followed by the payload, aligned to 8 bytes,
+ * a message which doesn't fit before the end of the ring is written at its start behind a padding record.
+ * <br>
+ * Payloads are read and written in place through ByteBuffer views of the mapped file. Head and tail are kept in the file,
+ * so a consumer which restarts resumes after the last message it has taken.
+ * One instance must be used by one thread at a time, one process offers and one process polls.
+ * The file should be created by one of them before the other one opens it.
+ * @author lofint
+ */
+public class MappedQueue implements Closeable {
+	private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final int MAGIC = 0x54414348; //"TACH"
+	private static final int VERSION = 1;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int HEAD_OFFSET = 128;
+	private static final int TAIL_OFFSET = 256;
+	private static final int DATA_OFFSET = 384;
+	private static final int RECORD_HEADER = 4;
+	private static final int PADDING = -1;
+	private static final int MIN_CAPACITY = 1024 * 4;
+	private static final int MAX_CAPACITY = 1024 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private final int m;
+	private final int maxMessageLength;
+	private final WaitStrategy waitStrategy;
+	private long head; //only used by the producer
+	private long tailCache;
+	private long next; //the head after the claimed message
+	private long tail; //only used by the consumer
+	private long headCache;
+
+	/**
+	 * Map the file of a queue, it is created with the capacity in bytes is a power of 2 and just greater than given prefer one
+	 * if it doesn't exist yet, MIN_CAPACITY = 4K, MAX_CAPACITY = 1G
+	 */
+	public static MappedQueue open(Path file, int preferCapacity) throws IOException {
+		return open(file, preferCapacity, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param waitStrategy used by put() when the queue is full and by take() when it is empty, the other process can't signal it
+	 */
+	public static MappedQueue open(Path file, int preferCapacity, WaitStrategy waitStrategy) throws IOException {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		int capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long size = channel.size();
+			if(size != 0) {
+				ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+				channel.read(header, 0);
+				if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) throw new IOException(file + " is not a queue file");
+				long c = header.getLong(CAPACITY_OFFSET);
+				if(c < MIN_CAPACITY || c > MAX_CAPACITY || (c & (c - 1)) != 0) throw new IOException(file + " has an invalid capacity " + c);
+				capacity = (int) c;
+				if(size != DATA_OFFSET + capacity) throw new IOException(file + " has been truncated");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + capacity);
+			buffer.order(ByteOrder.nativeOrder());
+			if(size == 0) {
+				buffer.putLong(CAPACITY_OFFSET, capacity);
+				buffer.putInt(4, VERSION);
+				VarHandle.releaseFence(); //the magic is written last
+				buffer.putInt(0, MAGIC);
+			}
+			return new MappedQueue(channel, buffer, capacity, waitStrategy);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private MappedQueue(FileChannel channel, MappedByteBuffer buffer, int capacity, WaitStrategy waitStrategy) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.capacity = capacity;
+		this.m = capacity - 1;
+		this.maxMessageLength = capacity / 8;
+		this.waitStrategy = waitStrategy;
+		this.head = this.headCache = (long) LONG.getAcquire(buffer, HEAD_OFFSET);
+		this.tail = this.tailCache = (long) LONG.getAcquire(buffer, TAIL_OFFSET);
+	}
+
+	/**
+	 * Copy the remaining bytes of the payload into the queue, never wait.
+	 * @return false if the queue is full
+	 */
+	public boolean offer(ByteBuffer payload) {
+		final int length = payload.remaining();
+		ByteBuffer region = claim(length);
+		if(region == null) return false;
+		region.put(0, payload, payload.position(), length);
+		publish();
+		return true;
+	}
+
+	/**
+	 * Let the writer fill the payload of a message of the given length in place, never wait.
+	 * @param writer gets a view of exactly length bytes with position 0
+	 * @return false if the queue is full
+	 */
+	public boolean offer(int length, Consumer<? super ByteBuffer> writer) {
+		ByteBuffer region = claim(length);
+		if(region == null) return false;
+		writer.accept(region);
+		publish();
+		return true;
+	}
+
+	/**
+	 * Copy the remaining bytes of the payload into the queue, wait with the WaitStrategy while it is full.
+	 */
+	public void put(ByteBuffer payload) {
+		int idleCount = 0;
+		while(!offer(payload)) {
+			idleCount = waitStrategy.idle(idleCount);
+		}
+	}
+
+	/**
+	 * @return a view of the payload of the claimed message, null if the queue is full
+	 */
+	private ByteBuffer claim(int length) {
+		if(length < 0 || length > maxMessageLength) throw new IllegalArgumentException("The message length must be in [0, " + maxMessageLength + "], but was " + length);
+		final long head = this.head;
+		final int size = align(RECORD_HEADER + length);
+		int index = (int) (head & this.m);
+		final int toEnd = this.capacity - index;
+		final int required = size > toEnd ? toEnd + size : size;
+		if(head + required - tailCache > this.capacity) {
+			tailCache = (long) LONG.getAcquire(buffer, TAIL_OFFSET);
+			if(head + required - tailCache > this.capacity) return null;
+		}
+		if(size > toEnd) {
+			buffer.putInt(DATA_OFFSET + index, PADDING);
+			index = 0;
+		}
+		buffer.putInt(DATA_OFFSET + index, length);
+		next = head + required;
+		return buffer.slice(DATA_OFFSET + index + RECORD_HEADER, length).order(ByteOrder.nativeOrder());
+	}
+
+	private void publish() {
+		head = next;
+		LONG.setRelease(buffer, HEAD_OFFSET, next);
+	}
+
+	/**
+	 * Hand the payload of the next message to the handler and remove it, never wait.
+	 * @param handler gets a read-only view of the payload which is only valid until it returns
+	 * @return false if the queue is empty
+	 */
+	public boolean poll(Consumer<? super ByteBuffer> handler) {
+		return drain(handler, 1) == 1;
+	}
+
+	/**
+	 * Wait with the WaitStrategy until there is a message, then hand it to the handler and remove it.
+	 */
+	public void take(Consumer<? super ByteBuffer> handler) {
+		int idleCount = 0;
+		while(!poll(handler)) {
+			idleCount = waitStrategy.idle(idleCount);
+		}
+	}
+
+	/**
+	 * Hand at most max messages to the handler and then remove them with one store, never wait.
+	 * If the handler throws, the messages before the failed one are removed.
+	 * @return the number of messages handled, 0 if the queue is empty
+	 */
+	public int drain(Consumer<? super ByteBuffer> handler, int max) {
+		final long tail = this.tail;
+		long t = tail;
+		int n = 0;
+		try {
+			while(n < max) {
+				if(t >= headCache) {
+					headCache = (long) LONG.getAcquire(buffer, HEAD_OFFSET);
+					if(t >= headCache) break;
+				}
+				int index = (int) (t & this.m);
+				int length = buffer.getInt(DATA_OFFSET + index);
+				if(length == PADDING) {
+					t += this.capacity - index;
+					continue;
+				}
+				handler.accept(buffer.slice(DATA_OFFSET + index + RECORD_HEADER, length).asReadOnlyBuffer().order(ByteOrder.nativeOrder()));
+				t += align(RECORD_HEADER + length);
+				n ++;
+			}
+		} finally {
+			if(t != tail) {
+				this.tail = t;
+				LONG.setRelease(buffer, TAIL_OFFSET, t);
+			}
+		}
+		return n;
+	}
+
+	private static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+	/**
+	 * @return the number of bytes taken by messages in the queue, including their headers and padding
+	 */
+	public long size() {
+		long tail = (long) LONG.getVolatile(buffer, TAIL_OFFSET);
+		long head = (long) LONG.getVolatile(buffer, HEAD_OFFSET);
+		return Math.max(0, head - tail);
+	}
+
+	/**
+	 * @return the capacity of the ring in bytes
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return the longest payload a message may have, capacity / 8
+	 */
+	public int maxMessageLength() {
+		return this.maxMessageLength;
+	}
+
+	/**
+	 * Write the mapped file through to the storage device.
+	 */
+	public void force() {
+		buffer.force();
+	}
+
+	/**
+	 * Close the file, the mapping stays valid until the MappedQueue is garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
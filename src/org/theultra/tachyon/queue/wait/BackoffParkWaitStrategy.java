@@ -0,0 +1,53 @@
+package org.theultra.tachyon.queue.wait;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins, then yields, then parks with a park time doubling from minParkNanos up to maxParkNanos.
+ * This is the default strategy of the queues. An interrupted thread throws WaitInterruptedException once it has reached the park phase.
+ * @author lofint
+ */
+public final class BackoffParkWaitStrategy implements WaitStrategy {
+	public static final int DEFAULT_SPIN_TRIES = 64;
+	public static final int DEFAULT_YIELD_TRIES = 8;
+	public static final long DEFAULT_MIN_PARK_NS = 8 << 4;
+	public static final long DEFAULT_MAX_PARK_NS = 8 << 16;
+
+	private final int spinTries;
+	private final int yieldTries;
+	private final int minShift;
+	private final int maxShift;
+
+	public BackoffParkWaitStrategy() {
+		this(DEFAULT_SPIN_TRIES, DEFAULT_YIELD_TRIES, DEFAULT_MIN_PARK_NS, DEFAULT_MAX_PARK_NS);
+	}
+
+	/**
+	 * @param minParkNanos will be rounded up to a power of 2
+	 * @param maxParkNanos will be rounded up to a power of 2
+	 */
+	public BackoffParkWaitStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+		if(spinTries < 0 || yieldTries < 0 || minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+			throw new IllegalArgumentException("Illegal backoff " + spinTries + ", " + yieldTries + ", " + minParkNanos + ", " + maxParkNanos);
+		}
+		this.spinTries = spinTries;
+		this.yieldTries = yieldTries;
+		this.minShift = 64 - Long.numberOfLeadingZeros(minParkNanos - 1);
+		this.maxShift = 64 - Long.numberOfLeadingZeros(maxParkNanos - 1);
+	}
+
+	@Override
+	public int idle(int idleCount) {
+		if(idleCount < spinTries) {
+			Thread.onSpinWait();
+		} else if(idleCount < spinTries + yieldTries) {
+			Thread.yield();
+		} else {
+			int shift = minShift + idleCount - spinTries - yieldTries;
+			LockSupport.parkNanos(1L << Math.min(shift, maxShift));
+			if(Thread.currentThread().isInterrupted()) throw new WaitInterruptedException(); //park returns at once from now on
+			if(shift >= maxShift) return idleCount;
+		}
+		return idleCount + 1;
+	}
+}
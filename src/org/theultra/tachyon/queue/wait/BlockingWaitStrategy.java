@@ -0,0 +1,141 @@
+package org.theultra.tachyon.queue.wait;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parks the waiting thread until the queue signals a change, the lowest CPU usage for mostly-idle threads.
+ * <br>
+ * The receivers waiting for an object and the senders waiting for a free slot (idleFull()) are kept in two fixed tables,
+ * signalNotEmpty() wakes only the first ones and signalNotFull() only the second ones, signal() wakes both.
+ * A waiter puts itself into a free slot of its table, bumps the waiter count of the table, asks blocked once more and only then parks.
+ * A signal pays a fence and a read of the waiter count when nobody is waiting on that side, otherwise it unparks every thread in the table,
+ * so a signal is never lost and a waiter sleeps until it comes. Nothing is allocated per wait and only LockSupport.park is used,
+ * which is cheap for virtual threads too.
+ * <br>
+ * A waiter which finds no free slot, and a caller which can't tell whether it is still blocked and uses idle(int),
+ * sleeps at most maxWaitNanos. An interrupted waiter throws WaitInterruptedException.
+ * @author lofint
+ */
+public final class BlockingWaitStrategy implements WaitStrategy {
+	public static final long DEFAULT_MAX_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(1);
+	public static final int DEFAULT_SLOTS = 64;
+	private static final BooleanSupplier ALWAYS = () -> true;
+
+	private final Waiters notEmpty;
+	private final Waiters notFull;
+	private final long maxWaitNanos;
+
+	public BlockingWaitStrategy() {
+		this(DEFAULT_MAX_WAIT_NS, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * @param maxWaitNanos the longest wait of idle(int) and of a waiter which has found no free slot
+	 * @param preferSlots the most threads which wait on one side at the same time, will be rounded up to a power of 2
+	 */
+	public BlockingWaitStrategy(long maxWaitNanos, int preferSlots) {
+		if(maxWaitNanos <= 0) throw new IllegalArgumentException("maxWaitNanos must be greater than 0");
+		if(preferSlots <= 0) throw new IllegalArgumentException("preferSlots must be greater than 0");
+		this.maxWaitNanos = maxWaitNanos;
+		int slots = preferSlots == 1 ? 1 : Integer.highestOneBit(preferSlots - 1) << 1;
+		this.notEmpty = new Waiters(slots);
+		this.notFull = new Waiters(slots);
+	}
+
+	@Override
+	public int idle(int idleCount) {
+		return idle(idleCount, ALWAYS, maxWaitNanos);
+	}
+
+	@Override
+	public int idle(int idleCount, BooleanSupplier blocked, long nanoTimeout) {
+		return notEmpty.idle(idleCount, blocked, nanoTimeout, maxWaitNanos, this);
+	}
+
+	@Override
+	public int idleFull(int idleCount, BooleanSupplier full, long nanoTimeout) {
+		return notFull.idle(idleCount, full, nanoTimeout, maxWaitNanos, this);
+	}
+
+	@Override
+	public void signal() {
+		VarHandle.fullFence(); //the change must be visible before the counts are read, pairs with the increment in idle()
+		notEmpty.wake();
+		notFull.wake();
+	}
+
+	@Override
+	public void signalNotEmpty() {
+		VarHandle.fullFence();
+		notEmpty.wake();
+	}
+
+	@Override
+	public void signalNotFull() {
+		VarHandle.fullFence();
+		notFull.wake();
+	}
+
+	/**
+	 * The threads parked on one side.
+	 */
+	private static final class Waiters {
+		private final AtomicReferenceArray<Thread> parked;
+		private final AtomicInteger count = new AtomicInteger();
+		private final int m;
+
+		Waiters(int slots) {
+			this.parked = new AtomicReferenceArray<Thread>(slots);
+			this.m = slots - 1;
+		}
+
+		int idle(int idleCount, BooleanSupplier blocked, long nanoTimeout, long maxWaitNanos, Object blocker) {
+			Thread t = Thread.currentThread();
+			int slot = register(t);
+			count.incrementAndGet(); //pairs with the fence of the signal
+			try {
+				if(!blocked.getAsBoolean()) return idleCount + 1;
+				if(slot < 0) {
+					LockSupport.parkNanos(blocker, nanoTimeout > 0 ? Math.min(nanoTimeout, maxWaitNanos) : maxWaitNanos);
+				} else if(nanoTimeout > 0) {
+					LockSupport.parkNanos(blocker, nanoTimeout);
+				} else {
+					LockSupport.park(blocker);
+				}
+				if(t.isInterrupted()) throw new WaitInterruptedException();
+			} finally {
+				count.decrementAndGet();
+				if(slot >= 0) parked.set(slot, null);
+			}
+			return idleCount + 1;
+		}
+
+		/**
+		 * @return the slot the thread has taken, -1 if all slots are taken
+		 */
+		private int register(Thread t) {
+			int h = System.identityHashCode(t);
+			for(int i = 0; i <= m; i ++) {
+				int slot = (h + i) & m;
+				if(parked.get(slot) == null && parked.compareAndSet(slot, null, t)) return slot;
+			}
+			return -1;
+		}
+
+		/**
+		 * Must be called after a full fence.
+		 */
+		void wake() {
+			if(count.get() == 0) return;
+			for(int i = 0; i <= m; i ++) {
+				Thread t = parked.get(i);
+				if(t != null) LockSupport.unpark(t);
+			}
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package org.theultra.tachyon.queue.wait;
+
+/**
+ * Never gives up the CPU, the lowest latency but burns a full core per waiting thread.
+ * @author lofint
+ */
+public final class BusySpinWaitStrategy implements WaitStrategy {
+	@Override
+	public int idle(int idleCount) {
+		Thread.onSpinWait();
+		return idleCount + 1;
+	}
+}
@@ -0,0 +1,30 @@
+package org.theultra.tachyon.queue.wait;
+
+/**
+ * Spins for a number of tries then yields the CPU to other runnable threads on every try.
+ * @author lofint
+ */
+public final class SpinYieldWaitStrategy implements WaitStrategy {
+	public static final int DEFAULT_SPIN_TRIES = 100;
+
+	private final int spinTries;
+
+	public SpinYieldWaitStrategy() {
+		this(DEFAULT_SPIN_TRIES);
+	}
+
+	public SpinYieldWaitStrategy(int spinTries) {
+		if(spinTries < 0) throw new IllegalArgumentException("Illegal spinTries " + spinTries);
+		this.spinTries = spinTries;
+	}
+
+	@Override
+	public int idle(int idleCount) {
+		if(idleCount < spinTries) {
+			Thread.onSpinWait();
+			return idleCount + 1;
+		}
+		Thread.yield();
+		return idleCount;
+	}
+}
@@ -0,0 +1,19 @@
+package org.theultra.tachyon.queue.wait;
+
+/**
+ * Thrown by a WaitStrategy when the waiting thread is interrupted, the interrupt status of the thread is kept.
+ * <br>
+ * It is unchecked so put() and take() keep their signatures, a caller which stops its thread by interrupting it catches it.
+ * @author lofint
+ */
+public class WaitInterruptedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public WaitInterruptedException() {
+		super("Interrupted while waiting");
+	}
+
+	public WaitInterruptedException(InterruptedException cause) {
+		super("Interrupted while waiting", cause);
+	}
+}
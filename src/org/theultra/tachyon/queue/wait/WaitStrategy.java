@@ -0,0 +1,70 @@
+package org.theultra.tachyon.queue.wait;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a thread waits while the queue it works on is full (sender) or empty (receiver).
+ * <br>
+ * The queue calls idle() every time an operation failed in a row and signal() every time its state has changed,
+ * so the strategy decides how much CPU is traded for wake-up latency. One instance may be shared by many queues and threads.
+ * <br>
+ * A strategy which parks the thread until signal() registers the thread before it asks blocked once more,
+ * so a change made between the failed operation and the wait is never missed.
+ * <br>
+ * A queue which knows the side that can go on waits for a free slot with idleFull() and calls signalNotEmpty() after a put
+ * and signalNotFull() after a take, so a parking strategy wakes only the threads which wait for that change.
+ * @author lofint
+ */
+public interface WaitStrategy {
+	/**
+	 * Wait once.
+	 * @param idleCount how many times in a row the caller has waited, 0 for the first time
+	 * @return the idleCount to pass to the next call
+	 * @throws WaitInterruptedException if the thread is interrupted while it is parked
+	 */
+	int idle(int idleCount);
+
+	/**
+	 * Wait once, unless blocked says the operation of the caller can go on. The caller must try its operation again after it returns.
+	 * A strategy which doesn't park until signal() just calls idle(int).
+	 * @param blocked true as long as the operation of the caller can't succeed, e.g. the queue is still empty
+	 * @param nanoTimeout the longest wait, not greater than 0 for no limit
+	 * @return the idleCount to pass to the next call
+	 * @throws WaitInterruptedException if the thread is interrupted while it is parked
+	 */
+	default int idle(int idleCount, BooleanSupplier blocked, long nanoTimeout) {
+		return idle(idleCount);
+	}
+
+	/**
+	 * Wait once for a free slot, unless full says the queue isn't full any more. Woken by signalNotFull() and signal().
+	 * @param full true as long as the queue of the caller is full
+	 * @param nanoTimeout the longest wait, not greater than 0 for no limit
+	 * @return the idleCount to pass to the next call
+	 * @throws WaitInterruptedException if the thread is interrupted while it is parked
+	 */
+	default int idleFull(int idleCount, BooleanSupplier full, long nanoTimeout) {
+		return idle(idleCount, full, nanoTimeout);
+	}
+
+	/**
+	 * Called by the queue after an object has been put into or taken from it, wakes the waiters of both sides.
+	 * Does nothing unless the strategy blocks.
+	 */
+	default void signal() {
+	}
+
+	/**
+	 * Called by the queue after an object has been put into it, wakes the threads waiting in idle(int, BooleanSupplier, long).
+	 */
+	default void signalNotEmpty() {
+		signal();
+	}
+
+	/**
+	 * Called by the queue after an object has been taken from it, wakes the threads waiting in idleFull().
+	 */
+	default void signalNotFull() {
+		signal();
+	}
+}
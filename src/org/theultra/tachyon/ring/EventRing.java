@@ -0,0 +1,296 @@
+package org.theultra.tachyon.ring;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A thread-safe ring of preallocated events for multiple sender threads and multiple receiver threads.
+ * <br>
+ * All events are created by the factory when the ring is created and are never replaced. A sender claims a sequence,
+ * mutates the event of the sequence in place and publishes it, a receiver acquires a published sequence, reads the event
+ * and releases it, so passing an event allocates nothing. Slots are handed over by per-slot sequence numbers the same way as ConcurrentQueue.
+ * <pre>
+ * long seq = ring.claim();
+ * ring.get(seq).setPrice(price);
+ * ring.publish(seq);
+ * </pre>
+ * An event must not be touched after it is published (sender) or released (receiver), it will be reused.
+ * @author lofint
+ * @param <E>
+ */
+public class EventRing<E> {
+	private static final int MIN_CAPACITY = 16;
+	private static final int DEFAULT_CAPACITY = 1024 * 8;
+	private static final int MAX_CAPACITY = 1024 * 1024 * 4;
+	private String name = "Unnamed Ring";
+	private final Object[] events;
+	private final AtomicLongArray sequences;
+	private final ConcurrentLinkedQueue<Long> returned = new ConcurrentLinkedQueue<Long>(); //acquired by a drain whose handler has thrown
+	private final AtomicInteger returnedCount = new AtomicInteger();
+	private final WaitStrategy waitStrategy;
+	private final BooleanSupplier isFull = this::isFull;
+	private final BooleanSupplier isEmpty = this::isEmpty;
+	final int capacity;
+	final int m;
+	final Sequence head = new Sequence(0); //each on its own cache line
+	final Sequence tail = new Sequence(0);
+
+	/**
+	 * Create a ring of 1024 * 8 events
+	 */
+	public EventRing(Supplier<? extends E> factory) {
+		this(DEFAULT_CAPACITY, factory);
+	}
+
+	/**
+	 * Create a ring with the capacity is a power of 2 and just greater than given prefer one, MIN_CAPACITY = 16, MAX_CAPACITY = 1024 * 1024 * 4
+	 */
+	public EventRing(int preferCapacity, Supplier<? extends E> factory) {
+		this(preferCapacity, factory, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param factory called capacity times in the constructor, must not return null
+	 * @param waitStrategy used by claim() when the ring is full and by acquire() when it is empty
+	 */
+	public EventRing(int preferCapacity, Supplier<? extends E> factory, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.waitStrategy = waitStrategy;
+		this.capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
+		this.m = this.capacity - 1;
+		events = new Object[this.capacity];
+		sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			E e = factory.get();
+			if(e == null) throw new NullPointerException("Event factory returned null");
+			events[i] = e;
+			sequences.lazySet(i, i);
+		}
+	}
+
+	/**
+	 * @return the event of the given sequence, which must have been claimed or acquired by the caller
+	 */
+	@SuppressWarnings("unchecked")
+	public final E get(long sequence) {
+		return (E) events[(int) (sequence & this.m)];
+	}
+
+	/**
+	 * Claim the next free slot for writing.
+	 * @return the claimed sequence, or -1 if the ring is full
+	 */
+	public long tryClaim() {
+		long head = this.head.get();
+		while(true) {
+			long seq = sequences.get((int) (head & this.m));
+			if(seq == head) {
+				if(this.head.compareAndSet(head, head + 1)) return head;
+				head = this.head.get();
+			} else if(seq < head) {
+				return -1;
+			} else {
+				head = this.head.get();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the next slot to claim hasn't been released yet
+	 */
+	private boolean isFull() {
+		long head = this.head.get();
+		return sequences.get((int) (head & this.m)) < head;
+	}
+
+	/**
+	 * Claim the next free slot for writing, wait with the WaitStrategy while the ring is full.
+	 */
+	public long claim() {
+		long seq;
+		int idleCount = 0;
+		while((seq = tryClaim()) < 0) {
+			idleCount = waitStrategy.idleFull(idleCount, isFull, 0);
+		}
+		return seq;
+	}
+
+	/**
+	 * Make the event of a claimed sequence visible to the receivers. Every claimed sequence must be published,
+	 * the receivers can't pass an unpublished one.
+	 */
+	public void publish(long sequence) {
+		sequences.lazySet((int) (sequence & this.m), sequence + 1);
+		waitStrategy.signalNotEmpty();
+	}
+
+	/**
+	 * Claim a slot, let the translator write arg into its event and publish it, wait while the ring is full.
+	 */
+	public <A> void publish(BiConsumer<? super E, ? super A> translator, A arg) {
+		long seq = claim();
+		try {
+			translator.accept(get(seq), arg);
+		} finally {
+			publish(seq);
+		}
+	}
+
+	/**
+	 * Acquire the next published slot for reading, the slots handed back by a drain come first.
+	 * @return the acquired sequence, or -1 if the ring is empty
+	 */
+	public long tryAcquire() {
+		if(returnedCount.get() != 0) {
+			Long r = pollReturned();
+			if(r != null) return r;
+		}
+		long tail = this.tail.get();
+		while(true) {
+			long seq = sequences.get((int) (tail & this.m));
+			if(seq == tail + 1) {
+				if(this.tail.compareAndSet(tail, tail + 1)) return tail;
+				tail = this.tail.get();
+			} else if(seq < tail + 1) {
+				return -1;
+			} else {
+				tail = this.tail.get();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the next slot to acquire hasn't been published yet
+	 */
+	private boolean isEmpty() {
+		if(returnedCount.get() != 0) return false;
+		long tail = this.tail.get();
+		return sequences.get((int) (tail & this.m)) < tail + 1;
+	}
+
+	/**
+	 * Acquire the next published slot for reading, wait with the WaitStrategy while the ring is empty.
+	 */
+	public long acquire() {
+		long seq;
+		int idleCount = 0;
+		while((seq = tryAcquire()) < 0) {
+			idleCount = waitStrategy.idle(idleCount, isEmpty, 0);
+		}
+		return seq;
+	}
+
+	/**
+	 * Give the slot of an acquired sequence back to the senders. Every acquired sequence must be released.
+	 */
+	public void release(long sequence) {
+		sequences.lazySet((int) (sequence & this.m), sequence + this.capacity);
+		waitStrategy.signalNotFull();
+	}
+
+	/**
+	 * Acquire a whole range of published slots with one CAS, hand their events to the handler and release them, never wait.
+	 * If the handler throws, the event it was handed has been taken and released, the rest of the acquired slots are handed back
+	 * unreleased, the next tryAcquire(), acquire() or drain() hands them out before the slots in the ring, then the exception is passed on.
+	 * @return the number of events handled, 0 if the ring is empty
+	 */
+	public int drain(Consumer<? super E> handler, int max) {
+		if(max <= 0) return 0;
+		int d = 0;
+		if(returnedCount.get() != 0) {
+			Long r;
+			while(d < max && (r = pollReturned()) != null) {
+				d ++;
+				try {
+					handler.accept(get(r));
+				} finally {
+					release(r);
+				}
+			}
+		}
+		if(d == max) return d;
+		return d + drainRing(handler, max - d);
+	}
+
+	private Long pollReturned() {
+		Long r = returned.poll();
+		if(r != null) returnedCount.decrementAndGet();
+		return r;
+	}
+
+	private int drainRing(Consumer<? super E> handler, int max) {
+		long tail = this.tail.get();
+		while(true) {
+			int n = 0;
+			long seq = tail + 1;
+			while(n < max) {
+				seq = sequences.get((int) ((tail + n) & this.m));
+				if(seq != tail + n + 1) break;
+				n ++;
+			}
+			if(n == 0) {
+				if(seq < tail + 1) return 0;
+				tail = this.tail.get();
+				continue;
+			}
+			if(this.tail.compareAndSet(tail, tail + n)) {
+				int handed = 0;
+				try {
+					while(handed < n) {
+						E e = get(tail + handed);
+						handed ++;
+						handler.accept(e);
+					}
+				} catch (RuntimeException | Error e) {
+					for(int j = handed; j < n; j ++) {
+						returned.add(tail + j);
+						returnedCount.incrementAndGet();
+					}
+					throw e;
+				} finally {
+					for(int j = 0; j < handed; j ++) {
+						sequences.lazySet((int) ((tail + j) & this.m), tail + j + this.capacity);
+					}
+					waitStrategy.signalNotFull();
+				}
+				return n;
+			}
+			tail = this.tail.get();
+		}
+	}
+
+	/**
+	 * @return the number of claimed events not acquired yet, the slots handed back by a drain included
+	 */
+	public int size(){
+		long tail = this.tail.get();
+		long head = this.head.get();
+		int returned = returnedCount.get();
+		if (head > tail) {
+			return (int) (head - tail) + returned;
+		} else {
+			return returned;
+		}
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+}
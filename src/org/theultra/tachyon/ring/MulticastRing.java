@@ -0,0 +1,276 @@
+package org.theultra.tachyon.ring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+import org.theultra.tachyon.queue.wait.WaitStrategy;
+
+/**
+ * A thread-safe ring of preallocated events where every event is seen by every consumer group.
+ * <br>
+ * Any number of sender threads claim and publish sequences like in EventRing. Each ConsumerGroup is read by one thread
+ * and tracks its own Sequence, a group may depend on other groups and then only sees the events they have already handled,
+ * e.g. business logic after journaling. A slot is reused when the slowest group which no other group depends on has passed it,
+ * so one ring replaces a copy of every event per stage.
+ * <pre>
+ * ConsumerGroup&lt;E&gt; journal = ring.newGroup();
+ * ConsumerGroup&lt;E&gt; replicate = ring.newGroup();
+ * ConsumerGroup&lt;E&gt; logic = ring.newGroup(journal, replicate);
+ * </pre>
+ * All groups must be created before the first sequence is claimed.
+ * @author lofint
+ * @param <E>
+ */
+public class MulticastRing<E> {
+	private static final int MIN_CAPACITY = 16;
+	private static final int DEFAULT_CAPACITY = 1024 * 8;
+	private static final int MAX_CAPACITY = 1024 * 1024 * 4;
+	private String name = "Unnamed Ring";
+	private final Object[] events;
+	private final AtomicLongArray published;
+	private final WaitStrategy waitStrategy;
+	final int capacity;
+	final int m;
+	final Sequence head = new Sequence(0); //next sequence to claim
+	private volatile Sequence[] gating = new Sequence[0];
+	private volatile long gatingCache = -1; //cache of the slowest gating sequence, a stale value only costs a rescan
+	private final List<ConsumerGroup<E>> groups = new ArrayList<ConsumerGroup<E>>();
+	private final BooleanSupplier isFull = this::isFull;
+
+	/**
+	 * Create a ring of 1024 * 8 events
+	 */
+	public MulticastRing(Supplier<? extends E> factory) {
+		this(DEFAULT_CAPACITY, factory);
+	}
+
+	/**
+	 * Create a ring with the capacity is a power of 2 and just greater than given prefer one, MIN_CAPACITY = 16, MAX_CAPACITY = 1024 * 1024 * 4
+	 */
+	public MulticastRing(int preferCapacity, Supplier<? extends E> factory) {
+		this(preferCapacity, factory, new BackoffParkWaitStrategy());
+	}
+
+	/**
+	 * @param factory called capacity times in the constructor, must not return null
+	 * @param waitStrategy used by claim() when the ring is full and by ConsumerGroup.take() when there is nothing to read
+	 */
+	public MulticastRing(int preferCapacity, Supplier<? extends E> factory, WaitStrategy waitStrategy) {
+		if(waitStrategy == null) throw new NullPointerException("WaitStrategy can't be null");
+		this.waitStrategy = waitStrategy;
+		this.capacity = IBlockingQueue.getPow2Value(preferCapacity, MIN_CAPACITY, MAX_CAPACITY);
+		this.m = this.capacity - 1;
+		events = new Object[this.capacity];
+		published = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			E e = factory.get();
+			if(e == null) throw new NullPointerException("Event factory returned null");
+			events[i] = e;
+			published.lazySet(i, -1);
+		}
+	}
+
+	/**
+	 * Create a consumer group which sees every event after all of the given groups have handled it.
+	 */
+	@SafeVarargs
+	public final synchronized ConsumerGroup<E> newGroup(ConsumerGroup<E>... dependsOn) {
+		if(head.get() > 0) throw new IllegalStateException("Consumer groups must be created before the first event is claimed");
+		for(ConsumerGroup<E> d : dependsOn) {
+			if(d.ring != this) throw new IllegalArgumentException("The group " + d + " belongs to another ring");
+		}
+		ConsumerGroup<E> g = new ConsumerGroup<E>(this, dependsOn.length == 0 ? null : dependsOn.clone());
+		groups.add(g);
+
+		List<Sequence> l = new ArrayList<Sequence>();
+		for(ConsumerGroup<E> c : groups) {
+			boolean isDependency = false;
+			for(ConsumerGroup<E> o : groups) {
+				if(o.dependsOn != null && Arrays.asList(o.dependsOn).contains(c)) isDependency = true;
+			}
+			if(!isDependency) l.add(c.sequence);
+		}
+		gating = l.toArray(new Sequence[l.size()]);
+		return g;
+	}
+
+	/**
+	 * @return the event of the given sequence, which must have been claimed by the caller or be readable by the caller's group
+	 */
+	@SuppressWarnings("unchecked")
+	public final E get(long sequence) {
+		return (E) events[(int) (sequence & this.m)];
+	}
+
+	/**
+	 * Claim the next slot for writing. The slot of head is free when every gating group has handled head - capacity.
+	 * @return the claimed sequence, or -1 if the slowest group is a whole ring behind
+	 */
+	public long tryClaim() {
+		while(true) {
+			long head = this.head.get();
+			long wrapPoint = head - this.capacity;
+			if(wrapPoint > gatingCache) {
+				long min = minGating(head);
+				gatingCache = min;
+				if(wrapPoint > min) return -1;
+			}
+			if(this.head.compareAndSet(head, head + 1)) return head;
+		}
+	}
+
+	/**
+	 * Claim the next slot for writing, wait with the WaitStrategy while the ring is full.
+	 */
+	public long claim() {
+		long seq;
+		int idleCount = 0;
+		while((seq = tryClaim()) < 0) {
+			idleCount = waitStrategy.idleFull(idleCount, isFull, 0);
+		}
+		return seq;
+	}
+
+	/**
+	 * Make the event of a claimed sequence visible to the groups. Every claimed sequence must be published.
+	 */
+	public void publish(long sequence) {
+		published.lazySet((int) (sequence & this.m), sequence);
+		waitStrategy.signalNotEmpty();
+	}
+
+	/**
+	 * Claim a slot, let the translator write arg into its event and publish it, wait while the ring is full.
+	 */
+	public <A> void publish(BiConsumer<? super E, ? super A> translator, A arg) {
+		long seq = claim();
+		try {
+			translator.accept(get(seq), arg);
+		} finally {
+			publish(seq);
+		}
+	}
+
+	/**
+	 * @return true if claiming the next sequence would overwrite an event the slowest group hasn't handled yet
+	 */
+	private boolean isFull() {
+		long head = this.head.get();
+		return head - this.capacity > minGating(head);
+	}
+
+	private long minGating(long head) {
+		Sequence[] gating = this.gating;
+		long min = head - 1;
+		for(int i = 0; i < gating.length; i ++) {
+			min = Math.min(min, gating[i].get());
+		}
+		return min;
+	}
+
+	/**
+	 * @return the highest sequence in [from, to] such that all sequences from 'from' to it are published, or from - 1
+	 */
+	long highestPublished(long from, long to) {
+		for(long s = from; s <= to; s ++) {
+			if(published.get((int) (s & this.m)) != s) return s - 1;
+		}
+		return to;
+	}
+
+	WaitStrategy waitStrategy() {
+		return waitStrategy;
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * One reader of a MulticastRing. It must be used by one thread at a time.
+	 * @param <E>
+	 */
+	public static final class ConsumerGroup<E> {
+		final MulticastRing<E> ring;
+		final ConsumerGroup<E>[] dependsOn;
+		final Sequence sequence = new Sequence(-1); //the last handled sequence
+		private final BooleanSupplier isEmpty = () -> {
+			long current = sequence.get();
+			return available(current + 1, current + 1) <= current;
+		};
+
+		ConsumerGroup(MulticastRing<E> ring, ConsumerGroup<E>[] dependsOn) {
+			this.ring = ring;
+			this.dependsOn = dependsOn;
+		}
+
+		/**
+		 * @return the highest sequence this group may read now
+		 */
+		long available(long next, long to) {
+			if(dependsOn == null) return ring.highestPublished(next, to);
+			long r = to;
+			for(int i = 0; i < dependsOn.length; i ++) {
+				r = Math.min(r, dependsOn[i].sequence.get());
+			}
+			return r;
+		}
+
+		/**
+		 * Hand at most max readable events to the handler and then mark them as handled with one store, never wait.
+		 * If the handler throws, the events before the failed one are marked as handled.
+		 * @return the number of events handled, 0 if there is nothing to read
+		 */
+		public int drain(Consumer<? super E> handler, int max) {
+			if(max <= 0) return 0;
+			final long current = sequence.get();
+			long last = available(current + 1, current + max);
+			if(last <= current) return 0;
+			long s = current + 1;
+			try {
+				for(; s <= last; s ++) {
+					handler.accept(ring.get(s));
+				}
+			} finally {
+				sequence.set(s - 1);
+				ring.waitStrategy().signal();
+			}
+			return (int) (last - current);
+		}
+
+		/**
+		 * Wait with the WaitStrategy of the ring until there is something to read, then drain at most max events.
+		 */
+		public int take(Consumer<? super E> handler, int max) {
+			int n;
+			int idleCount = 0;
+			while((n = drain(handler, max)) == 0) {
+				idleCount = ring.waitStrategy().idle(idleCount, isEmpty, 0);
+			}
+			return n;
+		}
+
+		/**
+		 * @return the last sequence handled by this group, -1 if none
+		 */
+		public long getSequence() {
+			return sequence.get();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.theultra.tachyon.ring;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A long counter padded to its own cache line, used as the cursor of a ring and as the position of a consumer group.
+ * <br>
+ * Padding is done by class hierarchy, the JVM lays out the fields of a super class before the fields of its sub class.
+ * @author lofint
+ */
+public class Sequence extends SequenceValue {
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+
+	public Sequence(long initialValue) {
+		VALUE.setRelease(this, initialValue);
+	}
+
+	public long get() {
+		return (long) VALUE.getAcquire(this);
+	}
+
+	/**
+	 * Ordered store, everything written before is visible to a thread which reads the new value with get()
+	 */
+	public void set(long value) {
+		VALUE.setRelease(this, value);
+	}
+
+	public boolean compareAndSet(long expect, long update) {
+		return VALUE.compareAndSet(this, expect, update);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
+
+abstract class SequencePad0 {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SequenceValue extends SequencePad0 {
+	static final VarHandle VALUE;
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	long value;
+}
@@ -0,0 +1,351 @@
+package org.theultra.tachyon.timer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.IBlockingQueue;
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+
+/**
+ * A timer for a great many short timeouts, scheduling and cancelling are O(1) and allocate nothing but the Timeout.
+ * <br>
+ * Timeouts are kept in a wheel of ticksPerWheel buckets, one bucket per tick of tickDuration, a timeout further away than
+ * one turn of the wheel waits there for the number of rounds it still needs. Only the tick thread touches the wheel:
+ * schedule() puts the new Timeout into a ConcurrentQueue and cancel() marks it and puts it into another one,
+ * the tick thread moves them into and out of the buckets once per tick.
+ * <br>
+ * The timeouts which expire in one tick are dispatched in batches of batchSize, each batch as one task of the dispatcher,
+ * or they are run on the tick thread if there is no dispatcher. A timeout fires at most one tick late, never early.
+ * @author lofint
+ */
+public class HashedWheelTimer {
+	private static final long DEFAULT_TICK_NS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+	private static final int DEFAULT_BATCH_SIZE = 256;
+	private static final int MAX_TRANSFERS_PER_TICK = 1024 * 128;
+	private static final int STARTED = 0;
+	private static final int STOPPED = 1;
+
+	private String name = "Unnamed Timer";
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int m;
+	private final ConcurrentQueue<Timeout> submissions;
+	private final ConcurrentQueue<Timeout> cancellations;
+	private final Executor dispatcher; //null to run on the tick thread
+	private final Runnable[] batch;
+	private int batchLen;
+	private final Consumer<Timeout> transfer = t -> schedule(t, this.tick);
+	private final Consumer<Timeout> unlink = t -> { if(t.bucket != null) t.bucket.remove(t); };
+	private final long startTime;
+	private final Thread worker;
+	private volatile int state = STARTED;
+	private final AtomicInteger submitting = new AtomicInteger(); //schedule() calls which have passed the state check
+	private long tick; //only used by the tick thread
+
+	/**
+	 * Create a timer of 512 ticks of 10 ms which runs the timeouts on its tick thread
+	 */
+	public HashedWheelTimer() {
+		this(DEFAULT_TICK_NS, TimeUnit.NANOSECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		this(tickDuration, unit, ticksPerWheel, null, DEFAULT_BATCH_SIZE, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * @param ticksPerWheel rounded up to a power of 2
+	 * @param dispatcher runs the batches of expired timeouts, null to run them on the tick thread
+	 * @param batchSize the most timeouts in one dispatched batch
+	 */
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor dispatcher, int batchSize, ThreadFactory threadFactory) {
+		if(tickDuration <= 0) throw new IllegalArgumentException("tickDuration must be greater than 0");
+		if(ticksPerWheel <= 0) throw new IllegalArgumentException("ticksPerWheel must be greater than 0");
+		if(batchSize <= 0) throw new IllegalArgumentException("batchSize must be greater than 0");
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Bucket[IBlockingQueue.getPow2Value(ticksPerWheel, 1, 1 << 30)];
+		for(int i = 0; i < wheel.length; i ++) {
+			wheel[i] = new Bucket();
+		}
+		this.m = wheel.length - 1;
+		this.submissions = new ConcurrentQueue<Timeout>();
+		this.cancellations = new ConcurrentQueue<Timeout>();
+		this.dispatcher = dispatcher;
+		this.batch = new Runnable[batchSize];
+		this.startTime = System.nanoTime();
+		this.worker = threadFactory.newThread(this::run);
+		if(worker == null) throw new NullPointerException("ThreadFactory returned null");
+		worker.start();
+	}
+
+	/**
+	 * Run the task once after the given delay.
+	 * @throws IllegalStateException if the timer has been stopped
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if(task == null) throw new NullPointerException("Task can't be null");
+		submitting.incrementAndGet();
+		try {
+			if(state != STARTED) throw new IllegalStateException(name + " has been stopped");
+			long d = Math.max(0, unit.toNanos(delay));
+			long deadline = System.nanoTime() - startTime + d;
+			if(deadline < 0) deadline = Long.MAX_VALUE; //overflow
+			Timeout t = new Timeout(this, task, deadline);
+			if(Thread.currentThread() == worker) schedule(t, tick + 1); //a task scheduling another one, must not wait for the queue
+			else submissions.put(t);
+			return t;
+		} finally {
+			submitting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Stop the tick thread, must not be called by a timer task.
+	 * schedule() increments submitting before it checks the state, so stop() waits for the ones which have passed the check
+	 * and returns their timeouts as well.
+	 * @return the timeouts which have neither expired nor been cancelled
+	 */
+	public List<Timeout> stop() {
+		if(Thread.currentThread() == worker) throw new IllegalStateException("stop() can't be called by a timer task");
+		state = STOPPED;
+		LockSupport.unpark(worker);
+		boolean interrupted = false;
+		while(worker.isAlive()) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		List<Timeout> r = new ArrayList<Timeout>();
+		for(Bucket b : wheel) {
+			for(Timeout t = b.head; t != null; t = t.next) {
+				if(!t.isCancelled()) r.add(t);
+			}
+		}
+		Consumer<Timeout> pending = t -> { if(!t.isCancelled()) r.add(t); };
+		while(true) {
+			submissions.drain(pending, Integer.MAX_VALUE); //also makes room for a schedule() waiting on a full queue
+			if(submitting.get() == 0) break;
+			Thread.yield();
+		}
+		submissions.drain(pending, Integer.MAX_VALUE);
+		return r;
+	}
+
+	/**
+	 * @return the number of timeouts submitted but not put into the wheel yet
+	 */
+	public int getPendingSubmissions() {
+		return submissions.size();
+	}
+
+	public long getTickDuration(TimeUnit unit) {
+		return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public int getTicksPerWheel() {
+		return wheel.length;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	private void run() {
+		while(state == STARTED) {
+			long deadline = waitForNextTick();
+			if(deadline < 0) break;
+			cancellations.drain(unlink, Integer.MAX_VALUE);
+			submissions.drain(transfer, MAX_TRANSFERS_PER_TICK);
+			expire(wheel[(int) (tick & this.m)], deadline);
+			flush();
+			tick ++;
+		}
+		cancellations.drain(unlink, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the time of the tick relative to startTime, -1 if the timer has been stopped while waiting
+	 */
+	private long waitForNextTick() {
+		long deadline = tickNanos * (tick + 1);
+		while(true) {
+			long sleep = deadline - (System.nanoTime() - startTime);
+			if(sleep <= 0) return deadline;
+			if(state != STARTED) return -1;
+			LockSupport.parkNanos(this, sleep);
+		}
+	}
+
+	/**
+	 * Put the timeout into its bucket, only called by the tick thread.
+	 * @param current the first tick which may still expire it, a timeout already due goes into its bucket
+	 */
+	private void schedule(Timeout t, long current) {
+		if(t.isCancelled()) return;
+		long ticks = Math.max(t.deadline / tickNanos, current);
+		t.remainingRounds = (ticks - current) / wheel.length;
+		wheel[(int) (ticks & this.m)].add(t);
+	}
+
+	private void expire(Bucket b, long deadline) {
+		Timeout t = b.head;
+		while(t != null) {
+			Timeout next = t.next;
+			if(t.isCancelled()) {
+				b.remove(t);
+			} else if(t.remainingRounds <= 0 && t.deadline <= deadline) {
+				b.remove(t);
+				if(t.expire()) add(t);
+			} else if(t.remainingRounds > 0) {
+				t.remainingRounds --;
+			}
+			t = next;
+		}
+	}
+
+	private void add(Timeout t) {
+		batch[batchLen ++] = t.task;
+		if(batchLen == batch.length) flush();
+	}
+
+	/**
+	 * Dispatch the collected expired tasks as one batch.
+	 */
+	private void flush() {
+		if(batchLen == 0) return;
+		if(dispatcher == null) {
+			runAll(batch, batchLen);
+		} else {
+			final Runnable[] tasks = Arrays.copyOf(batch, batchLen);
+			try {
+				dispatcher.execute(() -> runAll(tasks, tasks.length));
+			} catch (RejectedExecutionException e) {
+				runAll(tasks, tasks.length);
+			}
+		}
+		Arrays.fill(batch, 0, batchLen, null);
+		batchLen = 0;
+	}
+
+	private static void runAll(Runnable[] tasks, int len) {
+		for(int i = 0; i < len; i ++) {
+			try {
+				tasks[i].run();
+			} catch (Throwable e) {
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of timeouts, only used by the tick thread.
+	 */
+	private static final class Bucket {
+		Timeout head;
+		Timeout tail;
+
+		void add(Timeout t) {
+			t.bucket = this;
+			if(head == null) {
+				head = tail = t;
+			} else {
+				tail.next = t;
+				t.prev = tail;
+				tail = t;
+			}
+		}
+
+		void remove(Timeout t) {
+			if(t.prev != null) t.prev.next = t.next;
+			else head = t.next;
+			if(t.next != null) t.next.prev = t.prev;
+			else tail = t.prev;
+			t.prev = t.next = null;
+			t.bucket = null;
+		}
+	}
+
+	/**
+	 * The handle of one scheduled task.
+	 */
+	public static final class Timeout {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		private static final VarHandle STATE;
+		static {
+			try {
+				STATE = MethodHandles.lookup().findVarHandle(Timeout.class, "state", int.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		private final HashedWheelTimer timer;
+		private final Runnable task;
+		private final long deadline; //relative to the start of the timer
+		private volatile int state = PENDING;
+		long remainingRounds; //the rest is only used by the tick thread
+		Bucket bucket;
+		Timeout prev;
+		Timeout next;
+
+		Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return false if the timeout has already expired or been cancelled
+		 */
+		public boolean cancel() {
+			if(!STATE.compareAndSet(this, PENDING, CANCELLED)) return false;
+			timer.cancellations.offer(this); //if it is full, the tick thread drops the timeout when it reaches its bucket
+			return true;
+		}
+
+		boolean expire() {
+			return STATE.compareAndSet(this, PENDING, EXPIRED);
+		}
+
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		public Runnable getTask() {
+			return task;
+		}
+
+		/**
+		 * @return the time left until the timeout expires, negative if it is overdue
+		 */
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - (System.nanoTime() - timer.startTime), TimeUnit.NANOSECONDS);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.theultra.tachyon;
+
+import org.theultra.tachyon.executor.RingExecutorTest;
+import org.theultra.tachyon.flow.FlowTest;
+import org.theultra.tachyon.map.ConcurrentI64CacheTest;
+import org.theultra.tachyon.map.ConcurrentI64HashMapTest;
+import org.theultra.tachyon.map.ConcurrentLongLongMapTest;
+import org.theultra.tachyon.map.ConcurrentLongObjectMapTest;
+import org.theultra.tachyon.pipeline.PipelineTest;
+import org.theultra.tachyon.queue.PrimitiveQueueTest;
+import org.theultra.tachyon.queue.QueueMetricsTest;
+import org.theultra.tachyon.queue.ipc.MappedQueueTest;
+import org.theultra.tachyon.queue.SimpleBlockingQueueTest;
+import org.theultra.tachyon.queue.SimpleUnboundedQueueTest;
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueueTest;
+import org.theultra.tachyon.queue.concurrent.StripedQueueTest;
+import org.theultra.tachyon.queue.wait.WaitStrategyTest;
+import org.theultra.tachyon.ring.EventRingTest;
+import org.theultra.tachyon.ring.MulticastRingTest;
+import org.theultra.tachyon.timer.HashedWheelTimerTest;
+
+/**
+ * Run every behaviour test, stops at the first failure.
+ * @author lofint
+ */
+public class AllTests {
+	public static void main(String[] args) throws Exception {
+		ConcurrentQueueTest.main(args);
+		SimpleBlockingQueueTest.main(args);
+		WaitStrategyTest.main(args);
+		PrimitiveQueueTest.main(args);
+		SimpleUnboundedQueueTest.main(args);
+		StripedQueueTest.main(args);
+		QueueMetricsTest.main(args);
+		EventRingTest.main(args);
+		MulticastRingTest.main(args);
+		RingExecutorTest.main(args);
+		FlowTest.main(args);
+		HashedWheelTimerTest.main(args);
+		PipelineTest.main(args);
+		MappedQueueTest.main(args);
+		ConcurrentI64HashMapTest.main(args);
+		ConcurrentLongObjectMapTest.main(args);
+		ConcurrentLongLongMapTest.main(args);
+		ConcurrentI64CacheTest.main(args);
+		System.out.println("All tests passed");
+	}
+}
@@ -0,0 +1,91 @@
+package org.theultra.tachyon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The checks used by the behaviour tests, every test class is run by its main() and throws AssertionError on failure.
+ * @author lofint
+ */
+public final class Assert {
+	private static final long JOIN_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
+	private Assert() {
+	}
+
+	public static void assertTrue(String message, boolean condition) {
+		if(!condition) throw new AssertionError(message);
+	}
+
+	public static void assertFalse(String message, boolean condition) {
+		assertTrue(message, !condition);
+	}
+
+	public static void assertEquals(String message, long expected, long actual) {
+		if(expected != actual) throw new AssertionError(message + ", expected " + expected + " but was " + actual);
+	}
+
+	public static void assertEquals(String message, Object expected, Object actual) {
+		if(expected == null ? actual != null : !expected.equals(actual)) {
+			throw new AssertionError(message + ", expected " + expected + " but was " + actual);
+		}
+	}
+
+	public static void assertNull(String message, Object actual) {
+		if(actual != null) throw new AssertionError(message + ", expected null but was " + actual);
+	}
+
+	public static void fail(String message) {
+		throw new AssertionError(message);
+	}
+
+	/**
+	 * Assert that the task throws an exception of the type.
+	 */
+	public static void assertThrows(String message, Class<? extends Throwable> type, Runnable task) {
+		try {
+			task.run();
+		} catch (Throwable e) {
+			if(type.isInstance(e)) return;
+			throw new AssertionError(message + ", expected " + type.getSimpleName() + " but was " + e, e);
+		}
+		throw new AssertionError(message + ", expected " + type.getSimpleName() + " but nothing was thrown");
+	}
+
+	/**
+	 * Run every task in its own thread, wait for all of them and rethrow the first failure.
+	 */
+	public static void concurrently(Runnable... tasks) throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Throwable> failures = new ArrayList<Throwable>();
+		for(int i = 0; i < tasks.length; i ++) {
+			Runnable task = tasks[i];
+			Thread t = new Thread(() -> {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			}, "Test Thread " + i);
+			t.setDaemon(true);
+			threads.add(t);
+		}
+		for(Thread t : threads) t.start();
+		long deadline = System.currentTimeMillis() + JOIN_TIMEOUT_MS;
+		for(Thread t : threads) {
+			t.join(Math.max(1, deadline - System.currentTimeMillis()));
+			if(t.isAlive()) fail(t.getName() + " hasn't finished in " + JOIN_TIMEOUT_MS + "ms");
+		}
+		synchronized (failures) {
+			if(!failures.isEmpty()) {
+				Throwable e = failures.get(0);
+				if(e instanceof Error) throw (Error) e;
+				if(e instanceof RuntimeException) throw (RuntimeException) e;
+				throw new AssertionError(e);
+			}
+		}
+	}
+}
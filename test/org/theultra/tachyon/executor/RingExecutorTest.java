@@ -0,0 +1,200 @@
+package org.theultra.tachyon.executor;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+
+/**
+ * @author lofint
+ */
+public class RingExecutorTest {
+	static final int SUBMITTERS = 4;
+	static final int PER_SUBMITTER = 50000;
+
+	public static void main(String[] args) throws Exception {
+		for(boolean workStealing : new boolean[] { false, true }) {
+			futures(workStealing);
+			shutdownRunsQueuedTasks(workStealing);
+			shutdownNowReturnsBatches(workStealing);
+			manySubmitters(workStealing);
+		}
+		shutdownNowWithBlockedSubmitter();
+		tasksSubmittedByTasks();
+		System.out.println("RingExecutorTest passed");
+	}
+
+	static void futures(boolean workStealing) throws Exception {
+		CountDownLatch failed = new CountDownLatch(1);
+		ThreadFactory threadFactory = r -> {
+			Thread t = new Thread(r);
+			t.setUncaughtExceptionHandler((th, x) -> failed.countDown());
+			return t;
+		};
+		RingExecutor e = new RingExecutor(2, 1024, new BackoffParkWaitStrategy(), 64, workStealing, threadFactory);
+		try {
+			Future<Integer> f = e.submit(() -> 6 * 7);
+			assertEquals("result of a callable", Integer.valueOf(42), f.get(10, TimeUnit.SECONDS));
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for(int i = 0; i < 100; i ++) {
+				int v = i;
+				tasks.add(() -> v);
+			}
+			List<Future<Integer>> results = e.invokeAll(tasks);
+			for(int i = 0; i < 100; i ++) assertEquals("invokeAll result " + i, Integer.valueOf(i), results.get(i).get());
+			assertThrows("null task", NullPointerException.class, () -> e.execute(null));
+			e.execute(() -> { throw new IllegalStateException(); });
+			CountDownLatch done = new CountDownLatch(10);
+			for(int i = 0; i < 10; i ++) e.execute(done::countDown);
+			assertTrue("tasks after a failing one", done.await(10, TimeUnit.SECONDS));
+			assertTrue("the failure is passed to the uncaught exception handler", failed.await(10, TimeUnit.SECONDS));
+			assertEquals("pool size", 2, e.getPoolSize());
+		} finally {
+			e.shutdown();
+		}
+		assertTrue("terminated after shutdown", e.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	static void shutdownRunsQueuedTasks(boolean workStealing) throws Exception {
+		RingExecutor e = new RingExecutor(2, workStealing);
+		CountDownLatch gate = new CountDownLatch(1);
+		AtomicInteger ran = new AtomicInteger();
+		for(int i = 0; i < 2; i ++) e.execute(() -> await(gate));
+		for(int i = 0; i < 1000; i ++) e.execute(ran::incrementAndGet);
+		e.shutdown();
+		assertTrue("shut down", e.isShutdown());
+		assertThrows("execute after shutdown", RejectedExecutionException.class, () -> e.execute(ran::incrementAndGet));
+		assertFalse("not terminated while tasks are queued", e.isTerminated());
+		gate.countDown();
+		assertTrue("terminated", e.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals("every queued task has run", 1000, ran.get());
+	}
+
+	/**
+	 * Every task submitted before shutdownNow() is either run or returned, the ones taken into a batch included.
+	 */
+	static void shutdownNowReturnsBatches(boolean workStealing) throws Exception {
+		RingExecutor e = new RingExecutor(1, 1024, new BackoffParkWaitStrategy(), 64, workStealing, Executors.defaultThreadFactory());
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		AtomicInteger ran = new AtomicInteger();
+		e.execute(() -> await(gate)); //hold the worker until the rest is queued, so its next batch is full
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		e.execute(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+			} catch (InterruptedException x) {
+				interrupted.countDown();
+			}
+		});
+		for(int i = 0; i < 200; i ++) {
+			Runnable r = ran::incrementAndGet;
+			tasks.add(r);
+			e.execute(r);
+		}
+		gate.countDown();
+		assertTrue("the blocking task has started", started.await(10, TimeUnit.SECONDS));
+		List<Runnable> left = e.shutdownNow();
+		assertTrue("the running task is interrupted", interrupted.await(10, TimeUnit.SECONDS));
+		assertTrue("terminated", e.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals("nothing has run after the blocking task", 0, ran.get());
+		assertEquals("the rest of the batch and the queues are returned", 200, left.size());
+		for(Runnable r : left) assertTrue("only submitted tasks are returned", tasks.contains(r));
+	}
+
+	/**
+	 * A task whose execute() waits on a full queue during shutdownNow() is returned, not left in the queue.
+	 */
+	static void shutdownNowWithBlockedSubmitter() throws Exception {
+		RingExecutor e = new RingExecutor(1, 1, new BackoffParkWaitStrategy(), 64, false, Executors.defaultThreadFactory());
+		int capacity = new ConcurrentQueue<Runnable>(1).capacity();
+		CountDownLatch started = new CountDownLatch(1);
+		e.execute(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+			} catch (InterruptedException x) {
+				//stopped by shutdownNow()
+			}
+		});
+		assertTrue("the blocking task has started", started.await(10, TimeUnit.SECONDS));
+		for(int i = 0; i < capacity; i ++) e.execute(() -> {});
+		Runnable last = () -> {};
+		AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		Thread submitter = new Thread(() -> {
+			try {
+				e.execute(last);
+			} catch (Throwable x) {
+				thrown.set(x);
+			}
+		});
+		submitter.start();
+		while(submitter.getState() != Thread.State.TIMED_WAITING && submitter.getState() != Thread.State.WAITING) Thread.sleep(1);
+		List<Runnable> left = e.shutdownNow();
+		submitter.join(TimeUnit.SECONDS.toMillis(10));
+		assertNull("the blocked execute() has returned", thrown.get());
+		assertEquals("the queued tasks and the blocked one are returned", capacity + 1, left.size());
+		assertTrue("the blocked task is returned", left.contains(last));
+		assertEquals("nothing left in the queues", 0, e.getQueuedTasks());
+		assertTrue("terminated", e.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	static void manySubmitters(boolean workStealing) throws Exception {
+		RingExecutor e = new RingExecutor(4, workStealing);
+		AtomicInteger ran = new AtomicInteger();
+		Runnable[] submitters = new Runnable[SUBMITTERS];
+		for(int i = 0; i < SUBMITTERS; i ++) {
+			submitters[i] = () -> {
+				for(int t = 0; t < PER_SUBMITTER; t ++) e.execute(ran::incrementAndGet);
+			};
+		}
+		concurrently(submitters);
+		e.shutdown();
+		assertTrue("terminated", e.awaitTermination(60, TimeUnit.SECONDS));
+		assertEquals("every task has run once", SUBMITTERS * PER_SUBMITTER, ran.get());
+		assertEquals("nothing queued", 0, e.getQueuedTasks());
+	}
+
+	/**
+	 * Tasks submitted by a worker go into its own queue, they are run by it or stolen by the others.
+	 */
+	static void tasksSubmittedByTasks() throws Exception {
+		RingExecutor e = new RingExecutor(4, true);
+		AtomicInteger ran = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(100 * 100);
+		for(int i = 0; i < 100; i ++) {
+			e.execute(() -> {
+				for(int j = 0; j < 100; j ++) e.execute(() -> {
+					ran.incrementAndGet();
+					done.countDown();
+				});
+			});
+		}
+		assertTrue("the tasks of the tasks have run", done.await(60, TimeUnit.SECONDS));
+		e.shutdown();
+		assertTrue("terminated", e.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals("every task of a task has run once", 100 * 100, ran.get());
+	}
+
+	static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
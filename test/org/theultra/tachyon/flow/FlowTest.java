@@ -0,0 +1,197 @@
+package org.theultra.tachyon.flow;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.theultra.tachyon.queue.SimpleBlockingQueue;
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+
+/**
+ * QueuePublisher and QueueSubscriber.
+ * @author lofint
+ */
+public class FlowTest {
+	static final int PRODUCERS = 4;
+	static final int PER_PRODUCER = 50000;
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			subscriberWithoutSubscription();
+			boundedDemand();
+			moreThanRequested();
+			publishToOneSubscriber(executor);
+			publishToCompetingSubscribers(executor);
+			cancel(executor);
+		} finally {
+			executor.shutdown();
+		}
+		System.out.println("FlowTest passed");
+	}
+
+	/**
+	 * Taking objects which were put into the queue before onSubscribe() requests nothing.
+	 */
+	static void subscriberWithoutSubscription() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		QueueSubscriber<Integer> s = new QueueSubscriber<Integer>(q, 4);
+		for(int i = 0; i < 10; i ++) q.offer(i);
+		assertEquals("poll without a subscription", Integer.valueOf(0), s.poll());
+		List<Integer> drained = new ArrayList<Integer>();
+		assertEquals("drain without a subscription", 9, s.drain(drained::add, 100));
+		s.cancel();
+		assertTrue("done after cancel", s.isDone());
+		assertNull("take after cancel of an empty queue", s.take());
+	}
+
+	static final class RecordingSubscription implements Flow.Subscription {
+		long requested;
+		boolean cancelled;
+
+		public void request(long n) {
+			requested += n;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	/**
+	 * prefetch at first, then prefetch / 2 every time that many have been taken.
+	 */
+	static void boundedDemand() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		QueueSubscriber<Integer> s = new QueueSubscriber<Integer>(q, 8);
+		RecordingSubscription sub = new RecordingSubscription();
+		s.onSubscribe(sub);
+		assertEquals("prefetch requested on subscribe", 8, sub.requested);
+		RecordingSubscription second = new RecordingSubscription();
+		s.onSubscribe(second);
+		assertTrue("a second upstream is cancelled", second.cancelled);
+		for(int i = 0; i < 8; i ++) s.onNext(i);
+		for(int i = 0; i < 3; i ++) s.poll();
+		assertEquals("nothing more requested before prefetch / 2 are taken", 8, sub.requested);
+		s.poll();
+		assertEquals("prefetch / 2 requested again", 12, sub.requested);
+		s.onComplete();
+		int n = 0;
+		while(s.take() != null) n ++;
+		assertEquals("the rest is taken after completion", 4, n);
+		assertTrue("done", s.isDone());
+		assertNull("no error", s.getError());
+	}
+
+	static void moreThanRequested() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		QueueSubscriber<Integer> s = new QueueSubscriber<Integer>(q, 4);
+		RecordingSubscription sub = new RecordingSubscription();
+		s.onSubscribe(sub);
+		for(int i = 0; i < q.capacity(); i ++) s.onNext(i);
+		s.onNext(-1);
+		assertTrue("an overflowing publisher is cancelled", sub.cancelled);
+		assertTrue("the overflow is reported", s.getError() instanceof IllegalStateException);
+	}
+
+	/**
+	 * Every object reaches the subscriber once, the objects of a sender in the order they were submitted.
+	 */
+	static void publishToOneSubscriber(ExecutorService executor) throws InterruptedException {
+		QueuePublisher<Long> p = new QueuePublisher<Long>(new ConcurrentQueue<Long>(1), executor, 64);
+		QueueSubscriber<Long> s = new QueueSubscriber<Long>(new SimpleBlockingQueue<Long>(1), 1024);
+		p.subscribe(s);
+		long[] last = new long[PRODUCERS];
+		Arrays.fill(last, -1);
+		long[] sum = { 0 };
+		Runnable[] tasks = new Runnable[PRODUCERS + 1];
+		for(int i = 0; i < PRODUCERS; i ++) {
+			long base = (long) i << 32;
+			tasks[i] = () -> {
+				for(int t = 0; t < PER_PRODUCER; t ++) p.submit(base | t);
+			};
+		}
+		tasks[PRODUCERS] = () -> {
+			Long v;
+			while((v = s.take()) != null) {
+				int producer = (int) (v >>> 32);
+				long seq = v & 0xFFFFFFFFL;
+				assertTrue("objects of sender " + producer + " out of order", seq > last[producer]);
+				last[producer] = seq;
+				sum[0] += seq;
+			}
+		};
+		Thread closer = new Thread(() -> {
+			try {
+				concurrently(Arrays.copyOf(tasks, PRODUCERS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			p.close();
+		});
+		closer.start();
+		concurrently(tasks[PRODUCERS]);
+		closer.join();
+		assertEquals("sum of received", (long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sum[0]);
+		assertTrue("completed", s.isDone());
+		assertNull("no error", s.getError());
+		assertEquals("no subscriber after completion", 0, p.getNumberOfSubscribers());
+		assertThrows("submit after close", IllegalStateException.class, () -> p.submit(1L));
+	}
+
+	/**
+	 * Every object reaches exactly one of the subscribers.
+	 */
+	static void publishToCompetingSubscribers(ExecutorService executor) throws InterruptedException {
+		QueuePublisher<Long> p = new QueuePublisher<Long>(new ConcurrentQueue<Long>(1), executor, 16);
+		List<QueueSubscriber<Long>> subscribers = new ArrayList<QueueSubscriber<Long>>();
+		for(int i = 0; i < 3; i ++) {
+			QueueSubscriber<Long> s = new QueueSubscriber<Long>(new SimpleBlockingQueue<Long>(1), 256);
+			subscribers.add(s);
+			p.subscribe(s);
+		}
+		long total = PER_PRODUCER;
+		AtomicLong received = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		Runnable[] tasks = new Runnable[1 + subscribers.size()];
+		tasks[0] = () -> {
+			for(long t = 0; t < total; t ++) p.submit(t);
+			p.close();
+		};
+		for(int i = 0; i < subscribers.size(); i ++) {
+			QueueSubscriber<Long> s = subscribers.get(i);
+			tasks[1 + i] = () -> {
+				Long v;
+				while((v = s.take()) != null) {
+					sum.addAndGet(v);
+					received.incrementAndGet();
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals("received", total, received.get());
+		assertEquals("sum of received", total * (total - 1) / 2, sum.get());
+	}
+
+	static void cancel(ExecutorService executor) throws InterruptedException {
+		QueuePublisher<Integer> p = new QueuePublisher<Integer>(new ConcurrentQueue<Integer>(1), executor, 16);
+		QueueSubscriber<Integer> s = new QueueSubscriber<Integer>(new SimpleBlockingQueue<Integer>(1), 8);
+		p.subscribe(s);
+		p.submit(1);
+		assertEquals("take before cancel", Integer.valueOf(1), s.take());
+		s.cancel();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(p.getNumberOfSubscribers() != 0 && System.nanoTime() < deadline) Thread.sleep(1);
+		assertEquals("a cancelled subscriber is removed", 0, p.getNumberOfSubscribers());
+		p.submit(2);
+		assertEquals("nothing delivered after cancel", 1, p.getQueue().size());
+		assertNull("take after cancel", s.take());
+	}
+}
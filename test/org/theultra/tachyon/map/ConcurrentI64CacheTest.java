@@ -0,0 +1,177 @@
+package org.theultra.tachyon.map;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.theultra.tachyon.map.ConcurrentI64HashMapTest.Obj;
+
+/**
+ * @author lofint
+ */
+public class ConcurrentI64CacheTest {
+	static final int WRITERS = 4;
+	static final int PER_WRITER = 50000;
+
+	public static void main(String[] args) throws Exception {
+		putGetRemove();
+		secondChance();
+		bounded();
+		timeToLive();
+		load();
+		loadOnce();
+		reentrantLoad();
+		concurrentWriters();
+		System.out.println("ConcurrentI64CacheTest passed");
+	}
+
+	static void putGetRemove() {
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(100);
+		assertNull("get of an empty cache", cache.get(1));
+		cache.put(new Obj(1, 1));
+		assertEquals("get", 1, cache.get(1).value);
+		cache.put(new Obj(1, 2));
+		assertEquals("a put replaces the obj of the same id", 2, cache.get(1).value);
+		assertEquals("size", 1, cache.size());
+		assertEquals("remove", 2, cache.remove(1).value);
+		assertNull("get after remove", cache.get(1));
+		assertNull("remove of a missing id", cache.remove(1));
+		assertThrows("null obj", NullPointerException.class, () -> cache.put(null));
+		assertThrows("no loader", IllegalStateException.class, () -> cache.getOrLoad(1));
+		assertThrows("no room", IllegalArgumentException.class, () -> new ConcurrentI64Cache<Obj>(0));
+	}
+
+	/**
+	 * An entry which has been accessed since the hand passed it last is passed again, the next one is evicted.
+	 */
+	static void secondChance() {
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(8);
+		assertEquals("one segment for a small cache", 1, cache.getSegmentCount());
+		for(long id = 0; id < 8; id ++) cache.put(new Obj(id, id));
+		cache.get(0);
+		cache.put(new Obj(8, 8));
+		assertEquals("the accessed entry stays", 0, cache.get(0).value);
+		assertNull("the first entry not accessed is evicted", cache.get(1));
+		assertEquals("eviction count", 1, cache.getEvictionCount());
+		cache.remove(2);
+		cache.put(new Obj(9, 9));
+		assertEquals("the slot of a removed entry is taken without an eviction", 1, cache.getEvictionCount());
+		assertEquals("size", 8, cache.size());
+	}
+
+	/**
+	 * Every put of a new id takes a free slot or evicts one entry, the cache never holds more than maximumSize.
+	 */
+	static void bounded() {
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(1000);
+		assertTrue("segments", cache.getSegmentCount() >= 1);
+		for(long id = 0; id < 10000; id ++) cache.put(new Obj(id, id));
+		assertTrue("bounded by maximumSize, size " + cache.size(), cache.size() <= 1000);
+		assertEquals("an eviction per put beyond the free slots", 10000, cache.size() + cache.getEvictionCount());
+	}
+
+	static void timeToLive() throws InterruptedException {
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(100, 5, TimeUnit.MILLISECONDS, null);
+		cache.put(new Obj(1, 1));
+		cache.put(new Obj(2, 2), 0, TimeUnit.MILLISECONDS);
+		cache.put(new Obj(3, 3), 1, TimeUnit.HOURS);
+		Thread.sleep(20);
+		assertNull("expired with the ttl of the cache", cache.get(1));
+		assertEquals("never expires", 2, cache.get(2).value);
+		assertEquals("expires with its own ttl", 3, cache.get(3).value);
+		assertNull("remove of an expired entry", cache.remove(1));
+		assertThrows("negative ttl", IllegalArgumentException.class, () -> cache.put(new Obj(4, 4), -1, TimeUnit.SECONDS));
+	}
+
+	static void load() {
+		AtomicInteger loads = new AtomicInteger();
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(100, 0, TimeUnit.SECONDS, id -> {
+			loads.incrementAndGet();
+			if(id < 0) return null;
+			if(id == 13) throw new IllegalStateException("no 13");
+			return new Obj(id, id * 10);
+		});
+		assertEquals("loaded", 10, cache.getOrLoad(1).value);
+		assertEquals("cached", 10, cache.getOrLoad(1).value);
+		assertEquals("loaded once", 1, loads.get());
+		assertNull("the loader has no obj", cache.getOrLoad(-1));
+		assertNull("a missing obj isn't cached", cache.get(-1));
+		assertThrows("the exception of the loader", IllegalStateException.class, () -> cache.getOrLoad(13));
+		assertThrows("a failed load is tried again", IllegalStateException.class, () -> cache.getOrLoad(13));
+		assertEquals("loads", 4, loads.get());
+		assertThrows("an obj of another id", IllegalArgumentException.class, () -> cache.getOrLoad(2, id -> new Obj(id + 1, 0)));
+		assertEquals("the given loader", 7, cache.getOrLoad(3, id -> new Obj(id, 7)).value);
+	}
+
+	/**
+	 * Threads which miss the same id at the same time wait for one load.
+	 */
+	static void loadOnce() throws InterruptedException {
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch waiting = new CountDownLatch(1);
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(100, 0, TimeUnit.SECONDS, id -> {
+			loads.incrementAndGet();
+			try {
+				waiting.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new Obj(id, id);
+		});
+		Runnable[] tasks = new Runnable[4];
+		AtomicInteger started = new AtomicInteger();
+		for(int i = 0; i < tasks.length; i ++) {
+			tasks[i] = () -> {
+				if(started.incrementAndGet() == tasks.length) waiting.countDown();
+				assertEquals("the loaded obj", 5, cache.getOrLoad(5).value);
+			};
+		}
+		concurrently(tasks);
+		assertEquals("loaded once", 1, loads.get());
+		assertEquals("cached", 5, cache.get(5).value);
+	}
+
+	/**
+	 * A loader which asks for the id it is loading fails instead of waiting for itself.
+	 */
+	static void reentrantLoad() {
+		AtomicReference<ConcurrentI64Cache<Obj>> ref = new AtomicReference<ConcurrentI64Cache<Obj>>();
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(100, 0, TimeUnit.SECONDS, id -> {
+			if(id == 1) return ref.get().getOrLoad(1);
+			return new Obj(id, ref.get().getOrLoad(id - 1).value + 1);
+		});
+		ref.set(cache);
+		assertThrows("a loader asking for its own id", IllegalStateException.class, () -> cache.getOrLoad(1));
+		cache.put(new Obj(1, 1));
+		assertEquals("a loader asking for other ids", 3, cache.getOrLoad(3).value);
+	}
+
+	/**
+	 * Writers put and read ids of their own, every hit is the obj of its id and the cache stays bounded.
+	 */
+	static void concurrentWriters() throws InterruptedException {
+		ConcurrentI64Cache<Obj> cache = new ConcurrentI64Cache<Obj>(4096);
+		AtomicInteger hits = new AtomicInteger();
+		Runnable[] tasks = new Runnable[WRITERS];
+		for(int i = 0; i < WRITERS; i ++) {
+			long base = (long) i << 32;
+			tasks[i] = () -> {
+				for(long t = 0; t < PER_WRITER; t ++) {
+					cache.put(new Obj(base | t, t));
+					Obj o = cache.get(base | (t >> 1));
+					if(o != null) {
+						assertEquals("the obj of the id", t >> 1, o.value);
+						hits.incrementAndGet();
+					}
+					if((t & 7) == 7) cache.remove(base | (t - 1));
+				}
+			};
+		}
+		concurrently(tasks);
+		assertTrue("bounded by maximumSize, size " + cache.size(), cache.size() <= 4096);
+		assertTrue("hits", hits.get() > 0);
+	}
+}
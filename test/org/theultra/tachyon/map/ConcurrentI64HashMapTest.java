@@ -0,0 +1,408 @@
+package org.theultra.tachyon.map;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author lofint
+ */
+public class ConcurrentI64HashMapTest {
+	static final int WRITERS = 4;
+	static final int PER_WRITER = 100000;
+
+	public static void main(String[] args) throws Exception {
+		putGetRemove();
+		growAndShrink();
+		concurrentWriters();
+		getWhileRemoving();
+		compute();
+		concurrentMerge();
+		iterate();
+		iterateWhileResizing();
+		batches();
+		concurrentBatches();
+		stripes();
+		raiseStripes();
+		System.out.println("ConcurrentI64HashMapTest passed");
+	}
+
+	static final class Obj implements I64Obj {
+		final long id;
+		final long value;
+
+		Obj(long id, long value) {
+			this.id = id;
+			this.value = value;
+		}
+
+		@Override
+		public long getId() {
+			return id;
+		}
+
+		@Override
+		public String toString() {
+			return id + "=" + value;
+		}
+	}
+
+	static void putGetRemove() {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>();
+		assertNull("get of an empty map", map.get(1));
+		assertFalse("put of a new id", map.put(new Obj(1, 1)));
+		assertTrue("put of the same id replaces", map.put(new Obj(1, 2)));
+		assertEquals("replaced value", 2, map.get(1).value);
+		//ids of the same bucket are chained
+		int capacity = map.capacity();
+		for(int i = 0; i < 4; i ++) map.put(new Obj(2 + (long) i * capacity, i));
+		assertEquals("size", 5, map.size());
+		for(int i = 0; i < 4; i ++) assertEquals("chained value", i, map.get(2 + (long) i * capacity).value);
+		assertTrue("replace in a chain", map.put(new Obj(2 + capacity, 10)));
+		assertEquals("replaced in a chain", 10, map.get(2 + capacity).value);
+		assertEquals("remove from the middle of a chain", 10, map.remove(2 + capacity).value);
+		assertNull("removed", map.get(2 + capacity));
+		assertEquals("remove from the end of a chain", 0, map.remove(2).value);
+		assertEquals("remove of the head of a chain", 3, map.remove(2 + 3L * capacity).value);
+		assertEquals("the rest of the chain", 2, map.get(2 + 2L * capacity).value);
+		assertNull("remove of a missing id", map.remove(3));
+		map.put(new Obj(-5, -5));
+		assertEquals("negative id", -5, map.get(-5).value);
+		assertEquals("size after removes", 3, map.size());
+	}
+
+	/**
+	 * The capacity doubles while the map fills up, and halves again, never below the given one, while it is emptied.
+	 */
+	static void growAndShrink() {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024);
+		assertEquals("initial capacity", 1024, map.capacity());
+		for(long id = 0; id < 100000; id ++) map.put(new Obj(id, id));
+		int grown = map.capacity();
+		assertTrue("grown with the load, capacity " + grown, grown >= 100000);
+		for(long id = 0; id < 100000; id ++) assertEquals("value after growing", id, map.get(id).value);
+		for(long id = 0; id < 99000; id ++) map.remove(id);
+		assertTrue("shrunk with the load, capacity " + map.capacity(), map.capacity() < grown);
+		assertTrue("never below the initial capacity", map.capacity() >= 1024);
+		assertEquals("size", 1000, map.size());
+		for(long id = 99000; id < 100000; id ++) assertEquals("value after shrinking", id, map.get(id).value);
+	}
+
+	/**
+	 * Writers put and remove ids of their own while the map resizes, readers never see the obj of another id.
+	 */
+	static void concurrentWriters() throws InterruptedException {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024);
+		Runnable[] tasks = new Runnable[WRITERS + 1];
+		for(int i = 0; i < WRITERS; i ++) {
+			long base = (long) i << 32;
+			tasks[i] = () -> {
+				for(long t = 0; t < PER_WRITER; t ++) {
+					assertFalse("put of a new id", map.put(new Obj(base | t, t)));
+					if((t & 3) == 3) assertEquals("remove of an id put before", t - 1, map.remove(base | (t - 1)).value);
+				}
+			};
+		}
+		tasks[WRITERS] = () -> {
+			for(int round = 0; round < 20; round ++) {
+				for(long t = 0; t < PER_WRITER; t += 97) {
+					Obj o = map.get(t);
+					if(o != null) assertEquals("the obj of the id", t, o.id);
+				}
+			}
+		};
+		concurrently(tasks);
+		assertEquals("size", WRITERS * (PER_WRITER - PER_WRITER / 4), map.size());
+		long sum = 0;
+		for(int i = 0; i < WRITERS; i ++) {
+			for(long t = 0; t < PER_WRITER; t ++) {
+				Obj o = map.get((long) i << 32 | t);
+				if((t & 3) == 2) assertNull("removed id", o);
+				else sum += o.value;
+			}
+		}
+		long perWriter = (long) PER_WRITER * (PER_WRITER - 1) / 2;
+		long removed = 0;
+		for(long t = 2; t < PER_WRITER; t += 4) removed += t;
+		assertEquals("sum of the values left", WRITERS * (perWriter - removed), sum);
+	}
+
+	/**
+	 * Readers look up ids which stay in the map while writers put and remove other ids of the same chains,
+	 * so nodes are unlinked and recycled under the readers, they must still find every one of them.
+	 */
+	static void getWhileRemoving() throws InterruptedException {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024, 16, 16);
+		int capacity = map.capacity();
+		for(long b = 0; b < 64; b ++) map.put(new Obj(b, b));
+		Runnable[] tasks = new Runnable[4];
+		for(int i = 0; i < 2; i ++) {
+			long first = 1 + i * 8;
+			tasks[i] = () -> {
+				for(int round = 0; round < 20000; round ++) {
+					long b = round & 63;
+					for(long c = first; c < first + 8; c ++) map.put(new Obj(b + c * capacity, c));
+					for(long c = first; c < first + 8; c ++) assertEquals("remove", c, map.remove(b + c * capacity).value);
+				}
+			};
+		}
+		for(int i = 2; i < tasks.length; i ++) {
+			tasks[i] = () -> {
+				for(int round = 0; round < 20000; round ++) {
+					for(long b = 0; b < 64; b ++) {
+						Obj o = map.get(b);
+						if(o == null) fail("the obj of " + b + " has been missed");
+						assertEquals("the obj of the id", b, o.id);
+					}
+					assertNull("an id which is never put", map.get(17L * capacity));
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals("size", 64, map.size());
+	}
+
+	static void compute() {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>();
+		Obj a = new Obj(1, 1);
+		assertNull("putIfAbsent of a new id", map.putIfAbsent(a));
+		assertTrue("putIfAbsent of a present id returns the current obj", map.putIfAbsent(new Obj(1, 2)) == a);
+		assertEquals("computeIfAbsent of a present id", 1, map.computeIfAbsent(1, id -> {
+			fail("called for a present id");
+			return null;
+		}).value);
+		assertEquals("computeIfAbsent of a new id", 20, map.computeIfAbsent(2, id -> new Obj(id, 20)).value);
+		assertNull("computeIfAbsent which returns null", map.computeIfAbsent(3, id -> null));
+		assertNull("nothing put", map.get(3));
+		assertNull("computeIfPresent of a missing id", map.computeIfPresent(3, cur -> {
+			fail("called for a missing id");
+			return null;
+		}));
+		assertEquals("computeIfPresent", 21, map.computeIfPresent(2, cur -> new Obj(2, cur.value + 1)).value);
+		assertNull("computeIfPresent which returns null removes", map.computeIfPresent(2, cur -> null));
+		assertNull("removed by computeIfPresent", map.get(2));
+		assertEquals("compute of a missing id", 30, map.compute(3, cur -> new Obj(3, cur == null ? 30 : -1)).value);
+		assertEquals("compute of a present id", 31, map.compute(3, cur -> new Obj(3, cur.value + 1)).value);
+		assertEquals("merge of a missing id", 5, map.merge(new Obj(4, 5), (cur, obj) -> {
+			fail("called for a missing id");
+			return null;
+		}).value);
+		assertEquals("merge of a present id", 11, map.merge(new Obj(4, 6), (cur, obj) -> new Obj(4, cur.value + obj.value)).value);
+		assertNull("merge which returns null removes", map.merge(new Obj(4, 0), (cur, obj) -> null));
+		assertEquals("size", 2, map.size());
+		assertThrows("an obj of another id", IllegalArgumentException.class, () -> map.compute(5, cur -> new Obj(6, 0)));
+		assertNull("nothing put for a failed compute", map.get(5));
+		assertThrows("null function", NullPointerException.class, () -> map.compute(5, null));
+	}
+
+	/**
+	 * Writers merge increments into shared ids, no increment is lost.
+	 */
+	static void concurrentMerge() throws InterruptedException {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024);
+		int ids = 4096;
+		Runnable[] tasks = new Runnable[WRITERS];
+		for(int i = 0; i < WRITERS; i ++) {
+			tasks[i] = () -> {
+				for(int t = 0; t < PER_WRITER; t ++) {
+					map.merge(new Obj(t % ids, t), (cur, obj) -> new Obj(cur.id, cur.value + obj.value));
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals("size", ids, map.size());
+		long sum = 0;
+		for(long id = 0; id < ids; id ++) sum += map.get(id).value;
+		assertEquals("sum of the merged values", (long) WRITERS * PER_WRITER * (PER_WRITER - 1) / 2, sum);
+	}
+
+	static void iterate() {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024);
+		assertEquals("values of an empty map", 0, map.values().count());
+		int n = 10000;
+		for(long id = 0; id < n; id ++) map.put(new Obj(id, id));
+		boolean[] seen = new boolean[n];
+		map.forEach(o -> {
+			assertFalse("seen twice " + o, seen[(int) o.id]);
+			seen[(int) o.id] = true;
+		});
+		for(int i = 0; i < n; i ++) assertTrue("missed " + i, seen[i]);
+		Spliterator<Obj> a = map.spliterator();
+		Spliterator<Obj> b = a.trySplit();
+		long[] count = { 0 };
+		while(a.tryAdvance(o -> count[0] ++));
+		b.forEachRemaining(o -> count[0] ++);
+		assertEquals("the halves of a split", n, count[0]);
+		assertTrue("concurrent", map.spliterator().hasCharacteristics(Spliterator.CONCURRENT));
+		long sum = (long) n * (n - 1) / 2;
+		assertEquals("sequential stream", sum, map.values().mapToLong(o -> o.value).sum());
+		assertEquals("parallel stream", sum, map.values(1).mapToLong(o -> o.value).sum());
+		assertEquals("reduce", Long.valueOf(sum), map.reduce(1, o -> o.value, Long::sum));
+		assertNull("reduce of nothing", map.reduce(1, o -> null, Long::sum));
+		AtomicLong parallelSum = new AtomicLong();
+		map.forEach(1, o -> parallelSum.addAndGet(o.value));
+		assertEquals("parallel forEach", sum, parallelSum.get());
+		assertEquals("removeIf", n / 2, map.removeIf(1, o -> (o.id & 1) == 1));
+		assertEquals("size after removeIf", n / 2, map.size());
+		assertNull("removed by removeIf", map.get(1));
+		assertEquals("kept by removeIf", 2, map.get(2).value);
+	}
+
+	/**
+	 * The objs which stay in the map are seen exactly once while writers put and remove others and the map resizes.
+	 */
+	static void iterateWhileResizing() throws InterruptedException {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024);
+		int stay = 5000;
+		for(long id = 0; id < stay; id ++) map.put(new Obj(id, id));
+		Runnable[] tasks = new Runnable[3];
+		for(int i = 0; i < 2; i ++) {
+			long base = (long) (i + 1) << 32;
+			tasks[i] = () -> {
+				for(int round = 0; round < 5; round ++) {
+					for(long t = 0; t < 20000; t ++) map.put(new Obj(base | t, t));
+					for(long t = 0; t < 20000; t ++) map.remove(base | t);
+				}
+			};
+		}
+		tasks[2] = () -> {
+			for(int round = 0; round < 50; round ++) {
+				AtomicLongArray seen = new AtomicLongArray(stay);
+				map.values((round & 1) == 0 ? Long.MAX_VALUE : 1).forEach(o -> {
+					if(o.id < stay) seen.incrementAndGet((int) o.id);
+				});
+				for(int i = 0; i < stay; i ++) assertEquals("times seen " + i, 1, seen.get(i));
+			}
+		};
+		concurrently(tasks);
+		assertEquals("size", stay, map.size());
+	}
+
+	static void batches() {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024);
+		Obj[] objs = new Obj[500];
+		for(int i = 0; i < objs.length; i ++) objs[i] = new Obj(i * 7L, i);
+		assertEquals("putAll of new ids", 0, map.putAll(objs));
+		assertEquals("size", 500, map.size());
+		assertEquals("putAll of the same ids replaces them", 500, map.putAll(objs));
+		long[] keys = new long[600];
+		for(int i = 0; i < keys.length; i ++) keys[i] = i * 7L;
+		Obj[] out = new Obj[keys.length];
+		map.getAll(keys, out);
+		for(int i = 0; i < keys.length; i ++) {
+			if(i < 500) assertEquals("getAll", i, out[i].value);
+			else assertNull("getAll of a missing id", out[i]);
+		}
+		assertThrows("out shorter than keys", IllegalArgumentException.class, () -> map.getAll(keys, new Obj[1]));
+		assertThrows("null obj", NullPointerException.class, () -> map.putAll(new Obj[] { null }));
+		map.getAll(new long[0], new Obj[0]);
+	}
+
+	/**
+	 * Writers put batches of ids of their own while readers get batches, every obj is put once and found afterwards.
+	 */
+	static void concurrentBatches() throws InterruptedException {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1024);
+		int batch = 200;
+		Runnable[] tasks = new Runnable[WRITERS + 1];
+		for(int i = 0; i < WRITERS; i ++) {
+			long base = (long) i << 32;
+			tasks[i] = () -> {
+				Obj[] objs = new Obj[batch];
+				for(long t = 0; t < PER_WRITER; t += batch) {
+					for(int j = 0; j < batch; j ++) objs[j] = new Obj(base | (t + j), t + j);
+					assertEquals("putAll of new ids", 0, map.putAll(objs));
+				}
+			};
+		}
+		tasks[WRITERS] = () -> {
+			long[] keys = new long[batch];
+			Obj[] out = new Obj[batch];
+			for(long t = 0; t < PER_WRITER; t += batch) {
+				for(int j = 0; j < batch; j ++) keys[j] = (long) (j % WRITERS) << 32 | (t + j);
+				map.getAll(keys, out);
+				for(int j = 0; j < batch; j ++) {
+					if(out[j] != null) assertEquals("the obj of the id", keys[j], out[j].id);
+				}
+			}
+		};
+		concurrently(tasks);
+		assertEquals("size", WRITERS * PER_WRITER, map.size());
+		long[] keys = new long[PER_WRITER];
+		Obj[] out = new Obj[PER_WRITER];
+		long sum = 0;
+		for(int i = 0; i < WRITERS; i ++) {
+			for(int t = 0; t < PER_WRITER; t ++) keys[t] = (long) i << 32 | t;
+			map.getAll(keys, out);
+			for(Obj o : out) sum += o.value;
+		}
+		assertEquals("sum of the values", (long) WRITERS * PER_WRITER * (PER_WRITER - 1) / 2, sum);
+	}
+
+	static void stripes() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int initial = new ConcurrentI64HashMap<Obj>().getLockCount();
+		assertTrue("default stripes at least MIN_LOCKER and 2 per core, " + initial, initial >= ConcurrentI64HashMap.MIN_LOCKER
+				&& initial >= Math.min(cores * 2, ConcurrentI64HashMap.MAX_ADAPTIVE_LOCKER) && initial <= ConcurrentI64HashMap.MAX_ADAPTIVE_LOCKER);
+		int large = new ConcurrentI64HashMap<Obj>(1 << 20).getLockCount();
+		assertEquals("a large capacity raises the default stripes up to MAX_LOCKER", Math.max(ConcurrentI64HashMap.MAX_LOCKER, initial), large);
+		assertEquals("given stripes rounded up to a power of 2", 64, new ConcurrentI64HashMap<Obj>(1 << 16, 40, 0).getLockCount());
+		assertEquals("never below MIN_LOCKER", ConcurrentI64HashMap.MIN_LOCKER, new ConcurrentI64HashMap<Obj>(1 << 16, 2, 0).getLockCount());
+		assertEquals("never above maxLockCount", 128, new ConcurrentI64HashMap<Obj>(1 << 16, 512, 128).getLockCount());
+		assertEquals("never above MAX_ADAPTIVE_LOCKER", ConcurrentI64HashMap.MAX_ADAPTIVE_LOCKER,
+				new ConcurrentI64HashMap<Obj>(1 << 20, 1 << 16, 1 << 16).getLockCount());
+		assertEquals("never above the capacity", 1024, new ConcurrentI64HashMap<Obj>(1024, 4096, 4096).getLockCount());
+		assertThrows("negative lockCount", IllegalArgumentException.class, () -> new ConcurrentI64HashMap<Obj>(1024, -1, 0));
+	}
+
+	/**
+	 * Writers of one stripe wait for a thread which holds its lock in a compute(), the map doubles its stripes
+	 * and no obj is lost meanwhile.
+	 */
+	static void raiseStripes() throws InterruptedException {
+		ConcurrentI64HashMap<Obj> map = new ConcurrentI64HashMap<Obj>(1 << 16, 16, 64);
+		int ids = 64;
+		CountDownLatch raised = new CountDownLatch(1);
+		Runnable[] tasks = new Runnable[WRITERS + 1];
+		tasks[0] = () -> {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			while(map.getLockCount() == 16 && System.nanoTime() < deadline) {
+				map.compute(0, cur -> { //holds the lock of stripe 0
+					sleep(1);
+					return cur;
+				});
+				sleep(1); //let the writers in
+			}
+			raised.countDown();
+		};
+		for(int i = 1; i <= WRITERS; i ++) {
+			long w = i;
+			tasks[i] = () -> {
+				for(long t = 0; raised.getCount() > 0; t ++) {
+					long id = (t % ids) << 26; //all in stripe 0
+					map.put(new Obj(id, w));
+					Obj o = map.get(id);
+					assertEquals("the obj of the id", id, o.id);
+					sleep(1); //most puts find the lock held
+				}
+			};
+		}
+		concurrently(tasks);
+		assertTrue("stripes raised under contention, " + map.getLockCount(), map.getLockCount() > 16);
+		assertTrue("contention counted", map.getContentionCount() > 0);
+		assertEquals("size", ids, map.size());
+		for(long t = 0; t < ids; t ++) assertEquals("the obj of the id", t << 26, map.get(t << 26).id);
+	}
+
+	static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package org.theultra.tachyon.map;
+
+import static org.theultra.tachyon.Assert.*;
+
+/**
+ * @author lofint
+ */
+public class ConcurrentLongLongMapTest {
+	static final int WRITERS = 4;
+	static final int PER_WRITER = 100000;
+	static final int COUNTERS = 64;
+
+	public static void main(String[] args) throws Exception {
+		putGetRemove();
+		growAndShrink();
+		concurrentCounters();
+		System.out.println("ConcurrentLongLongMapTest passed");
+	}
+
+	static void putGetRemove() {
+		ConcurrentLongLongMap map = new ConcurrentLongLongMap(1024, -1);
+		assertEquals("noEntryValue", -1, map.getNoEntryValue());
+		assertEquals("get of an empty map", -1, map.get(1));
+		assertEquals("put of a new key", -1, map.put(1, 10));
+		assertEquals("put of the same key returns the previous value", 10, map.put(1, 11));
+		assertEquals("putIfAbsent of a present key", 11, map.putIfAbsent(1, 12));
+		assertEquals("putIfAbsent of a new key", -1, map.putIfAbsent(2, 20));
+		assertEquals("the key 0", -1, map.put(0, 0));
+		assertEquals("get of the key 0", 0, map.get(0));
+		assertEquals("size", 3, map.size());
+		assertTrue("containsKey", map.containsKey(0));
+		assertEquals("remove of the key 0", 0, map.remove(0));
+		assertFalse("containsKey after remove", map.containsKey(0));
+		assertEquals("remove", 20, map.remove(2));
+		assertEquals("remove of a missing key", -1, map.remove(2));
+		assertEquals("size after removes", 1, map.size());
+		assertThrows("put of the noEntryValue", IllegalArgumentException.class, () -> map.put(3, -1));
+		assertEquals("addAndGet of a missing key counts from 0", 5, map.addAndGet(3, 5));
+		assertEquals("addAndGet", 2, map.addAndGet(3, -3));
+		assertThrows("addAndGet to the noEntryValue", IllegalArgumentException.class, () -> map.addAndGet(3, -3));
+		assertEquals("value kept by a failed addAndGet", 2, map.get(3));
+		assertFalse("compareAndSet of another value", map.compareAndSet(3, 1, 7));
+		assertTrue("compareAndSet", map.compareAndSet(3, 2, 7));
+		assertTrue("compareAndSet of a missing key", map.compareAndSet(4, -1, 8));
+		assertEquals("value set by compareAndSet", 8, map.get(4));
+		assertEquals("default noEntryValue", Long.MIN_VALUE, new ConcurrentLongLongMap().get(1));
+	}
+
+	static void growAndShrink() {
+		ConcurrentLongLongMap map = new ConcurrentLongLongMap(1024, -1);
+		long initial = map.capacity();
+		for(long key = 1; key <= 100000; key ++) map.put(key, key);
+		long grown = map.capacity();
+		assertTrue("grown to hold twice the entries, capacity " + grown, grown >= 200000);
+		for(long key = 1; key <= 100000; key ++) assertEquals("value after growing", key, map.get(key));
+		for(long key = 1; key <= 99000; key ++) map.remove(key);
+		assertTrue("shrunk with the entries, capacity " + map.capacity(), map.capacity() < grown);
+		assertTrue("never below the initial capacity", map.capacity() >= initial);
+		assertEquals("size", 1000, map.size());
+		for(long key = 99001; key <= 100000; key ++) assertEquals("value after shrinking", key, map.get(key));
+	}
+
+	/**
+	 * Writers add to shared counters, no increment is lost.
+	 */
+	static void concurrentCounters() throws InterruptedException {
+		ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+		Runnable[] tasks = new Runnable[WRITERS + 1];
+		for(int i = 0; i < WRITERS; i ++) {
+			tasks[i] = () -> {
+				for(int t = 0; t < PER_WRITER; t ++) map.addAndGet(t % COUNTERS, t);
+			};
+		}
+		tasks[WRITERS] = () -> {
+			for(int t = 0; t < PER_WRITER; t ++) {
+				long v = map.get(t % COUNTERS);
+				assertTrue("a counter never goes back", v == Long.MIN_VALUE || v >= 0);
+			}
+		};
+		concurrently(tasks);
+		assertEquals("counters", COUNTERS, map.size());
+		long sum = 0;
+		for(int c = 0; c < COUNTERS; c ++) sum += map.get(c);
+		assertEquals("sum of the counters", (long) WRITERS * PER_WRITER * (PER_WRITER - 1) / 2, sum);
+	}
+}
@@ -0,0 +1,112 @@
+package org.theultra.tachyon.map;
+
+import static org.theultra.tachyon.Assert.*;
+
+/**
+ * @author lofint
+ */
+public class ConcurrentLongObjectMapTest {
+	static final int WRITERS = 4;
+	static final int PER_WRITER = 100000;
+
+	public static void main(String[] args) throws Exception {
+		putGetRemove();
+		growAndShrink();
+		concurrentWriters();
+		tableSizes();
+		System.out.println("ConcurrentLongObjectMapTest passed");
+	}
+
+	static void putGetRemove() {
+		ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>();
+		assertNull("get of an empty map", map.get(1));
+		assertNull("put of a new key", map.put(1, "a"));
+		assertEquals("put of the same key returns the previous value", "a", map.put(1, "b"));
+		assertEquals("putIfAbsent of a present key", "b", map.putIfAbsent(1, "c"));
+		assertEquals("value kept by putIfAbsent", "b", map.get(1));
+		assertNull("putIfAbsent of a new key", map.putIfAbsent(2, "d"));
+		assertNull("the key 0", map.put(0, "zero"));
+		assertEquals("get of the key 0", "zero", map.get(0));
+		assertNull("a negative key", map.put(-1, "minus"));
+		assertEquals("get of a negative key", "minus", map.get(-1));
+		assertEquals("size", 4, map.size());
+		assertTrue("containsKey", map.containsKey(2));
+		assertEquals("remove", "d", map.remove(2));
+		assertFalse("containsKey after remove", map.containsKey(2));
+		assertNull("remove of a missing key", map.remove(2));
+		assertEquals("remove of the key 0", "zero", map.remove(0));
+		assertNull("the key 0 after remove", map.get(0));
+		assertNull("put of a removed key", map.put(2, "e"));
+		assertEquals("value of a removed key put again", "e", map.get(2));
+		assertEquals("size after removes", 3, map.size());
+		assertThrows("null value", NullPointerException.class, () -> map.put(3, null));
+	}
+
+	/**
+	 * The segments grow while the map fills up and shrink again while it is emptied, removed keys are dropped by a rehash.
+	 */
+	static void growAndShrink() {
+		ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>(1024);
+		long initial = map.capacity();
+		for(long key = 1; key <= 100000; key ++) map.put(key, key);
+		long grown = map.capacity();
+		assertTrue("grown to hold twice the entries, capacity " + grown, grown >= 200000);
+		for(long key = 1; key <= 100000; key ++) assertEquals("value after growing", Long.valueOf(key), map.get(key));
+		for(long key = 1; key <= 99000; key ++) map.remove(key);
+		assertTrue("shrunk with the entries, capacity " + map.capacity(), map.capacity() < grown);
+		assertTrue("never below the initial capacity", map.capacity() >= initial);
+		assertEquals("size", 1000, map.size());
+		for(long key = 99001; key <= 100000; key ++) assertEquals("value after shrinking", Long.valueOf(key), map.get(key));
+		//put and remove over and over, the removed keys must not fill the table
+		for(long key = 200000; key < 400000; key ++) {
+			map.put(key, key);
+			map.remove(key);
+		}
+		assertEquals("size after put and remove", 1000, map.size());
+		assertTrue("removed keys are dropped, capacity " + map.capacity(), map.capacity() < grown);
+	}
+
+	static void tableSizes() {
+		assertEquals("the minimum", 16, LongHashing.tableSizeFor(3, 16, 1 << 20));
+		assertEquals("rounded up to a power of 2", 1024, LongHashing.tableSizeFor(1000, 16, 1 << 20));
+		assertEquals("a power of 2", 1024, LongHashing.tableSizeFor(1024, 16, 1 << 20));
+		assertEquals("the maximum", 1 << 20, LongHashing.tableSizeFor(Integer.MAX_VALUE, 16, 1 << 20));
+		int live = Integer.MAX_VALUE / 2;
+		assertEquals("4 times the live entries beyond an int", 1 << 20, LongHashing.tableSizeFor((long) live * 4, 16, 1 << 20));
+		assertEquals("4 times few live entries", 16, LongHashing.tableSizeFor((long) 2 * 4, 16, 1 << 20));
+	}
+
+	/**
+	 * Writers put and remove keys of their own, readers never see the value of another key.
+	 */
+	static void concurrentWriters() throws InterruptedException {
+		ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>(1024);
+		Runnable[] tasks = new Runnable[WRITERS + 1];
+		for(int i = 0; i < WRITERS; i ++) {
+			long base = (long) i << 32;
+			tasks[i] = () -> {
+				for(long t = 0; t < PER_WRITER; t ++) {
+					assertNull("put of a new key", map.put(base | t, base | t));
+					if((t & 3) == 3) assertEquals("remove of a key put before", Long.valueOf(base | (t - 1)), map.remove(base | (t - 1)));
+				}
+			};
+		}
+		tasks[WRITERS] = () -> {
+			for(int round = 0; round < 20; round ++) {
+				for(long t = 0; t < PER_WRITER; t += 97) {
+					Long v = map.get(t);
+					if(v != null) assertEquals("the value of the key", t, v.longValue());
+				}
+			}
+		};
+		concurrently(tasks);
+		assertEquals("size", WRITERS * (PER_WRITER - PER_WRITER / 4), map.size());
+		for(int i = 0; i < WRITERS; i ++) {
+			for(long t = 0; t < PER_WRITER; t ++) {
+				long key = (long) i << 32 | t;
+				if((t & 3) == 2) assertNull("removed key", map.get(key));
+				else assertEquals("value", Long.valueOf(key), map.get(key));
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package org.theultra.tachyon.pipeline;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.theultra.tachyon.pipeline.Pipeline.Stage;
+
+/**
+ * @author lofint
+ */
+public class PipelineTest {
+	static final int SUBMITTERS = 4;
+	static final int PER_SUBMITTER = 50000;
+
+	public static void main(String[] args) throws Exception {
+		singleSubmitterKeepsOrder();
+		manySubmitters();
+		dropAndFail();
+		shutdown();
+		builder();
+		System.out.println("PipelineTest passed");
+	}
+
+	/**
+	 * With one submitter and one thread per stage, objects leave in the order they were submitted.
+	 */
+	static void singleSubmitterKeepsOrder() throws InterruptedException {
+		List<Integer> out = new ArrayList<Integer>();
+		Pipeline<Integer> p = Pipeline.<Integer>builder("order")
+				.singleSubmitter()
+				.stage("double", v -> v * 2)
+				.fuse("string", v -> Integer.toString(v))
+				.sink("parse", s -> out.add(Integer.parseInt(s)));
+		for(int i = 0; i < 100000; i ++) p.submit(i);
+		p.shutdown();
+		assertTrue("terminated", p.awaitTermination(60, TimeUnit.SECONDS));
+		assertEquals("all passed", 100000, out.size());
+		for(int i = 0; i < out.size(); i ++) assertEquals("in submit order", Integer.valueOf(i * 2), out.get(i));
+		List<Stage> stages = p.getStages();
+		assertEquals("stages", 3, stages.size());
+		assertTrue("fused stage", stages.get(1).isFused());
+		assertEquals("fused stage has no queue", 0, stages.get(1).getQueueDepth());
+		for(Stage s : stages) assertEquals("processed by " + s.getName(), 100000, s.getProcessed());
+	}
+
+	/**
+	 * Every object passes every stage once with many submitters and parallel stages.
+	 */
+	static void manySubmitters() throws InterruptedException {
+		AtomicLong received = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		Pipeline<Long> p = Pipeline.<Long>builder("parallel")
+				.capacity(1024)
+				.stage("inc", 3, v -> v + 1)
+				.stage("dec", 2, v -> v - 1)
+				.sink("sum", 2, v -> {
+					sum.addAndGet(v);
+					received.incrementAndGet();
+				});
+		Runnable[] submitters = new Runnable[SUBMITTERS];
+		for(int i = 0; i < SUBMITTERS; i ++) {
+			submitters[i] = () -> {
+				for(long t = 0; t < PER_SUBMITTER; t ++) p.submit(t);
+			};
+		}
+		concurrently(submitters);
+		p.shutdown();
+		assertTrue("terminated", p.awaitTermination(60, TimeUnit.SECONDS));
+		assertTrue("isTerminated", p.isTerminated());
+		assertEquals("received", (long) SUBMITTERS * PER_SUBMITTER, received.get());
+		assertEquals("sum of received", (long) SUBMITTERS * PER_SUBMITTER * (PER_SUBMITTER - 1) / 2, sum.get());
+		assertEquals("parallelism", 3, p.getStages().get(0).getParallelism());
+	}
+
+	/**
+	 * null drops the object, an exception or an Error is passed to the handler of the thread and drops the object.
+	 */
+	static void dropAndFail() throws InterruptedException {
+		AtomicInteger failed = new AtomicInteger();
+		ThreadFactory threadFactory = r -> {
+			Thread t = new Thread(r);
+			t.setUncaughtExceptionHandler((th, e) -> failed.incrementAndGet());
+			return t;
+		};
+		AtomicInteger received = new AtomicInteger();
+		Pipeline<Integer> p = Pipeline.<Integer>builder("drop")
+				.stage("filter", 1, threadFactory, v -> v % 2 == 0 ? v : null)
+				.stage("fail", 1, threadFactory, v -> {
+					if(v % 10 == 0) throw new IllegalStateException();
+					if(v % 10 == 4) throw new AssertionError(); //an Error doesn't end the thread of the stage either
+					return v;
+				})
+				.sink("count", v -> received.incrementAndGet());
+		for(int i = 0; i < 1000; i ++) p.submit(i);
+		p.shutdown();
+		assertTrue("terminated", p.awaitTermination(60, TimeUnit.SECONDS));
+		assertEquals("failures passed to the handler", 200, failed.get());
+		assertEquals("received the even ones which didn't fail", 300, received.get());
+		assertEquals("the dropped ones are processed by filter", 1000, p.getStages().get(0).getProcessed());
+		assertEquals("the failed ones aren't processed by fail", 300, p.getStages().get(1).getProcessed());
+	}
+
+	static void shutdown() throws InterruptedException {
+		Pipeline<Integer> p = Pipeline.<Integer>builder("shutdown").stage("id", v -> v).build();
+		assertFalse("not terminated before shutdown", p.isTerminated());
+		assertThrows("submit of null", NullPointerException.class, () -> p.submit(null));
+		p.shutdown();
+		assertThrows("submit after shutdown", IllegalStateException.class, () -> p.submit(1));
+		assertTrue("terminated", p.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals("name", "shutdown", p.getName());
+	}
+
+	static void builder() {
+		assertThrows("no stage", IllegalStateException.class, () -> Pipeline.<Integer>builder("empty").build());
+		assertThrows("fuse first", IllegalStateException.class, () -> Pipeline.<Integer>builder("fuse").fuse("f", v -> v));
+		assertThrows("no thread", IllegalArgumentException.class, () -> Pipeline.<Integer>builder("p").stage("s", 0, v -> v));
+		assertThrows("no batch", IllegalArgumentException.class, () -> Pipeline.<Integer>builder("b").batchSize(0));
+		assertThrows("no function", NullPointerException.class, () -> Pipeline.<Integer>builder("f").stage("s", null));
+	}
+}
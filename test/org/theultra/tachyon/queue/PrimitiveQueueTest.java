@@ -0,0 +1,320 @@
+package org.theultra.tachyon.queue;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+import org.theultra.tachyon.queue.concurrent.ConcurrentIntQueue;
+import org.theultra.tachyon.queue.concurrent.ConcurrentLongQueue;
+import org.theultra.tachyon.queue.wait.BackoffParkWaitStrategy;
+
+/**
+ * ILongQueue and IIntQueue: SimpleLongQueue, SimpleIntQueue, ConcurrentLongQueue and ConcurrentIntQueue.
+ * @author lofint
+ */
+public class PrimitiveQueueTest {
+	static final int PRODUCERS = 4;
+	static final int CONSUMERS = 4;
+	static final int PER_PRODUCER = 100000;
+	static final int BATCH = 64;
+
+	public static void main(String[] args) throws Exception {
+		singleThreaded(new SimpleLongQueue(1));
+		singleThreaded(new ConcurrentLongQueue(1));
+		singleThreaded(new SimpleIntQueue(1));
+		singleThreaded(new ConcurrentIntQueue(1));
+		nullValue();
+		drainWithThrowingConsumer(new SimpleLongQueue(1));
+		drainWithThrowingConsumer(new ConcurrentLongQueue(1));
+		drainWithThrowingConsumer(new SimpleIntQueue(1));
+		drainWithThrowingConsumer(new ConcurrentIntQueue(1));
+		oneProducerOneConsumer(new SimpleLongQueue(1), false);
+		oneProducerOneConsumer(new SimpleLongQueue(1), true);
+		oneProducerOneConsumer(new SimpleIntQueue(1), false);
+		oneProducerOneConsumer(new SimpleIntQueue(1), true);
+		multiProducerMultiConsumer(new ConcurrentLongQueue(1), false);
+		multiProducerMultiConsumer(new ConcurrentLongQueue(1), true);
+		multiProducerMultiConsumer(new ConcurrentIntQueue(1), false);
+		multiProducerMultiConsumer(new ConcurrentIntQueue(1), true);
+		System.out.println("PrimitiveQueueTest passed");
+	}
+
+	static void singleThreaded(ILongQueue q) {
+		String name = q.getClass().getSimpleName();
+		long nul = q.getNullValue();
+		assertEquals(name + " capacity is rounded up to the minimum", 1024 * 8, q.capacity());
+		assertEquals(name + " pollLong of an empty queue", nul, q.pollLong());
+		assertThrows(name + " offer of nullValue", IllegalArgumentException.class, () -> q.offer(nul));
+		for(int i = 0; i < q.capacity(); i ++) assertTrue(name + " offer " + i, q.offer(i));
+		assertFalse(name + " offer of a full queue", q.offer(-1));
+		assertEquals(name + " size of a full queue", q.capacity(), q.size());
+		for(int i = 0; i < q.capacity() / 2; i ++) assertEquals(name + " pollLong in FIFO order", i, q.pollLong());
+		long[] values = new long[q.capacity()];
+		for(int i = 0; i < values.length; i ++) values[i] = q.capacity() + i;
+		assertEquals(name + " offerBatch fills the free slots only", q.capacity() / 2, q.offerBatch(values, 0, values.length));
+		long[] next = { q.capacity() / 2 };
+		assertEquals(name + " drain at most max", q.capacity(), q.drain(v -> assertEquals(name + " drained in queue order", next[0] ++, v), q.capacity()));
+		assertEquals(name + " drain of an empty queue", 0, q.drain(v -> fail(name + " drained " + v), 10));
+		q.put(7);
+		assertEquals(name + " takeLong of a put", 7, q.takeLong());
+		assertEquals(name + " size after all taken", 0, q.size());
+		long timeout = TimeUnit.MILLISECONDS.toNanos(20);
+		long t0 = System.nanoTime();
+		assertEquals(name + " pollLong of an empty queue with a timeout", nul, q.pollLong(timeout));
+		assertTrue(name + " waited for the timeout", System.nanoTime() - t0 >= timeout);
+		q.put(8);
+		assertEquals(name + " pollLong with a timeout", 8, q.pollLong(timeout));
+	}
+
+	static void singleThreaded(IIntQueue q) {
+		String name = q.getClass().getSimpleName();
+		int nul = q.getNullValue();
+		assertEquals(name + " capacity is rounded up to the minimum", 1024 * 8, q.capacity());
+		assertEquals(name + " pollInt of an empty queue", nul, q.pollInt());
+		assertThrows(name + " offer of nullValue", IllegalArgumentException.class, () -> q.offer(nul));
+		for(int i = 0; i < q.capacity(); i ++) assertTrue(name + " offer " + i, q.offer(i));
+		assertFalse(name + " offer of a full queue", q.offer(-1));
+		assertEquals(name + " size of a full queue", q.capacity(), q.size());
+		for(int i = 0; i < q.capacity() / 2; i ++) assertEquals(name + " pollInt in FIFO order", i, q.pollInt());
+		int[] values = new int[q.capacity()];
+		for(int i = 0; i < values.length; i ++) values[i] = q.capacity() + i;
+		assertEquals(name + " offerBatch fills the free slots only", q.capacity() / 2, q.offerBatch(values, 0, values.length));
+		int[] next = { q.capacity() / 2 };
+		assertEquals(name + " drain at most max", q.capacity(), q.drain(v -> assertEquals(name + " drained in queue order", next[0] ++, v), q.capacity()));
+		assertEquals(name + " drain of an empty queue", 0, q.drain(v -> fail(name + " drained " + v), 10));
+		q.put(7);
+		assertEquals(name + " takeInt of a put", 7, q.takeInt());
+		assertEquals(name + " size after all taken", 0, q.size());
+		long timeout = TimeUnit.MILLISECONDS.toNanos(20);
+		long t0 = System.nanoTime();
+		assertEquals(name + " pollInt of an empty queue with a timeout", nul, q.pollInt(timeout));
+		assertTrue(name + " waited for the timeout", System.nanoTime() - t0 >= timeout);
+		q.put(8);
+		assertEquals(name + " pollInt with a timeout", 8, q.pollInt(timeout));
+	}
+
+	static void nullValue() {
+		ILongQueue q = new ConcurrentLongQueue(1, -1, new BackoffParkWaitStrategy());
+		assertEquals("the given nullValue", -1, q.getNullValue());
+		assertEquals("pollLong of an empty queue returns the given nullValue", -1, q.pollLong());
+		assertTrue("Long.MIN_VALUE is a value when it isn't the nullValue", q.offer(Long.MIN_VALUE));
+		assertEquals("pollLong of Long.MIN_VALUE", Long.MIN_VALUE, q.pollLong());
+		assertThrows("offerBatch of the nullValue", IllegalArgumentException.class, () -> q.offerBatch(new long[] { 1, -1 }, 0, 2));
+		assertEquals("nothing put by a rejected offerBatch", 0, q.size());
+	}
+
+	/**
+	 * The value handed to a throwing consumer is taken, the values not handed yet stay in the queue in order.
+	 */
+	static void drainWithThrowingConsumer(ILongQueue q) {
+		String name = q.getClass().getSimpleName();
+		for(int i = 0; i < 10; i ++) q.offer(i);
+		assertThrows(name + " drain passes on the exception", IllegalStateException.class, () -> q.drain(v -> {
+			if(v == 3) throw new IllegalStateException();
+		}, 10));
+		assertEquals(name + " size after the throw", 6, q.size());
+		assertEquals(name + " pollLong of a value not handed", 4, q.pollLong());
+		q.offer(10);
+		long[] next = { 5 };
+		assertEquals(name + " drain the rest in queue order", 6, q.drain(v -> assertEquals(name + " drained in queue order", next[0] ++, v), 10));
+		assertEquals(name + " size after all drained", 0, q.size());
+	}
+
+	static void drainWithThrowingConsumer(IIntQueue q) {
+		String name = q.getClass().getSimpleName();
+		for(int i = 0; i < 10; i ++) q.offer(i);
+		assertThrows(name + " drain passes on the exception", IllegalStateException.class, () -> q.drain(v -> {
+			if(v == 3) throw new IllegalStateException();
+		}, 10));
+		assertEquals(name + " size after the throw", 6, q.size());
+		assertEquals(name + " pollInt of a value not handed", 4, q.pollInt());
+		q.offer(10);
+		int[] next = { 5 };
+		assertEquals(name + " drain the rest in queue order", 6, q.drain(v -> assertEquals(name + " drained in queue order", next[0] ++, v), 10));
+		assertEquals(name + " size after all drained", 0, q.size());
+	}
+
+	/**
+	 * Every value is taken exactly once and in the order it was put.
+	 * @param batch send with offerBatch() and receive with drain() instead of one by one
+	 */
+	static void oneProducerOneConsumer(ILongQueue q, boolean batch) throws InterruptedException {
+		String name = q.getClass().getSimpleName();
+		int total = PRODUCERS * PER_PRODUCER;
+		long[] next = { 0 };
+		LongConsumer check = v -> assertEquals(name + " taken in order", next[0] ++, v);
+		concurrently(() -> {
+			if(batch) {
+				long[] values = new long[BATCH];
+				for(int i = 0; i < total; i += BATCH) {
+					int len = Math.min(BATCH, total - i);
+					for(int j = 0; j < len; j ++) values[j] = i + j;
+					for(int from = 0; from < len; ) {
+						int n = q.offerBatch(values, from, len - from);
+						if(n == 0) Thread.yield();
+						from += n;
+					}
+				}
+			} else {
+				for(int i = 0; i < total; i ++) q.put(i);
+			}
+		}, () -> {
+			while(next[0] < total) {
+				if(batch) {
+					if(q.drain(check, BATCH) == 0) Thread.yield();
+				} else {
+					check.accept(q.takeLong());
+				}
+			}
+		});
+		assertEquals(name + " size after all taken", 0, q.size());
+	}
+
+	static void oneProducerOneConsumer(IIntQueue q, boolean batch) throws InterruptedException {
+		String name = q.getClass().getSimpleName();
+		int total = PRODUCERS * PER_PRODUCER;
+		int[] next = { 0 };
+		IntConsumer check = v -> assertEquals(name + " taken in order", next[0] ++, v);
+		concurrently(() -> {
+			if(batch) {
+				int[] values = new int[BATCH];
+				for(int i = 0; i < total; i += BATCH) {
+					int len = Math.min(BATCH, total - i);
+					for(int j = 0; j < len; j ++) values[j] = i + j;
+					for(int from = 0; from < len; ) {
+						int n = q.offerBatch(values, from, len - from);
+						if(n == 0) Thread.yield();
+						from += n;
+					}
+				}
+			} else {
+				for(int i = 0; i < total; i ++) q.put(i);
+			}
+		}, () -> {
+			while(next[0] < total) {
+				if(batch) {
+					if(q.drain(check, BATCH) == 0) Thread.yield();
+				} else {
+					check.accept(q.takeInt());
+				}
+			}
+		});
+		assertEquals(name + " size after all taken", 0, q.size());
+	}
+
+	/**
+	 * Every value is taken exactly once, and each receiver sees the values of a sender in the order they were put.
+	 * A value is the sender in the high bits and its sequence in the low 24 bits, so the same scheme fits an int.
+	 */
+	static void multiProducerMultiConsumer(ILongQueue q, boolean batch) throws InterruptedException {
+		String name = q.getClass().getSimpleName();
+		long total = (long) PRODUCERS * PER_PRODUCER;
+		AtomicLong received = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		Runnable[] tasks = new Runnable[PRODUCERS + CONSUMERS];
+		for(int p = 0; p < PRODUCERS; p ++) {
+			long base = (long) p << 24;
+			tasks[p] = () -> {
+				if(batch) {
+					long[] values = new long[BATCH];
+					for(int i = 0; i < PER_PRODUCER; i += BATCH) {
+						int len = Math.min(BATCH, PER_PRODUCER - i);
+						for(int j = 0; j < len; j ++) values[j] = base | (i + j);
+						for(int from = 0; from < len; ) {
+							int n = q.offerBatch(values, from, len - from);
+							if(n == 0) Thread.yield();
+							from += n;
+						}
+					}
+				} else {
+					for(int i = 0; i < PER_PRODUCER; i ++) q.put(base | i);
+				}
+			};
+		}
+		for(int c = 0; c < CONSUMERS; c ++) {
+			tasks[PRODUCERS + c] = () -> {
+				long[] last = new long[PRODUCERS];
+				Arrays.fill(last, -1);
+				LongConsumer check = v -> {
+					int producer = (int) (v >>> 24);
+					long seq = v & 0xFFFFFF;
+					assertTrue(name + " values of sender " + producer + " out of order", seq > last[producer]);
+					last[producer] = seq;
+					sum.addAndGet(seq);
+					received.incrementAndGet();
+				};
+				while(received.get() < total) {
+					if(batch) {
+						if(q.drain(check, BATCH) == 0) Thread.yield();
+					} else {
+						long v = q.pollLong();
+						if(v == q.getNullValue()) Thread.yield();
+						else check.accept(v);
+					}
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals(name + " received", total, received.get());
+		assertEquals(name + " sum of received", (long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sum.get());
+		assertEquals(name + " size after all taken", 0, q.size());
+	}
+
+	static void multiProducerMultiConsumer(IIntQueue q, boolean batch) throws InterruptedException {
+		String name = q.getClass().getSimpleName();
+		long total = (long) PRODUCERS * PER_PRODUCER;
+		AtomicLong received = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		Runnable[] tasks = new Runnable[PRODUCERS + CONSUMERS];
+		for(int p = 0; p < PRODUCERS; p ++) {
+			int base = p << 24;
+			tasks[p] = () -> {
+				if(batch) {
+					int[] values = new int[BATCH];
+					for(int i = 0; i < PER_PRODUCER; i += BATCH) {
+						int len = Math.min(BATCH, PER_PRODUCER - i);
+						for(int j = 0; j < len; j ++) values[j] = base | (i + j);
+						for(int from = 0; from < len; ) {
+							int n = q.offerBatch(values, from, len - from);
+							if(n == 0) Thread.yield();
+							from += n;
+						}
+					}
+				} else {
+					for(int i = 0; i < PER_PRODUCER; i ++) q.put(base | i);
+				}
+			};
+		}
+		for(int c = 0; c < CONSUMERS; c ++) {
+			tasks[PRODUCERS + c] = () -> {
+				int[] last = new int[PRODUCERS];
+				Arrays.fill(last, -1);
+				IntConsumer check = v -> {
+					int producer = v >>> 24;
+					int seq = v & 0xFFFFFF;
+					assertTrue(name + " values of sender " + producer + " out of order", seq > last[producer]);
+					last[producer] = seq;
+					sum.addAndGet(seq);
+					received.incrementAndGet();
+				};
+				while(received.get() < total) {
+					if(batch) {
+						if(q.drain(check, BATCH) == 0) Thread.yield();
+					} else {
+						int v = q.pollInt();
+						if(v == q.getNullValue()) Thread.yield();
+						else check.accept(v);
+					}
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals(name + " received", total, received.get());
+		assertEquals(name + " sum of received", (long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sum.get());
+		assertEquals(name + " size after all taken", 0, q.size());
+	}
+}
@@ -0,0 +1,150 @@
+package org.theultra.tachyon.queue;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+
+/**
+ * @author lofint
+ */
+public class QueueMetricsTest {
+	static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(20);
+
+	public static void main(String[] args) throws Exception {
+		disabledByDefault();
+		concurrentQueue();
+		simpleBlockingQueue();
+		sharedByName();
+		nameRequired();
+		waitHistogram();
+		System.out.println("QueueMetricsTest passed");
+	}
+
+	static void disabledByDefault() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1);
+		q.setName("QueueMetricsTest.disabled");
+		assertNull("metrics before enableMetrics()", q.getMetrics());
+		q.poll();
+		assertNull("nothing registered by a disabled queue", QueueMetrics.get("QueueMetricsTest.disabled"));
+	}
+
+	static void concurrentQueue() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1);
+		q.setName("QueueMetricsTest.concurrent");
+		QueueMetrics metrics = q.enableMetrics();
+		assertTrue("enableMetrics() returns the metrics of the queue", metrics == q.getMetrics());
+		check(metrics, new Ops() {
+			public boolean offer(int v) { return q.offer(v); }
+			public boolean offer(int v, long nanoTimeout) { return q.offer(v, nanoTimeout); }
+			public Integer poll() { return q.poll(); }
+			public Integer poll(long nanoTimeout) { return q.poll(nanoTimeout); }
+			public int capacity() { return q.capacity(); }
+		});
+		q.disableMetrics();
+		assertNull("metrics after disableMetrics()", q.getMetrics());
+		q.poll();
+		assertEquals("nothing recorded after disableMetrics()", 3, metrics.getFailedPolls());
+	}
+
+	static void simpleBlockingQueue() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		q.setName("QueueMetricsTest.simple");
+		QueueMetrics metrics = q.enableMetrics();
+		check(metrics, new Ops() {
+			public boolean offer(int v) { return q.offer(v); }
+			public boolean offer(int v, long nanoTimeout) { return q.offer(v, nanoTimeout); }
+			public Integer poll() { return q.poll(); }
+			public Integer poll(long nanoTimeout) { return q.poll(nanoTimeout); }
+			public int capacity() { return q.capacity(); }
+		});
+		assertEquals("no CAS in a single-producer/single-consumer queue", 0, metrics.getCasRetries());
+	}
+
+	interface Ops {
+		boolean offer(int v);
+		boolean offer(int v, long nanoTimeout);
+		Integer poll();
+		Integer poll(long nanoTimeout);
+		int capacity();
+	}
+
+	/**
+	 * A timed out offer or poll records one failure however often it has retried, and one wait.
+	 */
+	static void check(QueueMetrics metrics, Ops q) {
+		assertNull("poll of an empty queue", q.poll());
+		assertEquals("failed poll", 1, metrics.getFailedPolls());
+		assertNull("timed poll of an empty queue", q.poll(TIMEOUT));
+		assertEquals("one failed poll per timed out poll", 2, metrics.getFailedPolls());
+		assertEquals("one wait per timed out poll", 1, metrics.getWaits());
+		assertTrue("the timed out poll has idled", metrics.getParks() > 0);
+		for(int i = 0; i < q.capacity(); i ++) q.offer(i);
+		assertEquals("high-water mark sampled while filling", q.capacity() - QueueMetrics.OCCUPANCY_SAMPLE_MASK, metrics.getHighWaterMark());
+		assertFalse("offer of a full queue", q.offer(-1));
+		assertEquals("failed offer", 1, metrics.getFailedOffers());
+		assertFalse("timed offer of a full queue", q.offer(-1, TIMEOUT));
+		assertEquals("one failed offer per timed out offer", 2, metrics.getFailedOffers());
+		assertEquals("one wait per timed out offer", 2, metrics.getWaits());
+		for(int i = 0; i < q.capacity(); i ++) q.poll();
+		assertEquals("no failed poll while not empty", 2, metrics.getFailedPolls());
+		q.poll();
+		assertEquals("failed poll after all polled", 3, metrics.getFailedPolls());
+		assertTrue("waits are in the histogram", sum(metrics.getWaitHistogram()) == metrics.getWaits());
+	}
+
+	static void sharedByName() {
+		ConcurrentQueue<Integer> a = new ConcurrentQueue<Integer>(1);
+		SimpleBlockingQueue<Integer> b = new SimpleBlockingQueue<Integer>(1);
+		a.setName("QueueMetricsTest.shared");
+		b.setName("QueueMetricsTest.shared");
+		QueueMetrics metrics = a.enableMetrics();
+		assertTrue("queues of the same name share their metrics", metrics == b.enableMetrics());
+		assertTrue("the metrics are registered by name", metrics == QueueMetrics.get("QueueMetricsTest.shared"));
+		assertTrue("all() contains the metrics", QueueMetrics.all().contains(metrics));
+		a.poll();
+		b.poll();
+		assertEquals("failed polls of both queues", 2, metrics.getFailedPolls());
+		metrics.reset();
+		assertEquals("failed polls after reset()", 0, metrics.getFailedPolls());
+		assertTrue("remove() returns the metrics", metrics == QueueMetrics.remove("QueueMetricsTest.shared"));
+		assertNull("unregistered", QueueMetrics.get("QueueMetricsTest.shared"));
+		assertFalse("all() without the removed metrics", QueueMetrics.all().contains(metrics));
+		a.poll();
+		assertEquals("a queue records into removed metrics until disabled", 1, metrics.getFailedPolls());
+		assertFalse("a later enableMetrics() registers new metrics", metrics == b.enableMetrics());
+		assertNull("remove() of a name not registered", QueueMetrics.remove("QueueMetricsTest.none"));
+	}
+
+	static void nameRequired() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1);
+		assertEquals("default name", QueueMetrics.UNNAMED, q.getName());
+		assertThrows("enableMetrics() of an unnamed queue", IllegalArgumentException.class, () -> q.enableMetrics());
+		assertThrows("enableMetrics() of an unnamed queue", IllegalArgumentException.class, () -> new SimpleBlockingQueue<Integer>(1).enableMetrics());
+		assertNull("metrics of an unnamed queue", q.getMetrics());
+		q.setName(null);
+		assertThrows("enableMetrics() of a null name", NullPointerException.class, () -> q.enableMetrics());
+	}
+
+	static void waitHistogram() {
+		QueueMetrics metrics = QueueMetrics.of("QueueMetricsTest.histogram");
+		metrics.recordWait(1, 0);
+		metrics.recordWait(2, 1000);
+		metrics.recordWait(3, Long.MAX_VALUE);
+		long[] h = metrics.getWaitHistogram();
+		assertEquals("a wait of 0ns in bucket 0", 1, h[0]);
+		assertEquals("a wait of 1000ns in bucket 9", 1, h[9]);
+		assertEquals("a very long wait in the last bucket", 1, h[QueueMetrics.WAIT_BUCKETS - 1]);
+		assertEquals("parks", 6, metrics.getParks());
+		metrics.recordOccupancy(10);
+		metrics.recordOccupancy(5);
+		assertEquals("high-water mark", 10, metrics.getHighWaterMark());
+	}
+
+	static long sum(long[] a) {
+		long r = 0;
+		for(long v : a) r += v;
+		return r;
+	}
+}
@@ -0,0 +1,106 @@
+package org.theultra.tachyon.queue;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author lofint
+ */
+public class SimpleBlockingQueueTest {
+	static final int COUNT = 1000000;
+
+	public static void main(String[] args) throws Exception {
+		singleThreaded();
+		wrapAround();
+		batch();
+		drainWithThrowingConsumer();
+		producerConsumer();
+		System.out.println("SimpleBlockingQueueTest passed");
+	}
+
+	static void singleThreaded() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		assertEquals("capacity is rounded up to the minimum", 1024 * 8, q.capacity());
+		assertNull("poll of an empty queue", q.poll());
+		assertEquals("size of an empty queue", 0, q.size());
+		assertThrows("offer of null", NullPointerException.class, () -> q.offer(null));
+		for(int i = 0; i < q.capacity(); i ++) {
+			assertTrue("offer " + i + " of a queue which isn't full", q.offer(i));
+		}
+		assertFalse("offer of a full queue", q.offer(-1));
+		assertEquals("size of a full queue", q.capacity(), q.size());
+		for(int i = 0; i < q.capacity(); i ++) {
+			assertEquals("poll in FIFO order", Integer.valueOf(i), q.poll());
+		}
+		assertNull("poll after all polled", q.poll());
+		q.put(7);
+		assertEquals("take of a put", Integer.valueOf(7), q.take());
+	}
+
+	static void wrapAround() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		int next = 0, expected = 0;
+		for(int lap = 0; lap < 5; lap ++) {
+			for(int i = 0; i < q.capacity() * 3 / 4; i ++) assertTrue("offer across laps", q.offer(next ++));
+			while(q.size() > 0) assertEquals("poll across laps", Integer.valueOf(expected ++), q.poll());
+		}
+		assertEquals("all polled", next, expected);
+	}
+
+	static void batch() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		Integer[] items = new Integer[q.capacity() + 10];
+		for(int i = 0; i < items.length; i ++) items[i] = i;
+		assertEquals("offerBatch of an empty range", 0, q.offerBatch(items, 0, 0));
+		assertEquals("offerBatch fills the free slots only", q.capacity(), q.offerBatch(items, 0, items.length));
+		assertEquals("offerBatch of a full queue", 0, q.offerBatch(items, 0, 1));
+		List<Integer> drained = new ArrayList<Integer>();
+		assertEquals("drain of max 0", 0, q.drain(drained::add, 0));
+		assertEquals("drain at most max", 100, q.drain(drained::add, 100));
+		assertEquals("drainTo the rest", q.capacity() - 100, q.drainTo(drained, Integer.MAX_VALUE));
+		for(int i = 0; i < drained.size(); i ++) assertEquals("drained in queue order", Integer.valueOf(i), drained.get(i));
+		assertEquals("drain of an empty queue", 0, q.drain(drained::add, 10));
+		assertEquals("offerBatch of a sub range", 3, q.offerBatch(items, 5, 3));
+		assertEquals("poll the first of the sub range", Integer.valueOf(5), q.poll());
+	}
+
+	/**
+	 * The object handed to a throwing consumer is taken, the objects not handed yet stay in the queue in order.
+	 */
+	static void drainWithThrowingConsumer() {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		for(int i = 0; i < 10; i ++) q.offer(i);
+		List<Integer> drained = new ArrayList<Integer>();
+		assertThrows("drain passes on the exception", IllegalStateException.class, () -> q.drain(v -> {
+			drained.add(v);
+			if(v == 3) throw new IllegalStateException();
+		}, 10));
+		assertEquals("handed to the consumer", 4, drained.size());
+		assertEquals("size after the throw", 6, q.size());
+		assertEquals("poll after the throw", Integer.valueOf(4), q.poll());
+		drained.clear();
+		assertEquals("drainTo the rest", 5, q.drainTo(drained, 10));
+		for(int i = 0; i < drained.size(); i ++) assertEquals("drained in queue order", Integer.valueOf(5 + i), drained.get(i));
+	}
+
+	/**
+	 * One sender and one receiver, the contract of the queue: every object is taken once and in order.
+	 */
+	static void producerConsumer() throws InterruptedException {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1);
+		long[] sum = new long[1];
+		concurrently(() -> {
+			for(int i = 0; i < COUNT; i ++) q.put(i);
+		}, () -> {
+			for(int i = 0; i < COUNT; i ++) {
+				int v = q.take();
+				if(v != i) fail("took " + v + " but expected " + i);
+				sum[0] += v;
+			}
+		});
+		assertEquals("sum of taken", (long) COUNT * (COUNT - 1) / 2, sum[0]);
+		assertEquals("size after all taken", 0, q.size());
+	}
+}
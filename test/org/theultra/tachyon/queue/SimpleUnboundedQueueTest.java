@@ -0,0 +1,129 @@
+package org.theultra.tachyon.queue;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @author lofint
+ */
+public class SimpleUnboundedQueueTest {
+	static final int COUNT = 1000000;
+	static final int BATCH = 64;
+
+	public static void main(String[] args) throws Exception {
+		singleThreaded();
+		acrossChunks();
+		batch();
+		drainWithThrowingConsumer();
+		timedPoll();
+		producerConsumer(false);
+		producerConsumer(true);
+		System.out.println("SimpleUnboundedQueueTest passed");
+	}
+
+	static void singleThreaded() {
+		SimpleUnboundedQueue<Integer> q = new SimpleUnboundedQueue<Integer>(1);
+		assertEquals("chunk size is rounded up to the minimum", 16, q.chunkSize());
+		assertNull("poll of an empty queue", q.poll());
+		assertEquals("size of an empty queue", 0, q.size());
+		assertThrows("offer of null", NullPointerException.class, () -> q.offer(null));
+		q.put(7);
+		assertEquals("size after a put", 1, q.size());
+		assertEquals("take of a put", Integer.valueOf(7), q.take());
+		assertNull("poll after all taken", q.poll());
+	}
+
+	/**
+	 * The queue grows past any chunk and keeps FIFO order while chunks are appended and reused.
+	 */
+	static void acrossChunks() {
+		SimpleUnboundedQueue<Integer> q = new SimpleUnboundedQueue<Integer>(16);
+		int next = 0, expected = 0;
+		for(int i = 0; i < 16 * 50; i ++) assertTrue("offer never fails", q.offer(next ++));
+		assertEquals("size of many chunks", 16 * 50, q.size());
+		for(int lap = 0; lap < 20; lap ++) {
+			for(int i = 0; i < 37; i ++) q.offer(next ++);
+			for(int i = 0; i < 41 && q.size() > 0; i ++) assertEquals("poll across chunks", Integer.valueOf(expected ++), q.poll());
+		}
+		while(q.size() > 0) assertEquals("poll the rest", Integer.valueOf(expected ++), q.poll());
+		assertEquals("all polled", next, expected);
+		assertNull("poll after all polled", q.poll());
+	}
+
+	static void batch() {
+		SimpleUnboundedQueue<Integer> q = new SimpleUnboundedQueue<Integer>(16);
+		Integer[] items = new Integer[100];
+		for(int i = 0; i < items.length; i ++) items[i] = i;
+		assertEquals("offerBatch of an empty range", 0, q.offerBatch(items, 0, 0));
+		assertEquals("offerBatch of a negative len", 0, q.offerBatch(items, 0, -1));
+		assertEquals("offerBatch puts the whole range", 100, q.offerBatch(items, 0, 100));
+		Integer[] withNull = { 1, null };
+		assertThrows("offerBatch of null", NullPointerException.class, () -> q.offerBatch(withNull, 0, 2));
+		assertEquals("nothing put by a rejected offerBatch", 100, q.size());
+		List<Integer> drained = new ArrayList<Integer>();
+		assertEquals("drain of max 0", 0, q.drain(drained::add, 0));
+		assertEquals("drain at most max", 30, q.drain(drained::add, 30));
+		assertEquals("drainTo the rest", 70, q.drainTo(drained, Integer.MAX_VALUE));
+		for(int i = 0; i < drained.size(); i ++) assertEquals("drained in queue order", Integer.valueOf(i), drained.get(i));
+		assertEquals("drain of an empty queue", 0, q.drain(drained::add, 10));
+	}
+
+	/**
+	 * The object handed to a throwing consumer is taken, the objects not handed yet stay in the queue in order.
+	 */
+	static void drainWithThrowingConsumer() {
+		SimpleUnboundedQueue<Integer> q = new SimpleUnboundedQueue<Integer>(16);
+		for(int i = 0; i < 40; i ++) q.offer(i);
+		assertThrows("drain passes on the exception", IllegalStateException.class, () -> q.drain(v -> {
+			if(v == 20) throw new IllegalStateException();
+		}, 40));
+		assertEquals("size after the throw", 19, q.size());
+		assertEquals("poll of an object not handed", Integer.valueOf(21), q.poll());
+	}
+
+	static void timedPoll() {
+		SimpleUnboundedQueue<Integer> q = new SimpleUnboundedQueue<Integer>(16);
+		long start = System.nanoTime();
+		assertNull("timed poll of an empty queue", q.poll(TimeUnit.MILLISECONDS.toNanos(20)));
+		assertTrue("timed poll waits for the timeout", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		q.offer(5);
+		assertEquals("timed poll of a queue which isn't empty", Integer.valueOf(5), q.poll(TimeUnit.MILLISECONDS.toNanos(20)));
+		q.offer(6);
+		assertEquals("poll without timeout", Integer.valueOf(6), q.poll(0));
+	}
+
+	/**
+	 * Every object is taken exactly once and in the order it was put.
+	 * @param batch send with offerBatch() and receive with drain() instead of one by one
+	 */
+	static void producerConsumer(boolean batch) throws InterruptedException {
+		SimpleUnboundedQueue<Integer> q = new SimpleUnboundedQueue<Integer>(64);
+		int[] next = { 0 };
+		Consumer<Integer> check = v -> assertEquals("taken in order", Integer.valueOf(next[0] ++), v);
+		concurrently(() -> {
+			if(batch) {
+				Integer[] items = new Integer[BATCH];
+				for(int i = 0; i < COUNT; i += BATCH) {
+					int len = Math.min(BATCH, COUNT - i);
+					for(int j = 0; j < len; j ++) items[j] = i + j;
+					q.offerBatch(items, 0, len);
+				}
+			} else {
+				for(int i = 0; i < COUNT; i ++) q.put(i);
+			}
+		}, () -> {
+			while(next[0] < COUNT) {
+				if(batch) {
+					if(q.drain(check, BATCH) == 0) Thread.yield();
+				} else {
+					check.accept(q.take());
+				}
+			}
+		});
+		assertEquals("size after all taken", 0, q.size());
+	}
+}
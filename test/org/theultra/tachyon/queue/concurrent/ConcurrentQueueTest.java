@@ -0,0 +1,170 @@
+package org.theultra.tachyon.queue.concurrent;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * @author lofint
+ */
+public class ConcurrentQueueTest {
+	static final int PRODUCERS = 4;
+	static final int CONSUMERS = 4;
+	static final int PER_PRODUCER = 100000;
+	static final int BATCH = 64;
+
+	public static void main(String[] args) throws Exception {
+		singleThreaded();
+		wrapAround();
+		batch();
+		drainWithThrowingConsumer();
+		multiProducerMultiConsumer(false);
+		multiProducerMultiConsumer(true);
+		System.out.println("ConcurrentQueueTest passed");
+	}
+
+	static void singleThreaded() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1);
+		assertEquals("capacity is rounded up to the minimum", 1024 * 8, q.capacity());
+		assertNull("poll of an empty queue", q.poll());
+		assertEquals("size of an empty queue", 0, q.size());
+		assertThrows("offer of null", NullPointerException.class, () -> q.offer(null));
+		for(int i = 0; i < q.capacity(); i ++) {
+			assertTrue("offer " + i + " of a queue which isn't full", q.offer(i));
+		}
+		assertFalse("offer of a full queue", q.offer(-1));
+		assertEquals("size of a full queue", q.capacity(), q.size());
+		for(int i = 0; i < q.capacity(); i ++) {
+			assertEquals("poll in FIFO order", Integer.valueOf(i), q.poll());
+		}
+		assertNull("poll after all polled", q.poll());
+		q.put(7);
+		assertEquals("take of a put", Integer.valueOf(7), q.take());
+	}
+
+	static void wrapAround() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1);
+		int next = 0, expected = 0;
+		for(int lap = 0; lap < 5; lap ++) {
+			for(int i = 0; i < q.capacity() * 3 / 4; i ++) assertTrue("offer across laps", q.offer(next ++));
+			while(q.size() > 0) assertEquals("poll across laps", Integer.valueOf(expected ++), q.poll());
+		}
+		assertEquals("all polled", next, expected);
+	}
+
+	static void batch() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1);
+		Integer[] items = new Integer[q.capacity() + 10];
+		for(int i = 0; i < items.length; i ++) items[i] = i;
+		assertEquals("offerBatch of an empty range", 0, q.offerBatch(items, 0, 0));
+		assertEquals("offerBatch fills the free slots only", q.capacity(), q.offerBatch(items, 0, items.length));
+		assertEquals("offerBatch of a full queue", 0, q.offerBatch(items, 0, 1));
+		List<Integer> drained = new ArrayList<Integer>();
+		assertEquals("drain of max 0", 0, q.drain(drained::add, 0));
+		assertEquals("drain at most max", 100, q.drain(drained::add, 100));
+		assertEquals("drainTo the rest", q.capacity() - 100, q.drainTo(drained, Integer.MAX_VALUE));
+		for(int i = 0; i < drained.size(); i ++) assertEquals("drained in queue order", Integer.valueOf(i), drained.get(i));
+		assertEquals("drain of an empty queue", 0, q.drain(drained::add, 10));
+		assertEquals("offerBatch of a sub range", 3, q.offerBatch(items, 5, 3));
+		assertEquals("poll the first of the sub range", Integer.valueOf(5), q.poll());
+		Integer[] withNull = { 1, null };
+		assertThrows("offerBatch of null", NullPointerException.class, () -> q.offerBatch(withNull, 0, 2));
+	}
+
+	/**
+	 * The object handed to a throwing consumer is taken, the claimed objects not handed yet stay in the queue in order.
+	 */
+	static void drainWithThrowingConsumer() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1);
+		for(int i = 0; i < 10; i ++) q.offer(i);
+		List<Integer> drained = new ArrayList<Integer>();
+		assertThrows("drain passes on the exception", IllegalStateException.class, () -> q.drain(v -> {
+			drained.add(v);
+			if(v == 3) throw new IllegalStateException();
+		}, 10));
+		assertEquals("handed to the consumer", 4, drained.size());
+		assertEquals("size after the throw", 6, q.size());
+		assertEquals("poll of a put back object", Integer.valueOf(4), q.poll());
+		q.offer(10);
+		drained.clear();
+		assertEquals("drain the put back objects, then the ring", 3, q.drain(drained::add, 3));
+		assertEquals("drain across the put back objects and the ring", 3, q.drainTo(drained, 10));
+		for(int i = 0; i < drained.size(); i ++) assertEquals("drained in queue order", Integer.valueOf(5 + i), drained.get(i));
+		assertEquals("size after all drained", 0, q.size());
+		//the put back objects count against the capacity
+		for(int i = 0; i < q.capacity(); i ++) assertTrue("offer to a queue not full", q.offer(i));
+		assertThrows("drain passes on the exception", IllegalStateException.class, () -> q.drain(v -> {
+			throw new IllegalStateException();
+		}, q.capacity()));
+		assertEquals("size with the put back objects", q.capacity() - 1, q.size());
+		assertTrue("offer into the one free place", q.offer(-1));
+		assertFalse("offer to a queue full of put back objects", q.offer(-2));
+		Integer[] two = {-3, -4};
+		assertEquals("offerBatch to a queue full of put back objects", 0, q.offerBatch(two, 0, 2));
+		assertEquals("size bounded by the capacity", q.capacity(), q.size());
+		q.poll();
+		assertEquals("offerBatch into the one free place", 1, q.offerBatch(two, 0, 2));
+	}
+
+	/**
+	 * Every object is taken exactly once, and each receiver sees the objects of a sender in the order they were put.
+	 * @param batch send with offerBatch() and receive with drain() instead of one by one
+	 */
+	static void multiProducerMultiConsumer(boolean batch) throws InterruptedException {
+		ConcurrentQueue<Long> q = new ConcurrentQueue<Long>(1);
+		long total = (long) PRODUCERS * PER_PRODUCER;
+		AtomicLong received = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		Runnable[] tasks = new Runnable[PRODUCERS + CONSUMERS];
+		for(int p = 0; p < PRODUCERS; p ++) {
+			long base = (long) p << 32;
+			tasks[p] = () -> {
+				if(batch) {
+					Long[] items = new Long[BATCH];
+					for(int i = 0; i < PER_PRODUCER; i += BATCH) {
+						int len = Math.min(BATCH, PER_PRODUCER - i);
+						for(int j = 0; j < len; j ++) items[j] = base | (i + j);
+						for(int from = 0; from < len; ) {
+							int n = q.offerBatch(items, from, len - from);
+							if(n == 0) Thread.yield();
+							from += n;
+						}
+					}
+				} else {
+					for(int i = 0; i < PER_PRODUCER; i ++) q.put(base | i);
+				}
+			};
+		}
+		for(int c = 0; c < CONSUMERS; c ++) {
+			tasks[PRODUCERS + c] = () -> {
+				long[] last = new long[PRODUCERS];
+				Arrays.fill(last, -1);
+				Consumer<Long> check = v -> {
+					int producer = (int) (v >>> 32);
+					long seq = v & 0xFFFFFFFFL;
+					assertTrue("objects of sender " + producer + " out of order", seq > last[producer]);
+					last[producer] = seq;
+					sum.addAndGet(seq);
+					received.incrementAndGet();
+				};
+				while(received.get() < total) {
+					if(batch) {
+						if(q.drain(check, BATCH) == 0) Thread.yield();
+					} else {
+						Long v = q.poll();
+						if(v == null) Thread.yield();
+						else check.accept(v);
+					}
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals("received", total, received.get());
+		assertEquals("sum of received", (long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sum.get());
+		assertEquals("size after all taken", 0, q.size());
+	}
+}
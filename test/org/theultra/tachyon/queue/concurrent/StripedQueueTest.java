@@ -0,0 +1,150 @@
+package org.theultra.tachyon.queue.concurrent;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.queue.concurrent.StripedQueue.Lane;
+
+/**
+ * @author lofint
+ */
+public class StripedQueueTest {
+	static final int PRODUCERS = 4;
+	static final int CONSUMERS = 4;
+	static final int PER_PRODUCER = 100000;
+	static final int BATCH = 64;
+
+	public static void main(String[] args) throws Exception {
+		laneCapacity();
+		singleThreaded();
+		registeredLanes();
+		deadSender();
+		multiProducerMultiConsumer(false);
+		multiProducerMultiConsumer(true);
+		System.out.println("StripedQueueTest passed");
+	}
+
+	static void laneCapacity() {
+		assertEquals("default lane capacity", 1024 * 8, new StripedQueue<Integer>().laneCapacity());
+		assertEquals("capacity shared out among the lanes", 1024 * 64, new StripedQueue<Integer>(1024 * 256, 4).laneCapacity());
+		assertEquals("lane capacity rounded up to a power of 2", 1024 * 64, new StripedQueue<Integer>(1024 * 200, 4).laneCapacity());
+		assertEquals("lane capacity no less than the minimum", 1024 * 8, new StripedQueue<Integer>(1024, 64).laneCapacity());
+		assertThrows("no lanes", IllegalArgumentException.class, () -> new StripedQueue<Integer>(1024, 0));
+	}
+
+	static void singleThreaded() {
+		StripedQueue<Integer> q = new StripedQueue<Integer>(1, 1);
+		assertEquals("no lane before the first put", 0, q.lanes());
+		assertNull("poll of an empty queue", q.poll());
+		for(int i = 0; i < q.laneCapacity(); i ++) assertTrue("offer " + i + " of a lane which isn't full", q.offer(i));
+		assertEquals("one lane for the thread", 1, q.lanes());
+		assertFalse("offer of a full lane", q.offer(-1));
+		assertEquals("size of a full lane", q.laneCapacity(), q.size());
+		for(int i = 0; i < q.laneCapacity(); i ++) assertEquals("poll in FIFO order", Integer.valueOf(i), q.poll());
+		assertNull("poll after all polled", q.poll());
+		Integer[] items = { 0, 1, 2, 3, 4 };
+		assertEquals("offerBatch", 5, q.offerBatch(items, 0, 5));
+		List<Integer> drained = new ArrayList<Integer>();
+		assertEquals("drain at most max", 2, q.drain(drained::add, 2));
+		assertEquals("drainTo the rest", 3, q.drainTo(drained, 10));
+		assertEquals("drained", Arrays.asList(items), drained);
+		q.put(7);
+		assertEquals("take of a put", Integer.valueOf(7), q.take());
+		assertEquals("still one lane for the thread", 1, q.lanes());
+	}
+
+	/**
+	 * A registered lane is read like a thread lane and dropped once it is closed and empty.
+	 */
+	static void registeredLanes() {
+		StripedQueue<Integer> q = new StripedQueue<Integer>(1, 1);
+		Lane<Integer> a = q.register();
+		Lane<Integer> b = q.register();
+		assertEquals("registered lanes", 2, q.lanes());
+		a.put(1);
+		a.put(2);
+		b.put(10);
+		List<Integer> drained = new ArrayList<Integer>();
+		assertEquals("drain both lanes", 3, q.drainTo(drained, 10));
+		assertTrue("the objects of a lane in order", drained.indexOf(1) < drained.indexOf(2));
+		a.put(3);
+		a.close();
+		assertEquals("a closed lane is read until it is empty", Integer.valueOf(3), q.poll());
+		assertNull("poll after all polled", q.poll());
+		assertEquals("the closed and empty lane is dropped", 1, q.lanes());
+	}
+
+	static void deadSender() throws InterruptedException {
+		StripedQueue<Integer> q = new StripedQueue<Integer>(1, 1);
+		Thread t = new Thread(() -> q.put(42));
+		t.start();
+		t.join();
+		assertEquals("the lane of the sender", 1, q.lanes());
+		assertEquals("the object of a dead sender is still taken", Integer.valueOf(42), q.poll());
+		assertNull("poll after all polled", q.poll());
+		assertEquals("the lane of the dead sender is dropped", 0, q.lanes());
+	}
+
+	/**
+	 * Every object is taken exactly once, and each receiver sees the objects of a sender in the order they were put.
+	 * @param batch send with offerBatch() and receive with drain() instead of one by one
+	 */
+	static void multiProducerMultiConsumer(boolean batch) throws InterruptedException {
+		StripedQueue<Long> q = new StripedQueue<Long>(1, PRODUCERS);
+		long total = (long) PRODUCERS * PER_PRODUCER;
+		AtomicLong received = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		Runnable[] tasks = new Runnable[PRODUCERS + CONSUMERS];
+		for(int p = 0; p < PRODUCERS; p ++) {
+			long base = (long) p << 32;
+			tasks[p] = () -> {
+				if(batch) {
+					Long[] items = new Long[BATCH];
+					for(int i = 0; i < PER_PRODUCER; i += BATCH) {
+						int len = Math.min(BATCH, PER_PRODUCER - i);
+						for(int j = 0; j < len; j ++) items[j] = base | (i + j);
+						for(int from = 0; from < len; ) {
+							int n = q.offerBatch(items, from, len - from);
+							if(n == 0) Thread.yield();
+							from += n;
+						}
+					}
+				} else {
+					for(int i = 0; i < PER_PRODUCER; i ++) q.put(base | i);
+				}
+			};
+		}
+		for(int c = 0; c < CONSUMERS; c ++) {
+			tasks[PRODUCERS + c] = () -> {
+				long[] last = new long[PRODUCERS];
+				Arrays.fill(last, -1);
+				Consumer<Long> check = v -> {
+					int producer = (int) (v >>> 32);
+					long seq = v & 0xFFFFFFFFL;
+					assertTrue("objects of sender " + producer + " out of order", seq > last[producer]);
+					last[producer] = seq;
+					sum.addAndGet(seq);
+					received.incrementAndGet();
+				};
+				while(received.get() < total) {
+					if(batch) {
+						if(q.drain(check, BATCH) == 0) Thread.yield();
+					} else {
+						Long v = q.poll();
+						if(v == null) Thread.yield();
+						else check.accept(v);
+					}
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals("received", total, received.get());
+		assertEquals("sum of received", (long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sum.get());
+		assertEquals("size after all taken", 0, q.size());
+	}
+}
@@ -0,0 +1,172 @@
+package org.theultra.tachyon.queue.ipc;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author lofint
+ */
+public class MappedQueueTest {
+	static final int MESSAGES = 200000;
+
+	public static void main(String[] args) throws Exception {
+		offerAndPoll();
+		wrapAround();
+		reopen();
+		invalidFiles();
+		producerAndConsumer();
+		System.out.println("MappedQueueTest passed");
+	}
+
+	static Path newFile() throws IOException {
+		Path file = Files.createTempFile("MappedQueueTest", ".queue");
+		Files.delete(file);
+		file.toFile().deleteOnExit();
+		return file;
+	}
+
+	static ByteBuffer message(long v, int length) {
+		ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.nativeOrder());
+		for(int i = 0; i + 8 <= length; i += 8) b.putLong(i, v);
+		return b;
+	}
+
+	static void offerAndPoll() throws IOException {
+		try(MappedQueue q = MappedQueue.open(newFile(), 1)) {
+			assertEquals("minimum capacity", 4096, q.capacity());
+			assertEquals("max message length", 512, q.maxMessageLength());
+			assertFalse("poll of an empty queue", q.poll(b -> fail("handled a message of an empty queue")));
+			assertTrue("offer", q.offer(message(7, 16)));
+			assertTrue("offer in place", q.offer(8, b -> b.putLong(0, 8)));
+			assertTrue("offer of an empty message", q.offer(ByteBuffer.allocate(0)));
+			assertEquals("size with headers and alignment", 24 + 16 + 8, q.size());
+			assertTrue("poll", q.poll(b -> {
+				assertEquals("length", 16, b.remaining());
+				assertEquals("payload", 7, b.getLong(8));
+				assertTrue("read-only", b.isReadOnly());
+			}));
+			assertTrue("poll of the message written in place", q.poll(b -> assertEquals("payload", 8, b.getLong(0))));
+			assertTrue("poll of the empty message", q.poll(b -> assertEquals("length", 0, b.remaining())));
+			assertEquals("empty", 0, q.size());
+			assertThrows("too long", IllegalArgumentException.class, () -> q.offer(ByteBuffer.allocate(513)));
+		}
+		try(MappedQueue q = MappedQueue.open(newFile(), 4096)) {
+			int n = 0;
+			while(q.offer(message(n, 504))) n ++;
+			assertEquals("full after capacity / (4 + 504) messages", 4096 / 512, n);
+			assertFalse("offer of a full queue", q.offer(message(0, 8)));
+			assertEquals("drain at most max", 3, q.drain(b -> {}, 3));
+			assertEquals("drain the rest", n - 3, q.drain(b -> {}, 100));
+		}
+	}
+
+	/**
+	 * Messages which don't fit before the end of the ring are written at its start.
+	 */
+	static void wrapAround() throws IOException {
+		try(MappedQueue q = MappedQueue.open(newFile(), 4096)) {
+			long[] expected = { 0 };
+			for(long v = 0; v < 10000; v ++) {
+				int length = (int) (v * 37 % 500) & ~7;
+				q.put(message(v, length));
+				if(v % 3 == 2) {
+					while(q.poll(b -> {
+						if(b.remaining() >= 8) assertEquals("payload", expected[0], b.getLong(0));
+						expected[0] ++;
+					}));
+				}
+			}
+			while(q.poll(b -> expected[0] ++));
+			assertEquals("every message polled once", 10000, expected[0]);
+		}
+	}
+
+	/**
+	 * A queue which is opened again resumes after the last message taken.
+	 */
+	static void reopen() throws IOException {
+		Path file = newFile();
+		try(MappedQueue q = MappedQueue.open(file, 8192)) {
+			for(int i = 0; i < 5; i ++) q.offer(message(i, 8));
+			q.poll(b -> {});
+		}
+		try(MappedQueue q = MappedQueue.open(file, 1)) {
+			assertEquals("the capacity of the file", 8192, q.capacity());
+			long[] next = { 1 };
+			assertEquals("the messages left", 4, q.drain(b -> assertEquals("payload", next[0] ++, b.getLong(0)), 100));
+		}
+	}
+
+	static void invalidFiles() throws IOException {
+		Path file = newFile();
+		Files.write(file, new byte[1024]);
+		assertOpenFails("not a queue file", file);
+		file = newFile();
+		MappedQueue.open(file, 4096).close();
+		writeCapacity(file, 3000);
+		assertOpenFails("capacity not a power of 2", file);
+		writeCapacity(file, 1024);
+		assertOpenFails("capacity below the minimum", file);
+		writeCapacity(file, 1L << 31);
+		assertOpenFails("capacity above the maximum", file);
+		file = newFile();
+		MappedQueue.open(file, 4096).close();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(1024);
+		}
+		assertOpenFails("truncated", file);
+	}
+
+	static void writeCapacity(Path file, long capacity) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+			b.putLong(0, capacity);
+			channel.write(b, 8);
+		}
+	}
+
+	static void assertOpenFails(String message, Path file) {
+		try {
+			MappedQueue.open(file, 4096).close();
+		} catch (IOException e) {
+			return;
+		}
+		fail(message + ", expected IOException but nothing was thrown");
+	}
+
+	/**
+	 * A producer and a consumer with their own mapping of the file, every message arrives once and in order.
+	 */
+	static void producerAndConsumer() throws Exception {
+		Path file = newFile();
+		try(MappedQueue producer = MappedQueue.open(file, 64 * 1024); MappedQueue consumer = MappedQueue.open(file, 1)) {
+			AtomicLong sum = new AtomicLong();
+			concurrently(() -> {
+				ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+				for(long v = 0; v < MESSAGES; v ++) {
+					b.putLong(0, v);
+					producer.put(b);
+				}
+			}, () -> {
+				long[] next = { 0 };
+				while(next[0] < MESSAGES) {
+					consumer.take(b -> {
+						long v = b.getLong(0);
+						assertEquals("in order", next[0] ++, v);
+						sum.addAndGet(v);
+					});
+				}
+			});
+			assertEquals("sum of received", (long) MESSAGES * (MESSAGES - 1) / 2, sum.get());
+			assertEquals("empty", 0, consumer.size());
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package org.theultra.tachyon.queue.wait;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.theultra.tachyon.queue.SimpleBlockingQueue;
+import org.theultra.tachyon.queue.concurrent.ConcurrentQueue;
+
+/**
+ * @author lofint
+ */
+public class WaitStrategyTest {
+	static final int ROUND_TRIPS = 20000;
+
+	public static void main(String[] args) throws Exception {
+		notBlocked();
+		boundedIdle();
+		timeout();
+		pingPong(new BackoffParkWaitStrategy(), ROUND_TRIPS);
+		pingPong(new BlockingWaitStrategy(), ROUND_TRIPS);
+		pingPong(new SpinYieldWaitStrategy(), ROUND_TRIPS);
+		pingPong(new BusySpinWaitStrategy(), 100); //every hand-off costs a time slice when there are fewer cores than threads
+		moreWaitersThanSlots();
+		wakeOneSide();
+		fullQueue(new BlockingWaitStrategy());
+		fullQueue(new BackoffParkWaitStrategy());
+		interrupted(new BlockingWaitStrategy());
+		interrupted(new BackoffParkWaitStrategy());
+		illegalArguments();
+		System.out.println("WaitStrategyTest passed");
+	}
+
+	/**
+	 * A waiter which isn't blocked any more returns at once, even without a timeout.
+	 */
+	static void notBlocked() {
+		BlockingWaitStrategy s = new BlockingWaitStrategy();
+		long t0 = System.nanoTime();
+		assertEquals("idleCount", 1, s.idle(0, () -> false, 0));
+		assertTrue("returned at once", System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	static void illegalArguments() {
+		assertThrows("negative spinTries", IllegalArgumentException.class, () -> new SpinYieldWaitStrategy(-1));
+		assertThrows("negative spinTries", IllegalArgumentException.class, () -> new BackoffParkWaitStrategy(-1, 0, 1, 1));
+		assertThrows("no maxWaitNanos", IllegalArgumentException.class, () -> new BlockingWaitStrategy(0, 1));
+		assertEquals("no spin", 0, new SpinYieldWaitStrategy(0).idle(0));
+	}
+
+	/**
+	 * idle(int) can't re-check, so it never sleeps longer than maxWaitNanos.
+	 */
+	static void boundedIdle() {
+		BlockingWaitStrategy s = new BlockingWaitStrategy(TimeUnit.MILLISECONDS.toNanos(5), 1);
+		long t0 = System.nanoTime();
+		for(int i = 0; i < 10; i ++) s.idle(i);
+		assertTrue("idle(int) is bounded", System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	/**
+	 * The waiters which find no free slot fall back to bounded waits, every object still gets through.
+	 */
+	static void moreWaitersThanSlots() throws InterruptedException {
+		BlockingWaitStrategy s = new BlockingWaitStrategy(TimeUnit.MILLISECONDS.toNanos(1), 1);
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1, s);
+		int perThread = ROUND_TRIPS / 4;
+		AtomicInteger taken = new AtomicInteger();
+		Runnable producer = () -> {
+			for(int i = 0; i < perThread; i ++) q.put(i);
+		};
+		Runnable consumer = () -> {
+			for(int i = 0; i < perThread; i ++) {
+				q.take();
+				taken.incrementAndGet();
+			}
+		};
+		concurrently(producer, producer, producer, consumer, consumer, consumer);
+		assertEquals("taken", 3 * perThread, taken.get());
+	}
+
+	/**
+	 * A signal of one side leaves the waiters of the other side parked.
+	 */
+	static void wakeOneSide() throws InterruptedException {
+		BlockingWaitStrategy s = new BlockingWaitStrategy();
+		AtomicBoolean full = new AtomicBoolean(true);
+		CountDownLatch woken = new CountDownLatch(1);
+		Thread sender = new Thread(() -> {
+			s.idleFull(0, full::get, 0);
+			woken.countDown();
+		});
+		sender.setDaemon(true);
+		sender.start();
+		while(sender.getState() != Thread.State.WAITING) Thread.sleep(1);
+		full.set(false);
+		s.signalNotEmpty();
+		assertFalse("a sender isn't woken by signalNotEmpty()", woken.await(50, TimeUnit.MILLISECONDS));
+		s.signalNotFull();
+		assertTrue("a sender is woken by signalNotFull()", woken.await(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * A sender waits on a full queue until the receiver takes, every object gets through in order.
+	 */
+	static void fullQueue(WaitStrategy s) throws InterruptedException {
+		SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<Integer>(1, s);
+		int count = q.capacity() * 3;
+		concurrently(() -> {
+			for(int i = 0; i < count; i ++) q.put(i);
+		}, () -> {
+			for(int i = 0; i < count; i ++) assertEquals(s.getClass().getSimpleName() + " take", Integer.valueOf(i), q.take());
+		});
+	}
+
+	static void timeout() {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1, new BlockingWaitStrategy());
+		long timeout = TimeUnit.MILLISECONDS.toNanos(20);
+		long t0 = System.nanoTime();
+		assertNull("poll of an empty queue with a timeout", q.poll(timeout));
+		assertTrue("waited for the timeout", System.nanoTime() - t0 >= timeout);
+	}
+
+	/**
+	 * Two threads hand an object back and forth, each waits on an empty queue every time, so a lost signal hangs the test.
+	 */
+	static void pingPong(WaitStrategy s, int roundTrips) throws InterruptedException {
+		SimpleBlockingQueue<Integer> ping = new SimpleBlockingQueue<Integer>(1, s);
+		ConcurrentQueue<Integer> pong = new ConcurrentQueue<Integer>(1, s);
+		concurrently(() -> {
+			for(int i = 0; i < roundTrips; i ++) {
+				ping.put(i);
+				assertEquals(s.getClass().getSimpleName() + " pong", Integer.valueOf(i), pong.take());
+			}
+		}, () -> {
+			for(int i = 0; i < roundTrips; i ++) pong.put(ping.take());
+		});
+	}
+
+	/**
+	 * An interrupt ends the wait of a parked thread with WaitInterruptedException and keeps the interrupt status.
+	 */
+	static void interrupted(WaitStrategy s) throws InterruptedException {
+		ConcurrentQueue<Integer> q = new ConcurrentQueue<Integer>(1, s);
+		AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		CountDownLatch done = new CountDownLatch(1);
+		Thread t = new Thread(() -> {
+			try {
+				q.take();
+			} catch (Throwable e) {
+				thrown.set(e);
+				if(Thread.currentThread().isInterrupted()) done.countDown();
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		Thread.sleep(50);
+		t.interrupt();
+		assertTrue(s.getClass().getSimpleName() + " ends the wait with the interrupt status kept", done.await(10, TimeUnit.SECONDS));
+		assertTrue("thrown " + thrown.get(), thrown.get() instanceof WaitInterruptedException);
+	}
+}
@@ -0,0 +1,174 @@
+package org.theultra.tachyon.ring;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * @author lofint
+ */
+public class EventRingTest {
+	static final int PRODUCERS = 4;
+	static final int CONSUMERS = 4;
+	static final int PER_PRODUCER = 100000;
+	static final int BATCH = 64;
+
+	static final class Event {
+		long value;
+	}
+
+	public static void main(String[] args) throws Exception {
+		singleThreaded();
+		preallocated();
+		drain();
+		drainWithThrowingHandler();
+		multiProducerMultiConsumer(false);
+		multiProducerMultiConsumer(true);
+		System.out.println("EventRingTest passed");
+	}
+
+	static void singleThreaded() {
+		EventRing<Event> ring = new EventRing<Event>(1, Event::new);
+		assertEquals("capacity is rounded up to the minimum", 16, ring.capacity());
+		assertEquals("tryAcquire of an empty ring", -1, ring.tryAcquire());
+		for(int i = 0; i < ring.capacity(); i ++) {
+			long seq = ring.tryClaim();
+			assertEquals("claimed in order", i, seq);
+			ring.get(seq).value = i * 10;
+			ring.publish(seq);
+		}
+		assertEquals("tryClaim of a full ring", -1, ring.tryClaim());
+		assertEquals("size of a full ring", ring.capacity(), ring.size());
+		for(int i = 0; i < ring.capacity(); i ++) {
+			long seq = ring.tryAcquire();
+			assertEquals("acquired in order", i, seq);
+			assertEquals("event written by the sender", i * 10, ring.get(seq).value);
+			ring.release(seq);
+		}
+		assertEquals("tryAcquire after all released", -1, ring.tryAcquire());
+		ring.publish((e, v) -> e.value = v, 77L);
+		long seq = ring.acquire();
+		assertEquals("event written by the translator", 77, ring.get(seq).value);
+		ring.release(seq);
+		assertEquals("size after all released", 0, ring.size());
+		assertThrows("factory returning null", NullPointerException.class, () -> new EventRing<Event>(16, () -> null));
+	}
+
+	/**
+	 * The factory is called capacity times and the events are reused lap after lap.
+	 */
+	static void preallocated() {
+		AtomicInteger created = new AtomicInteger();
+		EventRing<Event> ring = new EventRing<Event>(16, () -> {
+			created.incrementAndGet();
+			return new Event();
+		});
+		assertEquals("events created by the constructor", 16, created.get());
+		Event first = ring.get(0);
+		for(int lap = 0; lap < 3; lap ++) {
+			for(int i = 0; i < ring.capacity(); i ++) ring.publish(ring.claim());
+			for(int i = 0; i < ring.capacity(); i ++) ring.release(ring.acquire());
+		}
+		assertTrue("the event of a slot is reused", first == ring.get(ring.capacity() * 3));
+		assertEquals("no event created after the constructor", 16, created.get());
+	}
+
+	static void drain() {
+		EventRing<Event> ring = new EventRing<Event>(16, Event::new);
+		for(int i = 0; i < 10; i ++) ring.publish((e, v) -> e.value = v, (long) i);
+		List<Long> drained = new ArrayList<Long>();
+		Consumer<Event> handler = e -> drained.add(e.value);
+		assertEquals("drain of max 0", 0, ring.drain(handler, 0));
+		assertEquals("drain at most max", 4, ring.drain(handler, 4));
+		assertEquals("drain the rest", 6, ring.drain(handler, 100));
+		assertEquals("drain of an empty ring", 0, ring.drain(handler, 100));
+		for(int i = 0; i < drained.size(); i ++) assertEquals("drained in ring order", Long.valueOf(i), drained.get(i));
+		assertEquals("size after all drained", 0, ring.size());
+		for(int i = 0; i < ring.capacity(); i ++) assertTrue("slots released by drain can be claimed", ring.tryClaim() >= 0);
+	}
+
+	/**
+	 * The event handed to a throwing handler is taken, the acquired events not handed yet stay in the ring in order.
+	 */
+	static void drainWithThrowingHandler() {
+		EventRing<Event> ring = new EventRing<Event>(16, Event::new);
+		for(int i = 0; i < 10; i ++) ring.publish((e, v) -> e.value = v, (long) i);
+		List<Long> drained = new ArrayList<Long>();
+		assertThrows("drain passes on the exception", IllegalStateException.class, () -> ring.drain(e -> {
+			drained.add(e.value);
+			if(e.value == 3) throw new IllegalStateException();
+		}, 10));
+		assertEquals("handed to the handler", 4, drained.size());
+		assertEquals("size after the throw", 6, ring.size());
+		long seq = ring.acquire();
+		assertEquals("acquire of a handed back slot", 4, ring.get(seq).value);
+		ring.release(seq);
+		ring.publish((e, v) -> e.value = v, 10L);
+		drained.clear();
+		Consumer<Event> handler = e -> drained.add(e.value);
+		assertEquals("drain the handed back slots, then the ring", 3, ring.drain(handler, 3));
+		assertEquals("drain across the handed back slots and the ring", 3, ring.drain(handler, 10));
+		for(int i = 0; i < drained.size(); i ++) assertEquals("drained in ring order", Long.valueOf(5 + i), drained.get(i));
+		assertEquals("size after all drained", 0, ring.size());
+		assertEquals("tryAcquire of an empty ring", -1, ring.tryAcquire());
+		for(int i = 0; i < ring.capacity(); i ++) assertTrue("all slots released", ring.tryClaim() >= 0);
+	}
+
+	/**
+	 * Every event is received exactly once, and each receiver sees the events of a sender in the order they were published.
+	 * @param batch receive with drain() instead of acquire()
+	 */
+	static void multiProducerMultiConsumer(boolean batch) throws InterruptedException {
+		EventRing<Event> ring = new EventRing<Event>(1024, Event::new);
+		long total = (long) PRODUCERS * PER_PRODUCER;
+		AtomicLong received = new AtomicLong();
+		AtomicLong sum = new AtomicLong();
+		Runnable[] tasks = new Runnable[PRODUCERS + CONSUMERS];
+		for(int p = 0; p < PRODUCERS; p ++) {
+			long base = (long) p << 32;
+			tasks[p] = () -> {
+				for(int i = 0; i < PER_PRODUCER; i ++) {
+					long seq = ring.claim();
+					ring.get(seq).value = base | i;
+					ring.publish(seq);
+				}
+			};
+		}
+		for(int c = 0; c < CONSUMERS; c ++) {
+			tasks[PRODUCERS + c] = () -> {
+				long[] last = new long[PRODUCERS];
+				Arrays.fill(last, -1);
+				Consumer<Event> check = e -> {
+					int producer = (int) (e.value >>> 32);
+					long seq = e.value & 0xFFFFFFFFL;
+					assertTrue("events of sender " + producer + " out of order", seq > last[producer]);
+					last[producer] = seq;
+					sum.addAndGet(seq);
+					received.incrementAndGet();
+				};
+				while(received.get() < total) {
+					if(batch) {
+						if(ring.drain(check, BATCH) == 0) Thread.yield();
+					} else {
+						long seq = ring.tryAcquire();
+						if(seq < 0) {
+							Thread.yield();
+							continue;
+						}
+						check.accept(ring.get(seq));
+						ring.release(seq);
+					}
+				}
+			};
+		}
+		concurrently(tasks);
+		assertEquals("received", total, received.get());
+		assertEquals("sum of received", (long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sum.get());
+		assertEquals("size after all released", 0, ring.size());
+	}
+}
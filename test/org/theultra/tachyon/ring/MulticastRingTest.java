@@ -0,0 +1,153 @@
+package org.theultra.tachyon.ring;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.theultra.tachyon.ring.MulticastRing.ConsumerGroup;
+
+/**
+ * @author lofint
+ */
+public class MulticastRingTest {
+	static final int PRODUCERS = 4;
+	static final int PER_PRODUCER = 100000;
+	static final int BATCH = 64;
+
+	static final class Event {
+		long value;
+		long journaled;
+	}
+
+	public static void main(String[] args) throws Exception {
+		wholeRingClaimable();
+		everyGroupSeesEveryEvent();
+		dependencies();
+		drainWithThrowingHandler();
+		multiProducerGroups();
+		System.out.println("MulticastRingTest passed");
+	}
+
+	/**
+	 * A ring of capacity n holds n unhandled events, not n - 1.
+	 */
+	static void wholeRingClaimable() {
+		MulticastRing<Event> ring = new MulticastRing<Event>(1, Event::new);
+		ConsumerGroup<Event> g = ring.newGroup();
+		assertEquals("capacity is rounded up to the minimum", 16, ring.capacity());
+		for(int i = 0; i < ring.capacity(); i ++) {
+			long seq = ring.tryClaim();
+			assertEquals("claim " + i + " of a ring which isn't full", i, seq);
+			ring.publish(seq);
+		}
+		assertEquals("tryClaim of a full ring", -1, ring.tryClaim());
+		assertEquals("drain one", 1, g.drain(e -> {}, 1));
+		assertEquals("tryClaim of the slot the group has passed", ring.capacity(), ring.tryClaim());
+		assertEquals("tryClaim of a full ring again", -1, ring.tryClaim());
+		ring.publish(ring.capacity());
+		assertEquals("drain the rest", ring.capacity(), g.drain(e -> {}, 100));
+		assertEquals("last handled", ring.capacity(), g.getSequence());
+		assertThrows("group created after the first claim", IllegalStateException.class, () -> ring.newGroup());
+	}
+
+	static void everyGroupSeesEveryEvent() {
+		MulticastRing<Event> ring = new MulticastRing<Event>(16, Event::new);
+		ConsumerGroup<Event> a = ring.newGroup();
+		ConsumerGroup<Event> b = ring.newGroup();
+		assertEquals("drain of an empty ring", 0, a.drain(e -> fail("drained from an empty ring"), 10));
+		for(int i = 0; i < 10; i ++) ring.publish((e, v) -> e.value = v, (long) i);
+		List<Long> seenA = new ArrayList<Long>();
+		List<Long> seenB = new ArrayList<Long>();
+		assertEquals("drain at most max", 4, a.drain(e -> seenA.add(e.value), 4));
+		assertEquals("drain the rest", 6, a.drain(e -> seenA.add(e.value), 100));
+		assertEquals("take of the other group", 10, b.take(e -> seenB.add(e.value), 100));
+		for(int i = 0; i < 10; i ++) {
+			assertEquals("group a in ring order", Long.valueOf(i), seenA.get(i));
+			assertEquals("group b in ring order", Long.valueOf(i), seenB.get(i));
+		}
+	}
+
+	/**
+	 * A dependent group only sees what its dependencies have handled, and the ring waits for the dependent group, not for them.
+	 */
+	static void dependencies() {
+		MulticastRing<Event> ring = new MulticastRing<Event>(16, Event::new);
+		ConsumerGroup<Event> journal = ring.newGroup();
+		ConsumerGroup<Event> logic = ring.newGroup(journal);
+		MulticastRing<Event> other = new MulticastRing<Event>(16, Event::new);
+		assertThrows("dependency on a group of another ring", IllegalArgumentException.class, () -> ring.newGroup(other.newGroup()));
+		for(int i = 0; i < 5; i ++) ring.publish((e, v) -> e.value = v, (long) i);
+		assertEquals("nothing journaled yet", 0, logic.drain(e -> fail("read before journaled"), 10));
+		assertEquals("journal three", 3, journal.drain(e -> e.journaled = e.value + 100, 3));
+		assertEquals("logic sees the journaled ones", 3, logic.drain(e -> assertEquals("journaled", e.value + 100, e.journaled), 10));
+		assertEquals("journal the rest", 2, journal.drain(e -> e.journaled = e.value + 100, 10));
+		for(int i = 5; i < ring.capacity() + 3; i ++) ring.publish(ring.claim());
+		assertEquals("the ring is gated by the dependent group", -1, ring.tryClaim());
+	}
+
+	/**
+	 * The events before the failed one are handled, the failed one and the rest are handed again by the next drain.
+	 */
+	static void drainWithThrowingHandler() {
+		MulticastRing<Event> ring = new MulticastRing<Event>(16, Event::new);
+		ConsumerGroup<Event> g = ring.newGroup();
+		for(int i = 0; i < 10; i ++) ring.publish((e, v) -> e.value = v, (long) i);
+		assertThrows("drain passes on the exception", IllegalStateException.class, () -> g.drain(e -> {
+			if(e.value == 3) throw new IllegalStateException();
+		}, 10));
+		assertEquals("handled before the throw", 2, g.getSequence());
+		long[] next = { 3 };
+		assertEquals("drain again from the failed one", 7, g.drain(e -> assertEquals("in ring order", next[0] ++, e.value), 10));
+	}
+
+	/**
+	 * Every group receives every event once, and the events of a sender in the order they were published.
+	 */
+	static void multiProducerGroups() throws InterruptedException {
+		MulticastRing<Event> ring = new MulticastRing<Event>(1024, Event::new);
+		ConsumerGroup<Event> journal = ring.newGroup();
+		ConsumerGroup<Event> replicate = ring.newGroup();
+		ConsumerGroup<Event> logic = ring.newGroup(journal, replicate);
+		List<ConsumerGroup<Event>> groups = Arrays.asList(journal, replicate, logic);
+		long total = (long) PRODUCERS * PER_PRODUCER;
+		AtomicLong[] sums = new AtomicLong[groups.size()];
+		Runnable[] tasks = new Runnable[PRODUCERS + groups.size()];
+		for(int p = 0; p < PRODUCERS; p ++) {
+			long base = (long) p << 32;
+			tasks[p] = () -> {
+				for(int i = 0; i < PER_PRODUCER; i ++) {
+					long seq = ring.claim();
+					ring.get(seq).value = base | i;
+					ring.publish(seq);
+				}
+			};
+		}
+		for(int c = 0; c < groups.size(); c ++) {
+			ConsumerGroup<Event> g = groups.get(c);
+			AtomicLong sum = sums[c] = new AtomicLong();
+			tasks[PRODUCERS + c] = () -> {
+				long[] last = new long[PRODUCERS];
+				Arrays.fill(last, -1);
+				long[] received = { 0 };
+				Consumer<Event> check = e -> {
+					int producer = (int) (e.value >>> 32);
+					long seq = e.value & 0xFFFFFFFFL;
+					assertTrue("events of sender " + producer + " out of order", seq > last[producer]);
+					last[producer] = seq;
+					sum.addAndGet(seq);
+					received[0] ++;
+				};
+				while(received[0] < total) g.take(check, BATCH);
+			};
+		}
+		concurrently(tasks);
+		for(int c = 0; c < groups.size(); c ++) {
+			assertEquals("sum of received by group " + c, (long) PRODUCERS * PER_PRODUCER * (PER_PRODUCER - 1) / 2, sums[c].get());
+			assertEquals("last handled by group " + c, total - 1, groups.get(c).getSequence());
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package org.theultra.tachyon.timer;
+
+import static org.theultra.tachyon.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.theultra.tachyon.timer.HashedWheelTimer.Timeout;
+
+/**
+ * @author lofint
+ */
+public class HashedWheelTimerTest {
+	static final int SCHEDULERS = 4;
+	static final int PER_SCHEDULER = 20000;
+
+	public static void main(String[] args) throws Exception {
+		neverEarly();
+		cancel();
+		dispatcher();
+		beyondOneTurn();
+		stopReturnsPending();
+		scheduleRacingStop();
+		System.out.println("HashedWheelTimerTest passed");
+	}
+
+	static HashedWheelTimer newTimer() {
+		return new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+	}
+
+	static void neverEarly() throws InterruptedException {
+		HashedWheelTimer timer = newTimer();
+		try {
+			int n = 50;
+			CountDownLatch fired = new CountDownLatch(n);
+			AtomicInteger early = new AtomicInteger();
+			for(int i = 0; i < n; i ++) {
+				long delay = TimeUnit.MILLISECONDS.toNanos(i % 10 * 3);
+				long due = System.nanoTime() + delay;
+				timer.schedule(() -> {
+					if(System.nanoTime() < due) early.incrementAndGet();
+					fired.countDown();
+				}, delay, TimeUnit.NANOSECONDS);
+			}
+			assertTrue("every timeout fires", fired.await(10, TimeUnit.SECONDS));
+			assertEquals("fired early", 0, early.get());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	static void cancel() throws InterruptedException {
+		HashedWheelTimer timer = newTimer();
+		try {
+			AtomicInteger ran = new AtomicInteger();
+			Timeout t = timer.schedule(ran::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+			assertTrue("cancel of a pending timeout", t.cancel());
+			assertTrue("cancelled", t.isCancelled());
+			assertFalse("cancel twice", t.cancel());
+			CountDownLatch fired = new CountDownLatch(1);
+			Timeout other = timer.schedule(fired::countDown, 40, TimeUnit.MILLISECONDS);
+			assertTrue("a later timeout fires", fired.await(10, TimeUnit.SECONDS));
+			assertEquals("the cancelled task hasn't run", 0, ran.get());
+			assertFalse("cancel of an expired timeout", other.cancel());
+			assertTrue("expired", other.isExpired());
+			assertThrows("null task", NullPointerException.class, () -> timer.schedule(null, 1, TimeUnit.MILLISECONDS));
+		} finally {
+			timer.stop();
+		}
+	}
+
+	static void dispatcher() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64, executor, 4, Executors.defaultThreadFactory());
+		try {
+			CountDownLatch fired = new CountDownLatch(100);
+			for(int i = 0; i < 100; i ++) timer.schedule(fired::countDown, 5, TimeUnit.MILLISECONDS);
+			assertTrue("every timeout is dispatched", fired.await(10, TimeUnit.SECONDS));
+		} finally {
+			timer.stop();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A timeout further away than one turn of the wheel waits for its rounds.
+	 */
+	static void beyondOneTurn() throws InterruptedException {
+		HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 4);
+		try {
+			assertEquals("ticks per wheel", 4, timer.getTicksPerWheel());
+			CountDownLatch fired = new CountDownLatch(1);
+			long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(30);
+			long[] at = { 0 };
+			timer.schedule(() -> {
+				at[0] = System.nanoTime();
+				fired.countDown();
+			}, 30, TimeUnit.MILLISECONDS);
+			assertTrue("fires", fired.await(10, TimeUnit.SECONDS));
+			assertTrue("not before its rounds", at[0] >= due);
+		} finally {
+			timer.stop();
+		}
+	}
+
+	static void stopReturnsPending() {
+		HashedWheelTimer timer = newTimer();
+		Timeout a = timer.schedule(() -> fail("ran after stop"), 1, TimeUnit.HOURS);
+		Timeout b = timer.schedule(() -> fail("ran after stop"), 1, TimeUnit.HOURS);
+		Timeout c = timer.schedule(() -> fail("ran after stop"), 1, TimeUnit.HOURS);
+		b.cancel();
+		List<Timeout> pending = timer.stop();
+		assertEquals("pending timeouts", 2, pending.size());
+		assertTrue("pending a", pending.contains(a));
+		assertTrue("pending c", pending.contains(c));
+		assertThrows("schedule after stop", IllegalStateException.class, () -> timer.schedule(() -> {}, 1, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Every timeout whose schedule() has returned is either in the wheel or returned by stop(), never lost.
+	 */
+	static void scheduleRacingStop() throws InterruptedException {
+		for(int round = 0; round < 5; round ++) {
+			HashedWheelTimer timer = newTimer();
+			AtomicInteger scheduled = new AtomicInteger();
+			AtomicReference<List<Timeout>> pending = new AtomicReference<List<Timeout>>();
+			Runnable[] tasks = new Runnable[SCHEDULERS + 1];
+			for(int i = 0; i < SCHEDULERS; i ++) {
+				tasks[i] = () -> {
+					try {
+						for(int t = 0; t < PER_SCHEDULER; t ++) {
+							timer.schedule(() -> {}, 1, TimeUnit.HOURS);
+							scheduled.incrementAndGet();
+						}
+					} catch (IllegalStateException e) {
+						//stopped
+					}
+				};
+			}
+			tasks[SCHEDULERS] = () -> {
+				while(scheduled.get() < PER_SCHEDULER) Thread.yield();
+				pending.set(timer.stop());
+			};
+			concurrently(tasks);
+			assertEquals("every scheduled timeout is returned by stop()", scheduled.get(), pending.get().size());
+		}
+	}
+}